@@ -0,0 +1,78 @@
+package calculator;
+
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ *  Benchmarks for each arithmetic operation on Registers, by operand types
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ArithmeticBenchmark {
+
+    // operand types: both long, both double, long and double
+    @Param({"long", "double", "mixed"})
+    public String operands;
+
+    private final Register val1 = new Register();
+    private final Register val2 = new Register();
+    private final Register result = new Register();
+
+    // load the operands
+    @Setup
+    public void setup() {
+        if (this.operands.equals("long")) {
+            this.val1.set(72345L);
+            this.val2.set(7L);
+        }
+        else if (this.operands.equals("double")) {
+            this.val1.setDouble(72.345);
+            this.val2.setDouble(7.1);
+        }
+        else {
+            this.val1.set(72345L);
+            this.val2.setDouble(7.1);
+        }
+    }
+
+    @Benchmark
+    public Register add() {
+        Arithmetic.calculate(this.val1, Calculator.OP_PLUS, this.val2, this.result);
+        return this.result;
+    }
+
+    @Benchmark
+    public Register subtract() {
+        Arithmetic.calculate(this.val1, Calculator.OP_MINUS, this.val2, this.result);
+        return this.result;
+    }
+
+    @Benchmark
+    public Register multiply() {
+        Arithmetic.calculate(this.val1, Calculator.OP_MULTIPLY, this.val2, this.result);
+        return this.result;
+    }
+
+    @Benchmark
+    public Register divide() {
+        Arithmetic.calculate(this.val1, Calculator.OP_DIVIDE, this.val2, this.result);
+        return this.result;
+    }
+}
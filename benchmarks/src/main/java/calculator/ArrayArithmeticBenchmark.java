@@ -0,0 +1,107 @@
+package calculator;
+
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ *  Benchmarks for ArrayArithmetic, the scalar loops against the Vector API
+ *  kernels, reported per element.  The forks add jdk.incubator.vector so
+ *  "default" is the vectorized implementation; setup fails if it is not.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ArrayArithmeticBenchmark {
+
+    public static final int ROWS = 4096;
+
+    @Param({"scalar", "default"})
+    public String implementation;
+
+    private ArrayArithmetic arithmetic = null;
+    private final long[] longs1 = new long[ROWS];
+    private final long[] longs2 = new long[ROWS];
+    private final long[] longResult = new long[ROWS];
+    private final double[] doubles1 = new double[ROWS];
+    private final double[] doubles2 = new double[ROWS];
+    private final double[] doubleResult = new double[ROWS];
+
+    // fill the operands, one divisor in 64 is zero
+    @Setup
+    public void setup() {
+        if (this.implementation.equals("scalar")) {
+            this.arithmetic = ArrayArithmetic.scalar();
+        }
+        else {
+            this.arithmetic = ArrayArithmetic.getDefault();
+            if (!this.arithmetic.isVectorized()) {
+                throw new IllegalStateException("the Vector API is not available");
+            }
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < ROWS; i++) {
+            this.longs1[i] = random.nextInt(100000);
+            this.longs2[i] = (i % 64 == 0) ? 0 : random.nextInt(100000);
+            this.doubles1[i] = random.nextDouble() * 1000.0;
+            this.doubles2[i] = (i % 64 == 0) ? 0.0 : random.nextDouble() * 1000.0;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long[] addLongs() {
+        this.arithmetic.add(this.longs1, this.longs2, this.longResult, ROWS);
+        return this.longResult;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public long[] multiplyLongs() {
+        this.arithmetic.multiply(this.longs1, this.longs2, this.longResult, ROWS);
+        return this.longResult;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int divideLongs() {
+        return this.arithmetic.divide(this.longs1, this.longs2, this.doubleResult, ROWS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] addDoubles() {
+        this.arithmetic.add(this.doubles1, this.doubles2, this.doubleResult, ROWS);
+        return this.doubleResult;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] multiplyDoubles() {
+        this.arithmetic.multiply(this.doubles1, this.doubles2, this.doubleResult, ROWS);
+        return this.doubleResult;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public int divideDoubles() {
+        return this.arithmetic.divide(this.doubles1, this.doubles2, this.doubleResult, ROWS);
+    }
+}
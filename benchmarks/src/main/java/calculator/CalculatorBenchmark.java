@@ -0,0 +1,83 @@
+package calculator;
+
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+
+/**
+ *  Benchmarks for replaying CalculatorTester's token sequences through Calculator.enter
+ *
+ *  One operation is the whole corpus, every test case entered token by token.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CalculatorBenchmark {
+
+    private String[][] tokens = null;
+    private Calculator calculator = null;
+
+    // split the corpus once, as CalculatorTester.runTest does per test
+    @Setup
+    public void setup() {
+        this.tokens = new String[CalculatorTester.TESTS.length][];
+        for (int i = 0; i < this.tokens.length; i++) {
+            this.tokens[i] = CalculatorTester.TESTS[i][0].split("[ ]");
+        }
+        this.calculator = new Calculator();
+    }
+
+    // enter every token of every test
+    @Benchmark
+    public void replay(Blackhole blackhole) {
+        for (int i = 0; i < this.tokens.length; i++) {
+            this.calculator.clear();
+            String[] test = this.tokens[i];
+            for (int j = 0; j < test.length; j++) {
+                this.calculator.enter(test[j]);
+            }
+            blackhole.consume(this.calculator);
+        }
+    }
+
+    // as replay, also rendering the display after every token as CalculatorUI does
+    @Benchmark
+    public void replayWithDisplay(Blackhole blackhole) {
+        for (int i = 0; i < this.tokens.length; i++) {
+            this.calculator.clear();
+            String[] test = this.tokens[i];
+            for (int j = 0; j < test.length; j++) {
+                this.calculator.enter(test[j]);
+                blackhole.consume(this.calculator.getCurrentValueAsString());
+            }
+        }
+    }
+
+    // as replay, reading the result as a Value
+    @Benchmark
+    public void replayWithResult(Blackhole blackhole) {
+        for (int i = 0; i < this.tokens.length; i++) {
+            this.calculator.clear();
+            String[] test = this.tokens[i];
+            for (int j = 0; j < test.length; j++) {
+                this.calculator.enter(test[j]);
+            }
+            blackhole.consume(this.calculator.getCurrentValue());
+        }
+    }
+}
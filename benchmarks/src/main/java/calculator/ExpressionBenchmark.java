@@ -0,0 +1,113 @@
+package calculator;
+
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+
+/**
+ *  Benchmarks for the compiled expression paths: compiling, cache lookup,
+ *  evaluation on each backend and batch evaluation over columns
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ExpressionBenchmark {
+
+    public static final int ROWS = 65536;
+    public static final String FORMULA = "a * 1.07 + b";
+
+    @Param({"0", "1"})  // Expression.BACKEND_INTERPRETER, Expression.BACKEND_GENERATED
+    public int backend;
+
+    private String[] sources = null;
+    private ExpressionFrame[] frames = null;
+    private ExpressionFrame formula = null;
+    private ExpressionCache cache = null;
+    private BatchEvaluator batch = null;
+    private double[] out = null;
+
+    // compile the corpus and fill the columns
+    @Setup
+    public void setup() {
+        this.sources = new String[CalculatorTester.TESTS.length];
+        this.frames = new ExpressionFrame[this.sources.length];
+        this.cache = new ExpressionCache(ExpressionCache.DEFAULT_CAPACITY, this.backend);
+        for (int i = 0; i < this.sources.length; i++) {
+            this.sources[i] = CalculatorTester.TESTS[i][0];
+            this.frames[i] = Expression.compile(this.sources[i], this.backend).newFrame();
+            this.cache.get(this.sources[i]);
+        }
+        Expression expression = Expression.compile(FORMULA, this.backend);
+        this.formula = expression.newFrame();
+        this.formula.set("a", new Value(72345L));
+        this.formula.set("b", Value.valueOf("0.5"));
+
+        Random random = new Random(42);
+        long[] a = new long[ROWS];
+        double[] b = new double[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            a[i] = random.nextInt(100000);
+            b[i] = random.nextDouble() * 1000.0;
+        }
+        this.batch = expression.newBatchEvaluator();
+        this.batch.bind("a", a);
+        this.batch.bind("b", b);
+        this.out = new double[ROWS];
+    }
+
+    // tokenize and compile the whole corpus
+    @Benchmark
+    public void compileCorpus(Blackhole blackhole) {
+        for (int i = 0; i < this.sources.length; i++) {
+            blackhole.consume(Expression.compile(this.sources[i]));
+        }
+    }
+
+    // look up the whole corpus in a warm cache, including normalizing
+    @Benchmark
+    public void cacheCorpus(Blackhole blackhole) {
+        for (int i = 0; i < this.sources.length; i++) {
+            blackhole.consume(this.cache.get(this.sources[i]));
+        }
+    }
+
+    // evaluate the whole corpus from compiled frames
+    @Benchmark
+    public void evaluateCorpus(Blackhole blackhole) {
+        for (int i = 0; i < this.frames.length; i++) {
+            blackhole.consume(this.frames[i].evaluate());
+        }
+    }
+
+    // evaluate a formula with variables once
+    @Benchmark
+    public Register evaluateFormula() {
+        return this.formula.evaluate();
+    }
+
+    // evaluate the formula over columns, reported per row
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public double[] evaluateFormulaBatch() {
+        this.batch.evaluate(0, ROWS, this.out);
+        return this.out;
+    }
+}
@@ -0,0 +1,98 @@
+package calculator;
+
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ *  Benchmarks for recovering a CalculatorJournal, by the number of tokens journaled
+ *
+ *  One operation is opening the journal, which loads the snapshot and replays the
+ *  log after it, and closing it again.  Without snapshots every token is replayed,
+ *  with them only those since the last snapshot.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class JournalBenchmark {
+
+    private static final int SNAPSHOT_INTERVAL = 4096;
+
+    // number of tokens entered before recovering
+    @Param({"10000", "100000", "1000000"})
+    public int tokens;
+
+    // whether snapshots are taken while the tokens are entered
+    @Param({"true", "false"})
+    public boolean snapshots;
+
+    private Path directory = null;
+
+    // journal the corpus, repeated, once for all iterations
+    @Setup
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("journal");
+        int interval = this.snapshots ? SNAPSHOT_INTERVAL : Integer.MAX_VALUE;
+        CalculatorJournal journal = CalculatorJournal.open(this.directory, new Calculator(), interval,
+                                                           CalculatorJournal.DEFAULT_COMMIT_MILLIS);
+        int entered = 0;
+        while (entered < this.tokens) {
+            for (int i = 0; i < CalculatorTester.TESTS.length && entered < this.tokens; i++) {
+                String[] test = CalculatorTester.TESTS[i][0].split("[ ]");
+                for (int j = 0; j < test.length && entered < this.tokens; j++) {
+                    journal.enter(test[j]);
+                    entered++;
+                }
+            }
+        }
+        journal.close();
+    }
+
+    // remove the journal
+    @TearDown
+    public void tearDown() throws IOException {
+        Stream<Path> paths = Files.walk(this.directory);
+        try {
+            Path[] files = paths.sorted(Comparator.reverseOrder()).toArray(Path[]::new);
+            for (int i = 0; i < files.length; i++) {
+                Files.delete(files[i]);
+            }
+        }
+        finally {
+            paths.close();
+        }
+    }
+
+    @Benchmark
+    public Value recover() throws IOException {
+        CalculatorJournal journal = CalculatorJournal.open(this.directory, new Calculator(), SNAPSHOT_INTERVAL,
+                                                           CalculatorJournal.DEFAULT_COMMIT_MILLIS);
+        try {
+            return journal.getCurrentValue();
+        }
+        finally {
+            journal.close();
+        }
+    }
+}
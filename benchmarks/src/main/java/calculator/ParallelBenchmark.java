@@ -0,0 +1,78 @@
+package calculator;
+
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ *  Benchmarks for evaluating one long chain of terms, "1 + 4 + 10 + 2 - 6 + 1 ..." repeated,
+ *  in the interpreter and with ParallelEvaluator in both orders
+ *
+ *  The double chain has "6.1" for "6", so the strict order has to fold it left to right.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParallelBenchmark {
+
+    private static final String[] LONG_TERMS = {"1", "+", "4", "+", "10", "+", "2", "-", "6", "+"};
+    private static final String[] DOUBLE_TERMS = {"1", "+", "4", "+", "10", "+", "2", "-", "6.1", "+"};
+
+    // number of terms in the chain
+    @Param({"10000", "1000000"})
+    public int terms;
+
+    // operand types: all long, or with doubles
+    @Param({"long", "double"})
+    public String operands;
+
+    private ExpressionFrame frame = null;
+    private ParallelEvaluator strict = null;
+    private ParallelEvaluator reassociated = null;
+
+    // compile the chain once
+    @Setup
+    public void setup() {
+        String[] pattern = this.operands.equals("long") ? LONG_TERMS : DOUBLE_TERMS;
+        StringBuilder source = new StringBuilder(this.terms * 4);
+        for (int i = 0; i < this.terms; i++) {
+            source.append(pattern[(2 * i) % pattern.length]).append(' ');
+            source.append((i < this.terms - 1) ? pattern[(2 * i + 1) % pattern.length] : Calculator.STR_EQUALS);
+            source.append(' ');
+        }
+        Expression expression = Expression.compile(source.toString().trim());
+        this.frame = expression.newFrame();
+        this.strict = expression.newParallelEvaluator(ParallelEvaluator.ORDER_STRICT);
+        this.reassociated = expression.newParallelEvaluator(ParallelEvaluator.ORDER_REASSOCIATED);
+    }
+
+    @Benchmark
+    public Register interpreter() {
+        return this.frame.evaluate();
+    }
+
+    @Benchmark
+    public Value strict() {
+        return this.strict.evaluate();
+    }
+
+    @Benchmark
+    public Value reassociated() {
+        return this.reassociated.evaluate();
+    }
+}
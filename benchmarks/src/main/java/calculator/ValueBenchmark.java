@@ -0,0 +1,85 @@
+package calculator;
+
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+
+/**
+ *  Benchmarks for creating Values: parsing Strings and normalizing doubles
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ValueBenchmark {
+
+    // long, double, long overflow, malformed and the error literal
+    @Param({"72345", "49.7", "7.0", "12345678901234567890", "7..0", "Error"})
+    public String text;
+
+    public double wholeDouble = 49.0;
+    public double fractionDouble = 49.7;
+    public long longValue = 72345;
+
+    private final Register register = new Register();
+    private byte[] bytes = null;
+
+    // the text as ASCII bytes
+    @Setup
+    public void setup() {
+        this.bytes = this.text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Value(String)
+    @Benchmark
+    public Value parse() {
+        return new Value(this.text);
+    }
+
+    // Register.set(String), parsing without creating a Value
+    @Benchmark
+    public Register parseIntoRegister() {
+        this.register.set(this.text);
+        return this.register;
+    }
+
+    // NumberParser straight from bytes, as from a network buffer
+    @Benchmark
+    public Register parseBytes() {
+        NumberParser.parse(this.bytes, 0, this.bytes.length, this.register);
+        return this.register;
+    }
+
+    // Value(double) collapsing 49.0 to a long
+    @Benchmark
+    public Value normalizeWholeDouble() {
+        return new Value(this.wholeDouble);
+    }
+
+    // Value(double) keeping 49.7 a double
+    @Benchmark
+    public Value normalizeFractionDouble() {
+        return new Value(this.fractionDouble);
+    }
+
+    // Value(long)
+    @Benchmark
+    public Value fromLong() {
+        return new Value(this.longValue);
+    }
+}
@@ -0,0 +1,110 @@
+package calculator;
+
+
+/************************************************************
+ *  Arithmetic
+ *
+ *  The calculator's operations, working on Registers so that
+ *  no objects are created per operation.
+ *
+ *  Every method reads its operands before writing the result,
+ *  so the result register may be one of the operands.  The
+ *  individual operations expect non-error operands, calculate()
+ *  takes care of errors.
+ *
+ ************************************************************/
+public final class Arithmetic {
+
+    // static methods only
+    private Arithmetic() {
+    }
+
+    /**
+     *  calculate val1 op val2 into result
+     *      an error operand or unknown operation gives an error result
+     */
+    public static void calculate(Register val1, int op, Register val2, Register result) {
+        if (val1.isError() || val2.isError()) {
+            result.setError();
+            return;
+        }
+        switch(op) {
+            case Calculator.OP_NONE: result.set(val2);
+                                     return;
+            case Calculator.OP_PLUS: add(val1, val2, result);
+                                     return;
+            case Calculator.OP_MINUS: subtract(val1, val2, result);
+                                      return;
+            case Calculator.OP_MULTIPLY: multiply(val1, val2, result);
+                                         return;
+            case Calculator.OP_DIVIDE: divide(val1, val2, result);
+                                       return;
+            default: // do nothing
+        }
+        result.setError();
+    }
+
+    /**
+     *  calculate val1 op val2 as Values, a missing operand gives an error
+     *  @return resulting value
+     */
+    public static Value calculate(Value val1, int op, Value val2) {
+        if (val1 == null || val2 == null) {
+            return Value.error();
+        }
+        Register result = new Register();
+        Register right = new Register();
+        result.set(val1);
+        right.set(val2);
+        calculate(result, op, right, result);
+        return result.toValue();
+    }
+
+    /**
+     * addition
+     */
+    public static void add(Register val1, Register val2, Register result) {
+        if (val1.isLong() && val2.isLong()) {
+            result.set(val1.longValue() + val2.longValue());
+        }
+        else {
+            result.set(val1.doubleValue() + val2.doubleValue());
+        }
+    }
+
+    /**
+     * subtraction
+     */
+    public static void subtract(Register val1, Register val2, Register result) {
+        if (val1.isLong() && val2.isLong()) {
+            result.set(val1.longValue() - val2.longValue());
+        }
+        else {
+            result.set(val1.doubleValue() - val2.doubleValue());
+        }
+    }
+
+    /**
+     * multiplication
+     */
+    public static void multiply(Register val1, Register val2, Register result) {
+        if (val1.isLong() && val2.isLong()) {
+            result.set(val1.longValue() * val2.longValue());
+        }
+        else {
+            result.set(val1.doubleValue() * val2.doubleValue());
+        }
+    }
+
+    /**
+     * division, dividing by zero gives an error
+     */
+    public static void divide(Register val1, Register val2, Register result) {
+        if (val2.isZero()) {
+            result.setError();
+        }
+        else {
+            result.set(val1.doubleValue() / val2.doubleValue());
+        }
+    }
+}
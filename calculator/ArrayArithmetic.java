@@ -0,0 +1,207 @@
+package calculator;
+
+
+/************************************************************
+ *  ArrayArithmetic
+ *
+ *  The calculator's operations over plain long[] and double[]
+ *  arrays, for bulk evaluation of numeric columns.
+ *
+ *  Each element follows the rules of Arithmetic for operands of
+ *  one type: two longs add, subtract and multiply as longs,
+ *  wrapping on overflow, and everything else, division included,
+ *  is double arithmetic.  Dividing by zero is an error, written
+ *  as NaN, the payload of an error row in a ValueColumn, and
+ *  counted in the return value.  The arrays have no type tags,
+ *  so whole double results are not collapsed to long; a caller
+ *  keeping types does that itself.  The result array may be one
+ *  of the operand arrays.
+ *
+ *  This class is the scalar implementation.  getDefault()
+ *  returns VectorArithmetic, the same operations on SIMD lanes
+ *  through the incubating Vector API, when the JVM was started
+ *  with --add-modules jdk.incubator.vector, and this class
+ *  otherwise; -Dcalculator.vector=false forces the scalar loops.
+ *
+ ************************************************************/
+public class ArrayArithmetic {
+
+    private static final ArrayArithmetic SCALAR = new ArrayArithmetic();
+    private static final ArrayArithmetic DEFAULT = load();
+
+
+    // constructor, see getDefault() and scalar()
+    ArrayArithmetic() {
+    }
+
+    // the vectorized implementation if the Vector API is there, the scalar one otherwise
+    private static ArrayArithmetic load() {
+        if (!"false".equals(System.getProperty("calculator.vector"))
+            && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // by name, so this class loads without the module
+                return (ArrayArithmetic)Class.forName("calculator.VectorArithmetic").getDeclaredConstructor().newInstance();
+            }
+            catch (ReflectiveOperationException e) {
+                // fall back to the scalar loops
+            }
+            catch (LinkageError e) {
+                // fall back to the scalar loops
+            }
+        }
+        return SCALAR;
+    }
+
+    /**
+     * @return the fastest implementation available in this JVM
+     */
+    public static ArrayArithmetic getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the scalar implementation
+     */
+    public static ArrayArithmetic scalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return whether this implementation uses SIMD lanes
+     */
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * @return the name of this implementation
+     */
+    public String toString() {
+        return "scalar";
+    }
+
+
+    /**
+     *  calculate val1 op val2 into result for the first count elements
+     *      an unknown operation gives an error in every element
+     *  @return number of elements that are errors
+     */
+    public int calculate(double[] val1, int op, double[] val2, double[] result, int count) {
+        switch(op) {
+            case Calculator.OP_NONE: System.arraycopy(val2, 0, result, 0, count);
+                                     return 0;
+            case Calculator.OP_PLUS: add(val1, val2, result, count);
+                                     return 0;
+            case Calculator.OP_MINUS: subtract(val1, val2, result, count);
+                                      return 0;
+            case Calculator.OP_MULTIPLY: multiply(val1, val2, result, count);
+                                         return 0;
+            case Calculator.OP_DIVIDE: return divide(val1, val2, result, count);
+            default: // do nothing
+        }
+        for (int i = 0; i < count; i++) {
+            result[i] = Double.NaN;
+        }
+        return count;
+    }
+
+    /**
+     * long addition
+     */
+    public void add(long[] val1, long[] val2, long[] result, int count) {
+        for (int i = 0; i < count; i++) {
+            result[i] = val1[i] + val2[i];
+        }
+    }
+
+    /**
+     * long subtraction
+     */
+    public void subtract(long[] val1, long[] val2, long[] result, int count) {
+        for (int i = 0; i < count; i++) {
+            result[i] = val1[i] - val2[i];
+        }
+    }
+
+    /**
+     * long multiplication
+     */
+    public void multiply(long[] val1, long[] val2, long[] result, int count) {
+        for (int i = 0; i < count; i++) {
+            result[i] = val1[i] * val2[i];
+        }
+    }
+
+    /**
+     * division of longs, as doubles, dividing by zero gives NaN
+     * @return number of divisions by zero
+     */
+    public int divide(long[] val1, long[] val2, double[] result, int count) {
+        return divideRange(val1, val2, result, 0, count);
+    }
+
+    // division of longs from (inclusive) to (exclusive), also the tail of the vectorized loop
+    final int divideRange(long[] val1, long[] val2, double[] result, int from, int to) {
+        int errors = 0;
+        for (int i = from; i < to; i++) {
+            if (val2[i] == 0) {
+                result[i] = Double.NaN;
+                errors++;
+            }
+            else {
+                result[i] = (double)val1[i] / (double)val2[i];
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * double addition
+     */
+    public void add(double[] val1, double[] val2, double[] result, int count) {
+        for (int i = 0; i < count; i++) {
+            result[i] = val1[i] + val2[i];
+        }
+    }
+
+    /**
+     * double subtraction
+     */
+    public void subtract(double[] val1, double[] val2, double[] result, int count) {
+        for (int i = 0; i < count; i++) {
+            result[i] = val1[i] - val2[i];
+        }
+    }
+
+    /**
+     * double multiplication
+     */
+    public void multiply(double[] val1, double[] val2, double[] result, int count) {
+        for (int i = 0; i < count; i++) {
+            result[i] = val1[i] * val2[i];
+        }
+    }
+
+    /**
+     * double division, dividing by zero gives NaN
+     * @return number of divisions by zero
+     */
+    public int divide(double[] val1, double[] val2, double[] result, int count) {
+        return divideRange(val1, val2, result, 0, count);
+    }
+
+    // double division from (inclusive) to (exclusive), also the tail of the vectorized loop
+    final int divideRange(double[] val1, double[] val2, double[] result, int from, int to) {
+        int errors = 0;
+        for (int i = from; i < to; i++) {
+            if (val2[i] == 0.0) {
+                result[i] = Double.NaN;
+                errors++;
+            }
+            else {
+                result[i] = val1[i] / val2[i];
+            }
+        }
+        return errors;
+    }
+}
@@ -0,0 +1,128 @@
+package calculator;
+
+
+/************************************************************
+ *  BatchEvaluator
+ *
+ *  Evaluates one Expression over columns of variable values,
+ *  such as "a * 1.07 + b" over millions of rows.
+ *
+ *  Variables are bound to long[] or double[] columns.  A long
+ *  column is typed LONG and a double column DOUBLE, just as if
+ *  each value had been entered as "7" or "7.0", so the long and
+ *  double rules of the Calculator apply per row.
+ *
+ *  Rows are processed in chunks: each instruction of the
+ *  expression runs as one loop over a chunk of ValueColumns,
+ *  so there is no Value, String or per row dispatch involved.
+ *  An evaluator is not thread safe, but several evaluators can
+ *  work on different row ranges of the same columns.
+ *
+ ************************************************************/
+public final class BatchEvaluator {
+
+    public static final int CHUNK_SIZE = 1024;
+
+    private final Expression expression;
+    private final ValueColumn[] frame;
+    private final long[][] longColumns;      // bound long column per variable
+    private final double[][] doubleColumns;  // bound double column per variable
+
+
+    // constructor, see Expression.newBatchEvaluator()
+    BatchEvaluator(Expression expression) {
+        this.expression = expression;
+        this.frame = new ValueColumn[expression.getFrameSize()];
+        for (int i = 0; i < this.frame.length; i++) {
+            this.frame[i] = new ValueColumn(CHUNK_SIZE);
+        }
+        expression.initialize(this.frame);
+        this.longColumns = new long[expression.getVariableCount()][];
+        this.doubleColumns = new double[expression.getVariableCount()][];
+    }
+
+
+    /**
+     * bind a variable to a column of long values
+     */
+    public void bind(int variable, long[] column) {
+        checkVariable(variable);
+        this.longColumns[variable] = column;
+        this.doubleColumns[variable] = null;
+    }
+
+    /**
+     * bind a variable to a column of double values
+     */
+    public void bind(int variable, double[] column) {
+        checkVariable(variable);
+        this.doubleColumns[variable] = column;
+        this.longColumns[variable] = null;
+    }
+
+    /**
+     * bind a named variable to a column of long values, ignored if the expression does not use it
+     */
+    public void bind(String name, long[] column) {
+        int variable = this.expression.getVariableIndex(name);
+        if (variable >= 0) {
+            bind(variable, column);
+        }
+    }
+
+    /**
+     * bind a named variable to a column of double values, ignored if the expression does not use it
+     */
+    public void bind(String name, double[] column) {
+        int variable = this.expression.getVariableIndex(name);
+        if (variable >= 0) {
+            bind(variable, column);
+        }
+    }
+
+    // make sure a variable exists
+    private void checkVariable(int variable) {
+        if (variable < 0 || variable >= this.expression.getVariableCount()) {
+            throw new IndexOutOfBoundsException("no variable " + variable + " in " + this.expression);
+        }
+    }
+
+    /**
+     * evaluate rows from (inclusive) to to (exclusive) into the same rows of out
+     */
+    public void evaluate(int from, int to, ValueColumn out) {
+        ValueColumn result = this.frame[this.expression.getResultIndex()];
+        for (int row = from; row < to; row += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, to - row);
+            evaluateChunk(row, count);
+            out.copy(result, 0, row, count);
+        }
+    }
+
+    /**
+     * evaluate rows from (inclusive) to to (exclusive) into the same rows of out,
+     *     errors are written as NaN
+     */
+    public void evaluate(int from, int to, double[] out) {
+        ValueColumn result = this.frame[this.expression.getResultIndex()];
+        for (int row = from; row < to; row += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, to - row);
+            evaluateChunk(row, count);
+            System.arraycopy(result.doubles, 0, out, row, count);
+        }
+    }
+
+    // load the variables for a chunk and run the expression over it
+    private void evaluateChunk(int row, int count) {
+        for (int i = 0; i < this.longColumns.length; i++) {
+            ValueColumn column = this.frame[this.expression.getVariableFrameIndex(i)];
+            if (this.longColumns[i] != null) {
+                column.load(this.longColumns[i], row, 0, count);
+            }
+            else if (this.doubleColumns[i] != null) {
+                column.load(this.doubleColumns[i], row, 0, count);
+            }
+        }
+        this.expression.execute(this.frame, count);
+    }
+}
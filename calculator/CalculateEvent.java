@@ -0,0 +1,59 @@
+package calculator;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+
+
+/************************************************************
+ *  CalculateEvent
+ *
+ *  Flight Recorder event for one Calculator calculation, unary
+ *  operators included: the operator, the operand and result
+ *  types and whether it gave an error.  A unary operator has
+ *  the same operand twice.  Only calculations slower than the
+ *  threshold are committed.  When not recording, the JIT removes
+ *  the event object entirely, so it costs nothing.
+ *
+ ************************************************************/
+@Name("calculator.Calculate")
+@Label("Calculate")
+@Category("Calculator")
+@Description("A calculator combined its operands, or applied a unary operator")
+@StackTrace(false)
+@Threshold("10 us")
+final class CalculateEvent extends jdk.jfr.Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Operand 1 Type")
+    String operand1Type;
+
+    @Label("Operand 2 Type")
+    String operand2Type;
+
+    @Label("Result Type")
+    String resultType;
+
+    @Label("Error")
+    boolean error;
+
+
+    /**
+     * @return name of a Value type for the event fields
+     */
+    static String typeName(int type) {
+        switch(type) {
+            case Value.LONG: return "long";
+            case Value.DOUBLE: return "double";
+            case Value.DECIMAL: return "decimal";
+            default: return "error";
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package calculator;
 
+
+import java.nio.ByteBuffer;
+
+
+
 /******************************************************************
  * Calculator
  *
@@ -24,12 +29,20 @@ package calculator;
  * and operator to be processed later when the higher priority operations
  * are complete.
  *
+ * Expression now does the third: it compiles tokens with operator
+ * precedence into a reusable program.  Calculator itself keeps the
+ * simple behavior.
+ *
  * KNOWN ERROR #2
  * Pressing equals when there are values put no operation produces error
  * The fix should be to ignore "=" when there is no operator
  *
  * KNOWN PROBLEM
  * Need to add rounding
+ *
+ * setNumericMode() now offers checked, decimal and fixed point
+ * arithmetic with rounding, see NumericMode.  The default is the
+ * original arithmetic.
  ******************************************************************/
 public class Calculator {
     
@@ -38,6 +51,10 @@ public class Calculator {
     public static final int OP_MINUS = 2;
     public static final int OP_MULTIPLY = 3;
     public static final int OP_DIVIDE = 4;
+    public static final int OP_REMAINDER = 5;  // the extended operators, see OperatorRegistry
+    public static final int OP_POWER = 6;
+    public static final int OP_NEGATE = 7;
+    public static final int OP_SQRT = 8;
 
     public static final String STR_EQUALS = "=";
     public static final String STR_CLEAR = "Clear";
@@ -47,19 +64,24 @@ public class Calculator {
     public static final String STR_MULTIPLY = "*";
     public static final String STR_DOT = ".";
 
-    private static final String[] OPERATION = {"", STR_PLUS, STR_MINUS, STR_MULTIPLY, STR_DIVIDE};
 
-    private String inputString = "";  // a non-zero length would indicate an edit state
-    private Value operand1 = null;
-    private Value operand2 = null;
+    private final InputAccumulator input = new InputAccumulator();  // a non-zero length would indicate an edit state
+    private final Register operand1 = new Register();  // operands are reused, never reallocated
+    private final Register operand2 = new Register();
+    private boolean hasOperand1 = false;
+    private boolean hasOperand2 = false;
     private int operation = OP_NONE;
+    private NumericMode mode = NumericMode.legacy();
+    private ResultMemo memo = null;  // null unless memoizing
+    private OperatorRegistry operators = OperatorRegistry.getDefault();
  
 
     /**
      *  constructor
      */
     public Calculator() {
-        clear();
+        _clear();
+        SessionEvent.record(SessionEvent.START, this);
     }
 
 
@@ -67,73 +89,169 @@ public class Calculator {
      * clear the calculator
      */
     public void clear() {
-        this.operand1 = null;
-        this.operand2 = null;
+        _clear();
+        SessionEvent.record(SessionEvent.CLEAR, this);
+    }
+
+    /**
+     * clear the calculator for the next replayed session, without a SessionEvent per line
+     */
+    void reset() {
+        _clear();
+    }
+
+    // clear without recording an event
+    private void _clear() {
+        this.hasOperand1 = false;
+        this.hasOperand2 = false;
         this.operation = OP_NONE;
         setOperand("0");
-        this.inputString = "";
+        this.input.clear();
+    }
+
+    // the operand the next input is applied to, marked as set
+    private Register nextOperand() {
+        if (!this.hasOperand1) {
+            this.hasOperand1 = true;
+            return this.operand1;
+        }
+        this.hasOperand2 = true;
+        return this.operand2;
     }
 
     // apply the input string as operand
     private void applyInput() {
-        if (this.inputString.length() > 0) {
-            setOperand(this.inputString);
+        if (this.input.length() > 0) {
+            Register operand = nextOperand();
+            if (!this.input.applyTo(operand, this.mode.isExact()) && CalculatorMetrics.ENABLED) {
+                CalculatorMetrics.getDefault().recordError(CalculatorMetrics.ERROR_PARSE);
+            }
+            this.mode.convert(operand);
         }
-        this.inputString = "";
+        this.input.clear();
     }
 
     /**
      * enter op or value into the calculator, respond accordingly
      */
     public void enter(String token) {
-        //System.out.println("BEFORE: " + this + ", " + this.inputString);
-        if (token.equals(STR_EQUALS)) {
-            applyInput();
-            calculate();
+        if (CalculatorMetrics.ENABLED) {
+            long start = System.nanoTime();
+            _enter(token, 0, token.length());
+            CalculatorMetrics.getDefault().recordEnter(CalculatorMetrics.tokenClass(token, 0, token.length()),
+                                                       System.nanoTime() - start);
         }
-        else if (token.equals(STR_CLEAR)) {
-            clear();
+        else {
+            _enter(token, 0, token.length());
         }
-        else if (isValidOp(token)) {
-            applyInput();
-            setOperation(token);
+    }
+
+    /**
+     * enter the token from start (inclusive) to end (exclusive) of text, as enter(String)
+     *      does but without creating a String for it
+     */
+    public void enter(CharSequence text, int start, int end) {
+        if (CalculatorMetrics.ENABLED) {
+            long time = System.nanoTime();
+            _enter(text, start, end);
+            CalculatorMetrics.getDefault().recordEnter(CalculatorMetrics.tokenClass(text, start, end),
+                                                       System.nanoTime() - time);
+        }
+        else {
+            _enter(text, start, end);
+        }
+    }
+
+    // enter a token from text, without metrics, operators are looked up in the registry
+    private void _enter(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length == 1 && text.charAt(start) == '=') {
+            enterEquals();
+        }
+        else if (length == STR_CLEAR.length() && regionEquals(text, start, STR_CLEAR)) {
+            clear();
         }
         else {
-            this.inputString += token;
+            Operator operator = this.operators.lookup(text, start, end);
+            if (operator != null) {
+                enterOperation(operator.getCode());
+            }
+            else {
+                this.input.append(text, start, end);
+            }
         }
-        //System.out.println("AFTER: " + this + ", " + this.inputString + "\n");
     }
 
     /**
-     *  check for valid op
+     * enter an operation, as enter(String) does for its symbol
      */
-    public static boolean isValidOp(String op) {
-        if (op == null) {
-            return false;
-        }
-        for (int i = 1; i < OPERATION.length; i++) { // skip the OP_NONE
-            if (OPERATION[i].equals(op)) {
-                return true;
+    public void enterOperation(int op) {
+        applyInput();
+        setOperation(op);
+    }
+
+    /**
+     * enter "=", as enter(String) does
+     */
+    public void enterEquals() {
+        applyInput();
+        _calculate();
+    }
+
+    /**
+     * enter a whole operand, as entering the digits of its text would, any unfinished input is dropped
+     */
+    public void enterOperand(Register value) {
+        this.input.clear();
+        Register operand = nextOperand();
+        operand.set(value);
+        this.mode.convert(operand);
+    }
+
+    // whether text from start holds the characters of str
+    private static boolean regionEquals(CharSequence text, int start, String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (text.charAt(start + i) != str.charAt(i)) {
+                return false;
             }
         }
-        return false;
+        return true;
     }
 
     /**
-     *  set the operation 
+     *  check for valid op, one of the default operators
+     */
+    public static boolean isValidOp(String op) {
+        return OperatorRegistry.getDefault().lookup(op) != null;
+    }
+
+    /**
+     *  set the operation, a unary operation applies to the current value right away
      */
     public void setOperation(int op) {
-        if (op > OPERATION.length || op < 0) {
-            op = OP_NONE;  // invalid option
-            return;
+        if (op != OP_NONE) {
+            Operator operator = this.operators.get(op);
+            if (operator == null) {
+                return;  // invalid option
+            }
+            if (operator.getArity() == 1) {
+                Register register = getCurrentRegister();
+                if (register != null) {
+                    calculateOperands(op, register, register);
+                }
+                return;
+            }
         }
         if (hasBothOperands()) {
             if (!isHigherPriorityOp(op)) {
-                calculate();
+                _calculate();
                 this.operation = op;
             }
             else { // here is where we might want to recursively allow an operand to be an expression
-                this.operand1 = Value.error();
+                this.operand1.setError();
+                if (CalculatorMetrics.ENABLED) {
+                    CalculatorMetrics.getDefault().recordError(CalculatorMetrics.ERROR_PRECEDENCE);
+                }
             }
         }
         else {
@@ -145,44 +263,39 @@ public class Calculator {
      * set the operation based on String
      */
     public void setOperation(String op) {
-        if (op == null) {
-            setOperation(OP_NONE);
-        }
-        else {
-            for (int i = 0; i < OPERATION.length; i++) {
-                if (OPERATION[i].equals(op)) {
-                    setOperation(i);
-                    return;
-                }
-            }
-        }
-        setOperation(OP_NONE);
+        Operator operator = this.operators.lookup(op);
+        setOperation((operator == null) ? OP_NONE : operator.getCode());
     }
 
-    // checks whether the provided op is of multiplication precedence
-    private boolean _isMulOp(int op) {
-        return (op == OP_MULTIPLY || op == OP_DIVIDE);
+    /**
+     *  @return the operation code for a String, OP_NONE if it is not one of the default operators
+     */
+    public static int operationOf(String op) {
+        Operator operator = OperatorRegistry.getDefault().lookup(op);
+        return (operator == null) ? OP_NONE : operator.getCode();
     }
 
-    // checks whether the provided op is of multiplication precedence
-    private boolean _isAddOp(int op) {
-        return (op == OP_PLUS || op == OP_MINUS);
+    /**
+     *  @return the operation code for a character, OP_NONE if it is not one of the default operators
+     */
+    public static int operationOf(char op) {
+        Operator operator = OperatorRegistry.getDefault().lookup(op);
+        return (operator == null) ? OP_NONE : operator.getCode();
     }
 
     // determine whether current operation is higher priority than last
     private boolean isHigherPriorityOp(int op) {
-        if (_isMulOp(op) && _isAddOp(this.operation)) {
-            return true;
-        }
-        return false;
+        return this.operators.isHigherPriority(op, this.operation);
+    }
+
+    // determine whether an operation is higher priority than the pending one, default operators
+    static boolean isHigherPriorityOp(int op, int pending) {
+        return OperatorRegistry.getDefault().isHigherPriority(op, pending);
     }
 
     // determine if both operand2s are set or not
     private boolean hasBothOperands() {
-        if (this.operand1 == null || this.operand2 == null) {
-            return false;
-        }
-        return true;
+        return this.hasOperand1 && this.hasOperand2;
     }
 
  
@@ -190,37 +303,169 @@ public class Calculator {
      *  set the 1st operand if not already set, 2nd operand otherwise
      */
     public void setOperand(String str) {
-        if (this.operand1 == null) {
-            this.operand1 = new Value(str);
+        if (!this.hasOperand1) {
+            this.operand1.set(str);
+            this.mode.convert(this.operand1);
+            this.hasOperand1 = true;
         }
         else {
-            this.operand2 = new Value(str);
+            this.operand2.set(str);
+            this.mode.convert(this.operand2);
+            this.hasOperand2 = true;
         }
     }
 
+    /**
+     *  set the operators understood, see OperatorRegistry
+     */
+    public void setOperatorRegistry(OperatorRegistry operators) {
+        checkOperators(operators, this.mode);
+        this.operators = operators;
+    }
+
+    // reject operators a mode cannot calculate, rather than give rounded results
+    private static void checkOperators(OperatorRegistry operators, NumericMode mode) {
+        Operator[] all = operators.getOperators();
+        for (int i = 0; i < all.length; i++) {
+            if (!mode.supports(all[i])) {
+                throw new IllegalArgumentException("operator " + all[i].getSymbol() + " has no kernel for "
+                                                   + mode + ", only for legacy arithmetic");
+            }
+        }
+    }
+
+    /**
+     *  @return the operators understood
+     */
+    public OperatorRegistry getOperatorRegistry() {
+        return this.operators;
+    }
+
+    /**
+     *  set how to calculate, the operands are converted to the new mode
+     */
+    public void setNumericMode(NumericMode mode) {
+        checkOperators(this.operators, mode);
+        this.mode = mode;
+        if (this.hasOperand1) {
+            mode.convert(this.operand1);
+        }
+        if (this.hasOperand2) {
+            mode.convert(this.operand2);
+        }
+    }
+
+    /**
+     *  @return how the calculator calculates
+     */
+    public NumericMode getNumericMode() {
+        return this.mode;
+    }
+
+    /**
+     *  look results up in a memo, which may be shared with other calculators, null for none
+     */
+    public void setResultMemo(ResultMemo memo) {
+        this.memo = memo;
+    }
+
+    /**
+     *  @return the memo results are looked up in, null if none
+     */
+    public ResultMemo getResultMemo() {
+        return this.memo;
+    }
+
+
+    /**
+     * write everything this calculator remembers, see CalculatorJournal; the numeric mode,
+     *      memo and operators are configuration and not included
+     */
+    void saveState(WireEncoder encoder) {
+        ByteBuffer buffer = encoder.getBuffer();
+        buffer.put((byte)((this.hasOperand1 ? 1 : 0) | (this.hasOperand2 ? 2 : 0)));
+        buffer.put((byte)this.operation);
+        encoder.putValue(this.operand1);
+        encoder.putValue(this.operand2);
+        buffer.putInt(this.input.length());
+        for (int i = 0; i < this.input.length(); i++) {
+            buffer.putChar(this.input.charAt(i));
+        }
+    }
+
+    /**
+     * read back what saveState() wrote
+     */
+    void restoreState(ByteBuffer buffer, WireDecoder decoder) {
+        int flags = buffer.get();
+        this.hasOperand1 = (flags & 1) != 0;
+        this.hasOperand2 = (flags & 2) != 0;
+        this.operation = buffer.get();
+        decoder.getValue(buffer, this.operand1);
+        decoder.getValue(buffer, this.operand2);
+        this.input.clear();
+        for (int length = buffer.getInt(); length > 0; length--) {
+            this.input.append(buffer.getChar());
+        }
+    }
 
     /**
      *  @return the current value
      */
     public Value getCurrentValue() {
-        if (this.operand2 != null) {
+        Register register = getCurrentRegister();
+        if (register == null) {
+            return null;
+        }
+        return register.toValue();
+    }
+
+    // the register backing the current value, null if none
+    Register getCurrentRegister() {
+        if (this.hasOperand2) {
             return this.operand2;
         }
-        return this.operand1;
+        if (this.hasOperand1) {
+            return this.operand1;
+        }
+        return null;
     }
 
     /**
      * @return string version of current value, or non-finished input string if there
      */
     public String getCurrentValueAsString() {
-        if (this.inputString.length() > 0) {
-            return this.inputString;
+        if (this.input.length() > 0) {
+            return this.input.toString();
         }
-        Value value = getCurrentValue();
-        if (value == null) {
+        Register register = getCurrentRegister();
+        if (register == null) {
             return "";
         }
-        return value.toString();
+        return register.toString();
+    }
+
+    /**
+     * append what getCurrentValueAsString() returns, without creating a String
+     */
+    public StringBuilder appendCurrentValue(StringBuilder builder) {
+        if (this.input.length() > 0) {
+            return this.input.appendTo(builder);
+        }
+        Register register = getCurrentRegister();
+        if (register == null) {
+            return builder;
+        }
+        return register.appendTo(builder);
+    }
+
+    /**
+     *  evaluate space separated tokens with operator precedence, see Expression,
+     *      compiled expressions are shared through ExpressionCache.getDefault()
+     *  @return resulting value
+     */
+    public static Value evaluate(String expression) {
+        return ExpressionCache.getDefault().get(expression).evaluate();
     }
 
     /**
@@ -229,78 +474,97 @@ public class Calculator {
      *  @return resulting value 
      */
     public Value calculate() {
-        Value result = _calculate(this.operand1, this.operation, this.operand2);
-        this.operand1 = result;
-        this.operation = OP_NONE;
-        this.operand2 = null;
-        return this.operand1;
+        _calculate();
+        return this.operand1.toValue();
     }
     
-    // _calculate implementation details
-    private Value _calculate(Value val1, int op, Value val2) {
-        if (val1 == null || val2 == null) {
-            return Value.error();
-        }
-        if (val1.isError() || val2.isError()) {
-            return Value.error();
+    // calculate in place into operand1, without creating a Value
+    private void _calculate() {
+        if (hasBothOperands()) {
+            calculateOperands(this.operation, this.operand1, this.operand2);
         }
-        switch(op) {
-            case OP_NONE: return val2;
-            case OP_PLUS: return add(val1, val2);
-            case OP_MINUS: return subtract(val1, val2);
-            case OP_MULTIPLY: return multiply(val1, val2);
-            case OP_DIVIDE: return divide(val1, val2);
-            default: // do nothing
+        else {
+            this.operand1.setError();
+            if (CalculatorMetrics.ENABLED) {
+                CalculatorMetrics.getDefault().recordError(CalculatorMetrics.ERROR_MISSING_OPERAND);
+            }
         }
-        return Value.error();
+        this.hasOperand1 = true;
+        this.operation = OP_NONE;
+        this.hasOperand2 = false;
     }
-    
-    // addition
-    private Value add(Value val1, Value val2) {
-        if (val1.isLong() && val2.isLong()) {
-            return new Value(val1.longValue() + val2.longValue());
+
+    // calculate val1 op val2 into val1, recording metrics, unary operators get the same register twice
+    private void calculateOperands(int op, Register val1, Register val2) {
+        if (CalculatorMetrics.ENABLED) {
+            if ((op == OP_DIVIDE || op == OP_REMAINDER) && val2.isZero() && !val1.isError() && !val2.isError()) {
+                CalculatorMetrics.getDefault().recordError(CalculatorMetrics.ERROR_DIVIDE_BY_ZERO);
+            }
+            long start = System.nanoTime();
+            _calculateOperands(op, val1, val2);
+            CalculatorMetrics.getDefault().recordCalculate(op, System.nanoTime() - start);
         }
-        return new Value(val1.doubleValue() + val2.doubleValue());
-    }
- 
-    // subtraction
-    private Value subtract(Value val1, Value val2) {
-        if (val1.isLong() && val2.isLong()) {
-            return new Value(val1.longValue() - val2.longValue());
+        else {
+            _calculateOperands(op, val1, val2);
         }
-        return new Value(val1.doubleValue() - val2.doubleValue());
     }
- 
-    // multiplication
-    private Value multiply(Value val1, Value val2) {
-        if (val1.isLong() && val2.isLong()) {
-            return new Value(val1.longValue() * val2.longValue());
+
+    // calculate val1 op val2 into val1
+    private void _calculateOperands(int op, Register val1, Register val2) {
+        CalculateEvent event = new CalculateEvent();
+        int type1 = val1.type();
+        int type2 = val2.type();
+        event.begin();
+        if (op > OP_DIVIDE) {
+            calculateWith(this.operators.get(op), val1, val2, val1);
+        }
+        else if (this.memo != null) {
+            this.memo.calculate(this.mode, val1, op, val2, val1);
+        }
+        else {
+            this.mode.calculate(val1, op, val2, val1);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = opToString(op);
+            event.operand1Type = CalculateEvent.typeName(type1);
+            event.operand2Type = CalculateEvent.typeName(type2);
+            event.resultType = CalculateEvent.typeName(val1.type());
+            event.error = val1.isError();
+            event.commit();
         }
-        return new Value(val1.doubleValue() * val2.doubleValue());
     }
- 
-    // division
-    private Value divide(Value val1, Value val2) {
-        if (val2.isZero()) {
-            return Value.error();
+
+    // calculate with an operator beyond the default four: its kernel in legacy mode,
+    //     the numeric mode's exact arithmetic otherwise
+    private void calculateWith(Operator operator, Register val1, Register val2, Register result) {
+        if (operator == null || val1.isError() || val2.isError()) {
+            result.setError();
+        }
+        else if (this.mode.getMode() == NumericMode.MODE_LEGACY) {
+            operator.apply(val1, val2, result);
+        }
+        else {
+            this.mode.calculate(val1, operator.getCode(), val2, result);
         }
-        double result = val1.doubleValue() / val2.doubleValue();
-        return new Value(result);
     }
 
     // converts and operator to string
     private String opToString(int op) {
-        if (op < 0 || op > OPERATION.length) {
-            return "err";
-        }
-        return OPERATION[op];
+        return this.operators.symbolOf(op);
+    }
+
+    // converts and operator to string, default operators
+    static String operationToString(int op) {
+        return OperatorRegistry.getDefault().symbolOf(op);
     }
 
     /**
      *  @return this object as a String
      */
     public String toString() {
-        return "" + this.operand1 + " " + opToString(this.operation) + " " + this.operand2 ;
+        return "" + (this.hasOperand1 ? this.operand1 : null) + " " + opToString(this.operation) + " "
+            + (this.hasOperand2 ? this.operand2 : null);
     }
     
 }
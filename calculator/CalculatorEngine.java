@@ -0,0 +1,92 @@
+package calculator;
+
+
+/************************************************************
+ *  CalculatorEngine
+ *
+ *  The Calculator's behavior as a pure transition function:
+ *  next(state, token) returns the state after entering the
+ *  token and never changes anything.
+ *
+ *  The engine holds no state, so one engine can drive any
+ *  number of independent sessions from any number of threads.
+ *  The transitions follow Calculator.enter exactly, including
+ *  its known errors.
+ *
+ ************************************************************/
+public final class CalculatorEngine {
+
+    private static final CalculatorEngine DEFAULT = new CalculatorEngine();
+
+
+    /**
+     *  constructor
+     */
+    public CalculatorEngine() {
+    }
+
+    /**
+     * @return a shared engine
+     */
+    public static CalculatorEngine getDefault() {
+        return DEFAULT;
+    }
+
+
+    /**
+     * @return the state after entering a token into state
+     */
+    public CalculatorState next(CalculatorState state, String token) {
+        if (token.equals(Calculator.STR_EQUALS)) {
+            return calculate(applyInput(state));
+        }
+        else if (token.equals(Calculator.STR_CLEAR)) {
+            return CalculatorState.INITIAL;
+        }
+        else if (Calculator.isValidOp(token)) {
+            return setOperation(applyInput(state), Calculator.operationOf(token));
+        }
+        return new CalculatorState(state.getOperand1(), state.getOperand2(), state.getOperation(),
+                                   state.getInput() + token);
+    }
+
+    /**
+     * @return the state after entering every token, in order
+     */
+    public CalculatorState next(CalculatorState state, String[] tokens) {
+        for (int i = 0; i < tokens.length; i++) {
+            state = next(state, tokens[i]);
+        }
+        return state;
+    }
+
+    // apply the input string as operand
+    private static CalculatorState applyInput(CalculatorState state) {
+        if (state.getInput().length() == 0) {
+            return state;
+        }
+        Value value = Value.valueOf(state.getInput());
+        if (state.getOperand1() == null) {
+            return new CalculatorState(value, state.getOperand2(), state.getOperation(), "");
+        }
+        return new CalculatorState(state.getOperand1(), value, state.getOperation(), "");
+    }
+
+    // set the operation, calculating first when both operands are set
+    private static CalculatorState setOperation(CalculatorState state, int op) {
+        if (state.getOperand1() == null || state.getOperand2() == null) {
+            return new CalculatorState(state.getOperand1(), state.getOperand2(), op, state.getInput());
+        }
+        if (Calculator.isHigherPriorityOp(op, state.getOperation())) {
+            return new CalculatorState(Value.error(), state.getOperand2(), state.getOperation(), state.getInput());
+        }
+        CalculatorState result = calculate(state);
+        return new CalculatorState(result.getOperand1(), null, op, result.getInput());
+    }
+
+    // calculate, the result becomes operand1
+    private static CalculatorState calculate(CalculatorState state) {
+        Value result = Arithmetic.calculate(state.getOperand1(), state.getOperation(), state.getOperand2());
+        return new CalculatorState(result, null, Calculator.OP_NONE, state.getInput());
+    }
+}
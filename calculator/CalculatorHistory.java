@@ -0,0 +1,279 @@
+package calculator;
+
+
+/************************************************************
+ *  CalculatorHistory
+ *
+ *  A calculator session with multi-level undo and redo and a
+ *  timeline that can be exported.
+ *
+ *  Every keypress moves the session to its next immutable
+ *  CalculatorState through the CalculatorEngine, and the
+ *  history keeps those states in a ring.  A snapshot is one
+ *  reference: consecutive states share their operand Values,
+ *  so a session costs a few dozen bytes per keypress and never
+ *  copies what did not change.  At most depth states are kept
+ *  besides the current one; the oldest are dropped, and
+ *  counted, as new ones arrive.  Entering a token after undo()
+ *  drops the states that could have been redone, as editors do.
+ *
+ *  export() writes the timeline delta encoded: the oldest
+ *  state kept, then only the token that led to each following
+ *  state, which is all the engine needs to rebuild them, so the
+ *  export is about two bytes per keypress:
+ *
+ *      history 6 0
+ *      base 0 0 null
+ *      7 . 1 * 7 =
+ *
+ *  The first line holds the position of the current state and
+ *  the number of states dropped, the base line operand1, the
+ *  operation code, operand2 and any unfinished input.  parse()
+ *  reads it back.  Tokens must not be empty or contain spaces.
+ *
+ *  A history is not thread safe.
+ *
+ ************************************************************/
+public final class CalculatorHistory {
+
+    public static final int DEFAULT_DEPTH = 1000;
+
+    private static final String NULL = "null";  // an operand not set
+
+    private final CalculatorEngine engine;
+    private final CalculatorState[] states;   // ring of the states kept
+    private final String[] tokens;            // token leading to the state at the same index
+    private int first = 0;        // ring index of the oldest state kept
+    private int size = 1;         // states kept, the current one included
+    private int cursor = 0;       // position of the current state, 0 is the oldest
+    private long dropped = 0;     // states dropped to stay within the depth
+
+
+    /**
+     *  constructors
+     */
+    public CalculatorHistory() {
+        this(DEFAULT_DEPTH);
+    }
+    public CalculatorHistory(int depth) {
+        this(CalculatorEngine.getDefault(), CalculatorState.INITIAL, depth);
+    }
+    public CalculatorHistory(CalculatorEngine engine, CalculatorState state, int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("depth must be positive: " + depth);
+        }
+        this.engine = engine;
+        this.states = new CalculatorState[depth + 1];
+        this.tokens = new String[depth + 1];
+        this.states[0] = state;
+    }
+
+
+    /**
+     * enter a token, any states that could have been redone are dropped
+     * @return the state after entering it
+     */
+    public CalculatorState enter(String token) {
+        if (token.length() == 0 || token.indexOf(' ') >= 0 || token.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("not a token: [" + token + "]");
+        }
+        CalculatorState next = this.engine.next(getState(), token);
+        this.size = this.cursor + 1;
+        if (this.size == this.states.length) {
+            // full, drop the oldest
+            this.states[this.first] = null;
+            this.tokens[this.first] = null;
+            this.first = index(1);
+            this.size--;
+            this.cursor--;
+            this.dropped++;
+        }
+        int index = index(this.size);
+        this.states[index] = next;
+        this.tokens[index] = token;
+        this.size++;
+        this.cursor++;
+        return next;
+    }
+
+    /**
+     * go back one state
+     * @return the state now current, null if there was nothing to undo
+     */
+    public CalculatorState undo() {
+        if (!canUndo()) {
+            return null;
+        }
+        this.cursor--;
+        return getState();
+    }
+
+    /**
+     * go forward one undone state
+     * @return the state now current, null if there was nothing to redo
+     */
+    public CalculatorState redo() {
+        if (!canRedo()) {
+            return null;
+        }
+        this.cursor++;
+        return getState();
+    }
+
+    /**
+     * @return whether there is a state to go back to
+     */
+    public boolean canUndo() {
+        return this.cursor > 0;
+    }
+
+    /**
+     * @return whether there is an undone state to go forward to
+     */
+    public boolean canRedo() {
+        return this.cursor < this.size - 1;
+    }
+
+    /**
+     * @return the current state
+     */
+    public CalculatorState getState() {
+        return this.states[index(this.cursor)];
+    }
+
+    /**
+     * @return the state at a position, 0 is the oldest kept
+     */
+    public CalculatorState getState(int position) {
+        checkPosition(position);
+        return this.states[index(position)];
+    }
+
+    /**
+     * @return the token that led to the state at a position, null for the oldest kept
+     */
+    public String getToken(int position) {
+        checkPosition(position);
+        return (position == 0) ? null : this.tokens[index(position)];
+    }
+
+    /**
+     * @return number of states kept, the current one and any that can be redone included
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return position of the current state, also the number of steps that can be undone
+     */
+    public int getPosition() {
+        return this.cursor;
+    }
+
+    /**
+     * @return the most states kept besides the current one
+     */
+    public int getDepth() {
+        return this.states.length - 1;
+    }
+
+    /**
+     * @return number of states dropped to stay within the depth
+     */
+    public long getDroppedCount() {
+        return this.dropped;
+    }
+
+    // ring index of a position
+    private int index(int position) {
+        int index = this.first + position;
+        return (index >= this.states.length) ? index - this.states.length : index;
+    }
+
+    // reject a position outside the states kept
+    private void checkPosition(int position) {
+        if (position < 0 || position >= this.size) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + this.size);
+        }
+    }
+
+
+    /**
+     * append the timeline, delta encoded, see the class comment
+     */
+    public StringBuilder export(StringBuilder builder) {
+        builder.append("history ").append(this.cursor).append(' ').append(this.dropped).append('\n');
+        CalculatorState base = this.states[this.first];
+        builder.append("base ");
+        appendOperand(builder, base.getOperand1()).append(' ').append(base.getOperation()).append(' ');
+        appendOperand(builder, base.getOperand2());
+        if (base.getInput().length() > 0) {
+            builder.append(' ').append(base.getInput());
+        }
+        builder.append('\n');
+        for (int i = 1; i < this.size; i++) {
+            if (i > 1) {
+                builder.append(' ');
+            }
+            builder.append(this.tokens[index(i)]);
+        }
+        return builder.append('\n');
+    }
+
+    // append an operand, NULL if not set
+    private static StringBuilder appendOperand(StringBuilder builder, Value value) {
+        return (value == null) ? builder.append(NULL) : builder.append(value);
+    }
+
+    /**
+     * rebuild a history from what export() wrote, with the default engine
+     * @return the history, at the exported position
+     */
+    public static CalculatorHistory parse(String text, int depth) {
+        String[] lines = text.split("\n", -1);
+        if (lines.length < 3 || !lines[0].startsWith("history ") || !lines[1].startsWith("base ")) {
+            throw new IllegalArgumentException("not an exported history");
+        }
+        String[] header = lines[0].split(" ");
+        String[] base = lines[1].split(" ", 5);
+        if (header.length != 3 || base.length < 4) {
+            throw new IllegalArgumentException("not an exported history");
+        }
+        int position;
+        long dropped;
+        CalculatorState state;
+        try {
+            position = Integer.parseInt(header[1]);
+            dropped = Long.parseLong(header[2]);
+            state = new CalculatorState(parseOperand(base[1]), parseOperand(base[3]), Integer.parseInt(base[2]),
+                                        (base.length > 4) ? base[4] : "");
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not an exported history", e);
+        }
+        CalculatorHistory history = new CalculatorHistory(CalculatorEngine.getDefault(), state, depth);
+        history.dropped = dropped;
+        if (lines[2].length() > 0) {
+            String[] tokens = lines[2].split(" ");
+            for (int i = 0; i < tokens.length; i++) {
+                history.enter(tokens[i]);
+            }
+        }
+        while (history.getPosition() > position && history.canUndo()) {
+            history.undo();
+        }
+        return history;
+    }
+
+    // an operand as exported, an infinite or NaN double as Double.toString() writes it
+    private static Value parseOperand(String text) {
+        if (text.equals(NULL)) {
+            return null;
+        }
+        if (text.endsWith("Infinity") || text.equals("NaN")) {
+            return new Value(Double.parseDouble(text));
+        }
+        return Value.valueOf(text);
+    }
+}
@@ -0,0 +1,476 @@
+package calculator;
+
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+
+
+/************************************************************
+ *  CalculatorJournal
+ *
+ *  A Calculator session that survives restarts.
+ *
+ *  Every token entered is appended to a log, one token per
+ *  line in UTF-8, and written through a FileChannel with group commit:
+ *  tokens collect in memory and a background thread writes and
+ *  forces whatever has collected every few milliseconds, so one
+ *  fsync covers every token since the last.  sync() commits
+ *  right away, for callers that must know a token is durable.
+ *  A commit that fails leaves its tokens pending and the log as
+ *  it was, and every later enter() and sync() throws; close()
+ *  tries the pending tokens once more.
+ *
+ *  Every so many tokens a snapshot of the calculator is written
+ *  instead: flags, operation, both operands in the WireProtocol
+ *  encoding of Value's LONG/DOUBLE/ERROR tags and any
+ *  unfinished input, a few dozen bytes under a CRC.  The
+ *  snapshot replaces the old one atomically and starts a new
+ *  log segment, and the old segment is deleted, so the journal
+ *  stays small however long the session runs.  Opening a
+ *  journal recovers it: the latest snapshot is loaded and only
+ *  the log written after it is replayed, read through a memory
+ *  map without creating Strings.  A token torn by a crash is
+ *  dropped.
+ *
+ *  The directory holds "snapshot" and "log.<segment>".  The
+ *  Calculator's NumericMode, memo and operators are
+ *  configuration, set them before opening.  A journal may be
+ *  shared by threads; tokens are entered one at a time.
+ *
+ ************************************************************/
+public final class CalculatorJournal implements AutoCloseable {
+
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 65536;  // tokens
+    public static final long DEFAULT_COMMIT_MILLIS = 5;
+
+    private static final int MAGIC = 0x43414c4a;  // "CALJ"
+    private static final String SNAPSHOT = "snapshot";
+    private static final String LOG = "log.";
+
+    private final Path directory;
+    private final Calculator calculator;   // guarded by this
+    private final int snapshotInterval;
+    private final Object commitLock = new Object();  // taken before this, never after
+    private final ScheduledExecutorService committer;
+
+    private ByteBuffer pending = ByteBuffer.allocate(8192);  // tokens not written yet, guarded by this
+    private ByteBuffer spare = ByteBuffer.allocate(8192);    // the other buffer, null while writing
+    private FileChannel log;                // guarded by commitLock
+    private long segment;                   // guarded by commitLock
+    private long torn = -1;                 // log length before a failed write, guarded by commitLock
+    private long sequence;                  // tokens entered, guarded by this
+    private long snapshotSequence;          // tokens covered by the snapshot
+    private volatile long committed;        // tokens durable in the log or snapshot
+    private final long recovered;           // tokens replayed from the log on opening
+    private volatile IOException failure = null;  // a background commit that failed
+    private volatile boolean closed = false;
+
+
+    // constructor, see open()
+    private CalculatorJournal(Path directory, Calculator calculator, int snapshotInterval, long commitMillis)
+        throws IOException {
+        this.directory = directory;
+        this.calculator = calculator;
+        this.snapshotInterval = snapshotInterval;
+        this.recovered = recover();
+        this.committer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "calculator-journal");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.committer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    commit();
+                }
+                catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }, commitMillis, commitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * open or create a journal with a new Calculator and the default settings
+     */
+    public static CalculatorJournal open(Path directory) throws IOException {
+        return open(directory, new Calculator(), DEFAULT_SNAPSHOT_INTERVAL, DEFAULT_COMMIT_MILLIS);
+    }
+
+    /**
+     * open or create a journal, recovering its session into calculator
+     */
+    public static CalculatorJournal open(Path directory, Calculator calculator, int snapshotInterval, long commitMillis)
+        throws IOException {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("snapshot interval must be positive: " + snapshotInterval);
+        }
+        if (commitMillis < 1) {
+            throw new IllegalArgumentException("commit interval must be positive: " + commitMillis);
+        }
+        Files.createDirectories(directory);
+        return new CalculatorJournal(directory, calculator, snapshotInterval, commitMillis);
+    }
+
+
+    /**
+     * enter a token into the calculator and the log, durable within the commit interval
+     * @return the sequence number of the token, see sync()
+     */
+    public long enter(String token) throws IOException {
+        if (token.length() == 0 || token.indexOf('\n') >= 0) {
+            throw new IllegalArgumentException("not a token: [" + token + "]");
+        }
+        checkFailure();
+        if (this.closed) {
+            throw new IllegalStateException("journal closed");
+        }
+        boolean snapshot;
+        long sequence;
+        synchronized (this) {
+            this.calculator.enter(token);
+            byte[] encoded = isAscii(token) ? null : token.getBytes(StandardCharsets.UTF_8);
+            int length = (encoded == null) ? token.length() : encoded.length;
+            if (this.pending.remaining() < length + 1) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(this.pending.capacity() * 2, length + 1));
+                this.pending.flip();
+                this.pending = larger.put(this.pending);
+            }
+            if (encoded == null) {
+                for (int i = 0; i < length; i++) {
+                    this.pending.put((byte)token.charAt(i));
+                }
+            }
+            else {
+                this.pending.put(encoded);
+            }
+            this.pending.put((byte)'\n');
+            sequence = ++this.sequence;
+            snapshot = sequence - this.snapshotSequence >= this.snapshotInterval;
+        }
+        if (snapshot) {
+            snapshot();
+        }
+        return sequence;
+    }
+
+    /**
+     * write and force every token entered so far, sharing the force with other callers
+     */
+    public void sync() throws IOException {
+        checkFailure();
+        commit();
+    }
+
+    // write and force the tokens collected so far
+    private void commit() throws IOException {
+        synchronized (this.commitLock) {
+            ByteBuffer batch;
+            long sequence;
+            synchronized (this) {
+                if (this.pending.position() == 0 || this.log == null) {
+                    return;
+                }
+                batch = drain();
+                sequence = this.sequence;
+            }
+            write(batch, sequence);
+        }
+    }
+
+    // swap the pending tokens for the spare buffer, under this and commitLock
+    private ByteBuffer drain() {
+        ByteBuffer batch = this.pending;
+        this.pending = this.spare;
+        this.spare = null;
+        return batch;
+    }
+
+    // write and force a drained batch to the log, under commitLock
+    //     a batch that fails is put back in front of the pending tokens and the failure kept
+    private void write(ByteBuffer batch, long sequence) throws IOException {
+        long start = -1;
+        batch.flip();
+        try {
+            if (!this.log.isOpen()) {  // an interrupt closes the channel
+                this.log = openLog(this.segment);
+            }
+            if (this.torn >= 0) {  // cut what a failed write left
+                this.log.truncate(this.torn);
+                this.log.position(this.torn);
+                this.torn = -1;
+            }
+            start = this.log.position();
+            while (batch.hasRemaining()) {
+                this.log.write(batch);
+            }
+            this.log.force(false);
+        }
+        catch (IOException e) {
+            this.failure = e;
+            if (start >= 0) {
+                this.torn = start;
+            }
+            restore(batch);
+            throw e;
+        }
+        this.committed = sequence;
+        synchronized (this) {
+            batch.clear();
+            this.spare = batch;
+        }
+    }
+
+    // put a batch that failed back in front of the pending tokens, under commitLock
+    private void restore(ByteBuffer batch) {
+        synchronized (this) {
+            int length = batch.limit();
+            batch.clear().position(length);
+            this.pending.flip();
+            if (batch.remaining() < this.pending.remaining()) {
+                ByteBuffer larger = ByteBuffer.allocate(length + this.pending.remaining());
+                batch.flip();
+                batch = larger.put(batch);
+            }
+            batch.put(this.pending);
+            this.pending.clear();
+            this.spare = this.pending;
+            this.pending = batch;
+        }
+    }
+
+    /**
+     * write a snapshot now and start a new log segment, the old one is deleted
+     */
+    public void snapshot() throws IOException {
+        synchronized (this.commitLock) {
+            ByteBuffer state = null;
+            ByteBuffer batch;
+            long sequence;
+            synchronized (this) {
+                if (this.log == null) {
+                    return;
+                }
+                // the state and the tokens pending before it are taken together, so a token
+                // entered meanwhile goes to the new segment and is not replayed twice
+                sequence = this.sequence;
+                for (int capacity = 256; state == null; capacity *= 2) {
+                    state = encodeState(capacity, sequence);
+                }
+                batch = drain();
+            }
+            write(batch, sequence);  // the old segment stays whole should the snapshot fail
+            CRC32 crc = new CRC32();
+            crc.update(state.array(), 0, state.position());
+            state.putInt((int)crc.getValue());
+            state.flip();
+
+            Path temporary = this.directory.resolve(SNAPSHOT + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                while (state.hasRemaining()) {
+                    channel.write(state);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, this.directory.resolve(SNAPSHOT), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+
+            // the snapshot covers the old segment now
+            this.log.close();
+            Files.deleteIfExists(logPath(this.segment));
+            this.segment++;
+            this.log = openLog(this.segment);
+            synchronized (this) {
+                this.snapshotSequence = sequence;
+            }
+        }
+    }
+
+    // the snapshot up to its CRC, null if it needs more than capacity bytes (a big decimal)
+    private ByteBuffer encodeState(int capacity, long sequence) {
+        ByteBuffer state = ByteBuffer.allocate(capacity);
+        try {
+            state.putInt(MAGIC).putLong(this.segment + 1).putLong(sequence);
+            this.calculator.saveState(new WireEncoder(state));
+            if (state.remaining() < 4) {
+                return null;
+            }
+            return state;
+        }
+        catch (BufferOverflowException e) {
+            return null;
+        }
+    }
+
+    // load the snapshot and replay the log after it
+    // @return number of tokens replayed
+    private long recover() throws IOException {
+        WireDecoder decoder = new WireDecoder();
+        Path snapshot = this.directory.resolve(SNAPSHOT);
+        if (Files.exists(snapshot)) {
+            ByteBuffer state = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+            CRC32 crc = new CRC32();
+            crc.update(state.array(), 0, Math.max(0, state.limit() - 4));
+            if (state.limit() < 24 || state.getInt(0) != MAGIC || state.getInt(state.limit() - 4) != (int)crc.getValue()) {
+                throw new IOException("corrupt journal snapshot " + snapshot);
+            }
+            state.position(4);
+            this.segment = state.getLong();
+            this.snapshotSequence = state.getLong();
+            this.calculator.restoreState(state, decoder);
+        }
+        else {
+            this.calculator.reset();
+        }
+        this.sequence = this.snapshotSequence;
+        this.committed = this.sequence;
+
+        long replayed = 0;
+        Path path = logPath(this.segment);
+        this.log = openLog(this.segment);
+        long size = this.log.size();
+        long end = 0;  // end of the last whole token
+        if (size > 0) {
+            MappedByteBuffer bytes = this.log.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            MappedReplay.ByteSequence text = new MappedReplay.ByteSequence(bytes);
+            int start = 0;
+            boolean ascii = true;
+            for (int i = 0; i < size; i++) {
+                byte b = text.byteAt(i);
+                if (b == '\n') {
+                    if (ascii) {
+                        this.calculator.enter(text, start, i);
+                    }
+                    else {  // only non-ASCII digits need decoding
+                        byte[] encoded = new byte[i - start];
+                        bytes.get(start, encoded);
+                        this.calculator.enter(new String(encoded, StandardCharsets.UTF_8));
+                    }
+                    replayed++;
+                    start = i + 1;
+                    ascii = true;
+                }
+                else if (b < 0) {
+                    ascii = false;
+                }
+            }
+            end = start;
+        }
+        if (end < size) {
+            this.log.truncate(end);  // a token torn by a crash
+        }
+        this.log.position(end);
+        this.sequence += replayed;
+        this.committed = this.sequence;
+        return replayed;
+    }
+
+    // whether a token is logged byte for char
+    private static boolean isAscii(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (token.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // open a log segment for appending
+    private FileChannel openLog(long segment) throws IOException {
+        FileChannel channel = FileChannel.open(logPath(segment), StandardOpenOption.CREATE,
+                                               StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    // the file of a log segment
+    private Path logPath(long segment) {
+        return this.directory.resolve(LOG + segment);
+    }
+
+    // rethrow a failed background commit
+    private void checkFailure() throws IOException {
+        IOException failure = this.failure;
+        if (failure != null) {
+            throw new IOException("journal commit failed", failure);
+        }
+    }
+
+
+    /**
+     * @return the current value, as Calculator.getCurrentValue()
+     */
+    public synchronized Value getCurrentValue() {
+        return this.calculator.getCurrentValue();
+    }
+
+    /**
+     * @return the display, as Calculator.getCurrentValueAsString()
+     */
+    public synchronized String getCurrentValueAsString() {
+        return this.calculator.getCurrentValueAsString();
+    }
+
+    /**
+     * @return number of tokens entered since the session started, recovered ones included
+     */
+    public synchronized long getSequence() {
+        return this.sequence;
+    }
+
+    /**
+     * @return number of tokens known to be durable
+     */
+    public long getCommittedSequence() {
+        return this.committed;
+    }
+
+    /**
+     * @return number of tokens replayed from the log when the journal was opened
+     */
+    public long getRecoveredCount() {
+        return this.recovered;
+    }
+
+    /**
+     * commit, stop the background commits and close the log
+     */
+    public void close() throws IOException {
+        this.closed = true;
+        this.committer.shutdown();
+        try {
+            this.committer.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this.commitLock) {
+            if (this.log != null) {
+                try {
+                    commit();
+                }
+                finally {
+                    this.log.close();
+                    this.log = null;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package calculator;
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/************************************************************
+ *  CalculatorLoadGenerator
+ *
+ *  Load generator for CalculatorServer on localhost.
+ *
+ *  Each connection sends the CalculatorTester corpus over and
+ *  over, every line prefixed with "Clear" so lines do not
+ *  depend on each other, in pipelined batches: a batch of lines
+ *  is written at once, then its replies are read.  Replies are
+ *  checked against a local Calculator, and throughput and the
+ *  latency from sending a batch to each reply are reported.
+ *  Throughput counts the replies received; a connection that
+ *  fails makes run() fail, and main() exits with status 1 when
+ *  a reply differs.
+ *
+ *  With no port given it starts a server in the same JVM, so
+ *
+ *      java calculator.CalculatorLoadGenerator
+ *
+ *  is a complete localhost test.  Arguments, all optional:
+ *  port (0 for an in-process server), connections, requests
+ *  per connection, pipeline depth.
+ *
+ ************************************************************/
+public final class CalculatorLoadGenerator {
+
+    private final int port;
+    private final int connections;
+    private final int requests;
+    private final int depth;
+    private final String[] lines;
+    private final String[] expected;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder mismatches = new LongAdder();
+    private final LongAdder completed = new LongAdder();  // replies received
+    private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();  // the first
+
+
+    /**
+     *  constructor
+     */
+    public CalculatorLoadGenerator(int port, int connections, int requests, int depth) {
+        this.port = port;
+        this.connections = connections;
+        this.requests = requests;
+        this.depth = depth;
+        this.lines = new String[CalculatorTester.TESTS.length];
+        this.expected = new String[this.lines.length];
+        Calculator calculator = new Calculator();
+        for (int i = 0; i < this.lines.length; i++) {
+            this.lines[i] = Calculator.STR_CLEAR + " " + CalculatorTester.TESTS[i][0];
+            ReplayEngine.enterTokens(calculator, this.lines[i], 0, this.lines[i].length());
+            this.expected[i] = calculator.getCurrentValueAsString();
+        }
+    }
+
+
+    /**
+     * run every connection to completion
+     * @return requests answered per second
+     * @throws IOException if a connection failed, after the others have finished
+     */
+    public double run() throws IOException, InterruptedException {
+        Thread[] threads = new Thread[this.connections];
+        long start = System.nanoTime();
+        for (int i = 0; i < threads.length; i++) {
+            final int connection = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        send(connection);
+                    }
+                    catch (Throwable e) {
+                        failure.compareAndSet(null, new IOException("connection " + connection + " failed", e));
+                    }
+                }
+            }, "calculator-load-" + i);
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Throwable failure = this.failure.get();
+        if (failure != null) {
+            throw (IOException)failure;
+        }
+        return this.completed.sum() / seconds;
+    }
+
+    // send one connection's requests in pipelined batches
+    private void send(int connection) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), this.port)) {
+            socket.setTcpNoDelay(true);
+            BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(
+                new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            int next = connection;  // connections start at different lines
+            for (int sent = 0; sent < this.requests; ) {
+                int batch = Math.min(this.depth, this.requests - sent);
+                long start = System.nanoTime();
+                for (int i = 0; i < batch; i++) {
+                    out.write(this.lines[(next + i) % this.lines.length]);
+                    out.write('\n');
+                }
+                out.flush();
+                for (int i = 0; i < batch; i++) {
+                    String reply = in.readLine();
+                    this.latency.record(System.nanoTime() - start);
+                    if (reply == null) {
+                        throw new IOException("server closed the connection");
+                    }
+                    if (!reply.equals(this.expected[(next + i) % this.lines.length])) {
+                        this.mismatches.increment();
+                    }
+                    this.completed.increment();
+                }
+                next += batch;
+                sent += batch;
+            }
+        }
+    }
+
+    /**
+     * @return latencies from sending a batch to each of its replies
+     */
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * @return number of replies received
+     */
+    public long getCompletedCount() {
+        return this.completed.sum();
+    }
+
+    /**
+     * @return number of replies that differed from a local Calculator
+     */
+    public long getMismatchCount() {
+        return this.mismatches.sum();
+    }
+
+
+    // main: port, connections, requests per connection, pipeline depth
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : 0;
+        int connections = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        int requests = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+        int depth = (args.length > 3) ? Integer.parseInt(args[3]) : 32;
+        CalculatorServer server = null;
+        if (port == 0) {
+            server = new CalculatorServer(0);
+            port = server.getPort();
+        }
+        long mismatches;
+        try {
+            CalculatorLoadGenerator generator = new CalculatorLoadGenerator(port, connections, requests, depth);
+            double throughput = generator.run();
+            mismatches = generator.getMismatchCount();
+            System.out.println(connections + " connections, " + requests + " requests each, pipeline depth " + depth);
+            System.out.println("client: throughput=" + (long)throughput + "/s latency " + generator.getLatency()
+                               + " mismatches=" + mismatches);
+            if (server != null) {
+                System.out.println("server: " + server.getStats());
+            }
+        }
+        finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package calculator;
+
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+
+
+/************************************************************
+ *  CalculatorMetrics
+ *
+ *  Counters and latency histograms for what Calculators do:
+ *  calculations per operator, tokens per class, errors per
+ *  cause, and the latency of enter() and of each calculation.
+ *
+ *  Metrics are off unless the JVM is started with
+ *  -Dcalculator.metrics=true.  ENABLED is a static final flag,
+ *  so with metrics off the JIT removes the recording code from
+ *  Calculator altogether.  With metrics on, counters are
+ *  striped LongAdders and histograms lock free, so concurrent
+ *  calculators do not contend; each timed call costs two
+ *  System.nanoTime() calls.  The numbers are also readable
+ *  over JMX, see CalculatorMetricsMXBean.
+ *
+ ************************************************************/
+public final class CalculatorMetrics implements CalculatorMetricsMXBean {
+
+    /**
+     * whether metrics are recorded, from the system property calculator.metrics
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("calculator.metrics");
+
+    public static final String OBJECT_NAME = "calculator:type=CalculatorMetrics";
+
+    // token classes
+    public static final int TOKEN_DIGIT = 0;
+    public static final int TOKEN_DOT = 1;
+    public static final int TOKEN_OPERATION = 2;
+    public static final int TOKEN_EQUALS = 3;
+    public static final int TOKEN_CLEAR = 4;
+    public static final int TOKEN_OTHER = 5;
+    private static final String[] TOKEN_NAMES = {"digit", "dot", "operation", "equals", "clear", "other"};
+
+    // error causes
+    public static final int ERROR_DIVIDE_BY_ZERO = 0;
+    public static final int ERROR_PARSE = 1;
+    public static final int ERROR_PRECEDENCE = 2;
+    public static final int ERROR_MISSING_OPERAND = 3;
+    private static final String[] ERROR_NAMES = {"divideByZero", "parse", "precedence", "missingOperand"};
+
+    // names of the operation codes of OperatorRegistry.getExtended(), others are "op<code>"
+    private static final String[] OPERATION_NAMES = {
+        "none", "plus", "minus", "multiply", "divide", "remainder", "power", "negate", "sqrt"
+    };
+
+    private static final CalculatorMetrics DEFAULT = new CalculatorMetrics();
+    static {
+        if (ENABLED) {
+            DEFAULT.register();
+        }
+    }
+
+    private final LongAdder[] operations = counters(OperatorRegistry.MAX_CODE + 1);  // by operation code
+    private final LongAdder[] tokens = counters(TOKEN_NAMES.length);
+    private final LongAdder[] errors = counters(ERROR_NAMES.length);
+    private final LatencyHistogram enterLatency = new LatencyHistogram();
+    private final LatencyHistogram calculateLatency = new LatencyHistogram();
+
+
+    /**
+     *  constructor
+     */
+    public CalculatorMetrics() {
+    }
+
+    /**
+     * @return the metrics Calculators record to
+     */
+    public static CalculatorMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    // an array of new counters
+    private static LongAdder[] counters(int count) {
+        LongAdder[] counters = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    /**
+     * register with the platform MBeanServer as OBJECT_NAME
+     * @return false if something is registered there already
+     */
+    public boolean register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                return false;
+            }
+            server.registerMBean(this, name);
+            return true;
+        }
+        catch (JMException e) {
+            throw new IllegalStateException("cannot register " + OBJECT_NAME, e);
+        }
+    }
+
+
+    /**
+     * @return the class of a token, one of the TOKEN_ constants
+     */
+    public static int tokenClass(CharSequence text, int start, int end) {
+        if (end - start == 1) {
+            char c = text.charAt(start);
+            if (c == '=') {
+                return TOKEN_EQUALS;
+            }
+            if (c == '.') {
+                return TOKEN_DOT;
+            }
+            if (Calculator.operationOf(c) != Calculator.OP_NONE) {
+                return TOKEN_OPERATION;
+            }
+        }
+        if (end > start && text.charAt(start) >= '0' && text.charAt(start) <= '9') {
+            return TOKEN_DIGIT;
+        }
+        if (end - start == Calculator.STR_CLEAR.length()) {
+            for (int i = 0; i < end - start; i++) {
+                if (text.charAt(start + i) != Calculator.STR_CLEAR.charAt(i)) {
+                    return TOKEN_OTHER;
+                }
+            }
+            return TOKEN_CLEAR;
+        }
+        return TOKEN_OTHER;
+    }
+
+    /**
+     * record a token entered and how long entering it took
+     */
+    public void recordEnter(int tokenClass, long nanos) {
+        this.tokens[tokenClass].increment();
+        this.enterLatency.record(nanos);
+    }
+
+    /**
+     * record a calculation and how long it took
+     */
+    public void recordCalculate(int op, long nanos) {
+        if (op >= 0 && op < this.operations.length) {
+            this.operations[op].increment();
+        }
+        this.calculateLatency.record(nanos);
+    }
+
+    /**
+     * record an error, cause is one of the ERROR_ constants
+     */
+    public void recordError(int cause) {
+        this.errors[cause].increment();
+    }
+
+
+    /**
+     * @return calculations of an operation, one of Calculator.OP_*
+     */
+    public long getOperationCount(int op) {
+        return this.operations[op].sum();
+    }
+
+    /**
+     * @return tokens of a class, one of the TOKEN_ constants
+     */
+    public long getTokenCount(int tokenClass) {
+        return this.tokens[tokenClass].sum();
+    }
+
+    /**
+     * @return errors of a cause, one of the ERROR_ constants
+     */
+    public long getErrorCount(int cause) {
+        return this.errors[cause].sum();
+    }
+
+    /**
+     * @return latencies of enter()
+     */
+    public LatencyHistogram getEnterLatency() {
+        return this.enterLatency;
+    }
+
+    /**
+     * @return latencies of calculations
+     */
+    public LatencyHistogram getCalculateLatency() {
+        return this.calculateLatency;
+    }
+
+    // counters by name
+    private static Map<String, Long> toMap(String[] names, LongAdder[] counters) {
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < names.length; i++) {
+            map.put(names[i], Long.valueOf(counters[i].sum()));
+        }
+        return map;
+    }
+
+
+    /*
+     *  CalculatorMetricsMXBean
+     */
+    public boolean isEnabled() {
+        return ENABLED;
+    }
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> map = toMap(OPERATION_NAMES, this.operations);
+        for (int op = OPERATION_NAMES.length; op < this.operations.length; op++) {
+            long count = this.operations[op].sum();
+            if (count > 0) {  // an operator of a registry of its own
+                map.put("op" + op, Long.valueOf(count));
+            }
+        }
+        return map;
+    }
+    public Map<String, Long> getTokenCounts() {
+        return toMap(TOKEN_NAMES, this.tokens);
+    }
+    public Map<String, Long> getErrorCounts() {
+        return toMap(ERROR_NAMES, this.errors);
+    }
+    public long getEnterCount() {
+        return this.enterLatency.getCount();
+    }
+    public double getEnterMeanNanos() {
+        return this.enterLatency.getMean();
+    }
+    public long getEnterP50Nanos() {
+        return this.enterLatency.getPercentile(50);
+    }
+    public long getEnterP99Nanos() {
+        return this.enterLatency.getPercentile(99);
+    }
+    public long getEnterP999Nanos() {
+        return this.enterLatency.getPercentile(99.9);
+    }
+    public long getEnterMaxNanos() {
+        return this.enterLatency.getMax();
+    }
+    public long getCalculateCount() {
+        return this.calculateLatency.getCount();
+    }
+    public double getCalculateMeanNanos() {
+        return this.calculateLatency.getMean();
+    }
+    public long getCalculateP50Nanos() {
+        return this.calculateLatency.getPercentile(50);
+    }
+    public long getCalculateP99Nanos() {
+        return this.calculateLatency.getPercentile(99);
+    }
+    public long getCalculateP999Nanos() {
+        return this.calculateLatency.getPercentile(99.9);
+    }
+    public long getCalculateMaxNanos() {
+        return this.calculateLatency.getMax();
+    }
+    public void reset() {
+        LongAdder[][] all = {this.operations, this.tokens, this.errors};
+        for (int i = 0; i < all.length; i++) {
+            for (int j = 0; j < all[i].length; j++) {
+                all[i][j].reset();
+            }
+        }
+        this.enterLatency.reset();
+        this.calculateLatency.reset();
+    }
+
+    /**
+     *  @return this object as a String
+     */
+    public String toString() {
+        return "operations=" + getOperationCounts() + " tokens=" + getTokenCounts() + " errors=" + getErrorCounts()
+            + "\nenter: " + this.enterLatency + "\ncalculate: " + this.calculateLatency;
+    }
+}
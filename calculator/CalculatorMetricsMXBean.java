@@ -0,0 +1,62 @@
+package calculator;
+
+
+import java.util.Map;
+
+
+
+/************************************************************
+ *  CalculatorMetricsMXBean
+ *
+ *  JMX view of CalculatorMetrics, registered as
+ *  "calculator:type=CalculatorMetrics".  Latencies are in
+ *  nanoseconds.
+ *
+ ************************************************************/
+public interface CalculatorMetricsMXBean {
+
+    /**
+     * @return whether metrics are recorded, see CalculatorMetrics.ENABLED
+     */
+    boolean isEnabled();
+
+    /**
+     * @return calculations per operator name
+     */
+    Map<String, Long> getOperationCounts();
+
+    /**
+     * @return tokens entered per token class
+     */
+    Map<String, Long> getTokenCounts();
+
+    /**
+     * @return errors per cause
+     */
+    Map<String, Long> getErrorCounts();
+
+    /**
+     * @return number of tokens entered
+     */
+    long getEnterCount();
+    double getEnterMeanNanos();
+    long getEnterP50Nanos();
+    long getEnterP99Nanos();
+    long getEnterP999Nanos();
+    long getEnterMaxNanos();
+
+    /**
+     * @return number of calculations
+     */
+    long getCalculateCount();
+    double getCalculateMeanNanos();
+    long getCalculateP50Nanos();
+    long getCalculateP99Nanos();
+    long getCalculateP999Nanos();
+    long getCalculateMaxNanos();
+
+    /**
+     * set every counter and histogram back to zero
+     */
+    void reset();
+}
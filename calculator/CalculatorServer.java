@@ -0,0 +1,356 @@
+package calculator;
+
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/************************************************************
+ *  CalculatorServer
+ *
+ *  Headless TCP server answering calculations for other
+ *  processes on the same host; it only listens on the loopback
+ *  address.
+ *
+ *  The protocol is lines of UTF-8 text, one reply line per
+ *  request line, in order:
+ *
+ *      7 . 1 * 7 =        tokens entered into the connection's
+ *                         session, replies the display
+ *                         (getCurrentValueAsString())
+ *      ? 3 + 2 * 6        an expression evaluated with operator
+ *                         precedence, see Expression, replies 15
+ *      #stats             replies the server's statistics
+ *
+ *  A line longer than MAX_LINE_LENGTH characters is read to its
+ *  end but not kept, and replied Error.
+ *
+ *  Each connection has its own Calculator session and its own
+ *  thread: a virtual thread where the JVM has them (Java 21 and
+ *  later, looked up reflectively), otherwise a platform thread.
+ *  Requests may be pipelined: a client can send many lines
+ *  before reading, and replies are flushed only once no more
+ *  requests are waiting, so a pipelined batch is answered in
+ *  one write.
+ *
+ *  Throughput and request latency (from reading a request to
+ *  its reply being ready) are kept for the whole server, see
+ *  getStats().  CalculatorLoadGenerator exercises it.
+ *
+ ************************************************************/
+public final class CalculatorServer implements AutoCloseable {
+
+    public static final int DEFAULT_PORT = 7777;
+    public static final int MAX_LINE_LENGTH = 8192;  // characters of a request line
+
+    private static final char EXPRESSION = '?';
+    private static final String STATS = "#stats";
+    private static final long MAX_BACKOFF_MILLIS = 1000;  // between failing accepts
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final boolean virtual;
+    private final Thread acceptor;
+    private final Set<Socket> open = ConcurrentHashMap.<Socket>newKeySet();
+    private final long started = System.nanoTime();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder connectionCount = new LongAdder();
+    private final LongAdder acceptFailures = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+
+    /**
+     *  constructor, listens on the loopback address, port 0 picks a free port
+     */
+    public CalculatorServer(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        ExecutorService executor = newVirtualThreadExecutor();
+        this.virtual = (executor != null);
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "calculator-connection");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        this.connections = executor;
+        this.acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "calculator-server");
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    // a thread per task executor of virtual threads, null if the JVM has none
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+
+    // accept connections until closed, backing off while accepting fails
+    private void accept() {
+        long backoff = 0;
+        while (!this.serverSocket.isClosed()) {
+            try {
+                final Socket socket = this.serverSocket.accept();
+                backoff = 0;
+                this.connectionCount.increment();
+                try {
+                    this.connections.execute(new Runnable() {
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e) {
+                    // no thread for it, the server is closing or out of threads: turn the client away
+                    this.acceptFailures.increment();
+                    socket.close();
+                }
+            }
+            catch (IOException e) {
+                if (this.serverSocket.isClosed()) {
+                    return;
+                }
+                // out of file descriptors, say: report the first failure of a run and wait for it to pass
+                this.acceptFailures.increment();
+                if (backoff == 0) {
+                    System.err.println("calculator-server: accept failed, backing off: " + e);
+                }
+                backoff = Math.min(Math.max(1, backoff * 2), MAX_BACKOFF_MILLIS);
+                try {
+                    Thread.sleep(backoff);
+                }
+                catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // answer one connection's requests until it closes
+    private void serve(Socket socket) {
+        this.open.add(socket);
+        try (Socket connection = socket) {
+            connection.setTcpNoDelay(true);
+            LineReader in = new LineReader(
+                new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+            Writer out = new BufferedWriter(
+                new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8));
+            Calculator calculator = new Calculator();
+            StringBuilder line = new StringBuilder();
+            StringBuilder reply = new StringBuilder();
+            int length;
+            while ((length = in.readLine(line)) >= 0) {
+                long start = System.nanoTime();
+                reply.setLength(0);
+                if (length > MAX_LINE_LENGTH) {
+                    reply.append(Value.ERROR_MESSAGE);
+                }
+                else {
+                    respond(calculator, line.toString(), reply);
+                }
+                reply.append('\n');
+                out.append(reply);
+                this.latency.record(System.nanoTime() - start);
+                this.requests.increment();
+                if (!in.ready()) {  // nothing pipelined behind this request
+                    out.flush();
+                }
+            }
+            out.flush();
+        }
+        catch (IOException e) {
+            // the client went away, its session goes with it
+        }
+        finally {
+            this.open.remove(socket);
+        }
+    }
+
+    // append the reply to one request line, Error and a cleared session if the line broke the calculator
+    private StringBuilder respond(Calculator calculator, String line, StringBuilder reply) {
+        try {
+            return respondTo(calculator, line, reply);
+        }
+        catch (RuntimeException e) {
+            calculator.reset();
+            reply.setLength(0);
+            return reply.append(Value.ERROR_MESSAGE);
+        }
+    }
+
+    // append the reply to one request line
+    private StringBuilder respondTo(Calculator calculator, String line, StringBuilder reply) {
+        if (line.length() > 0 && line.charAt(0) == EXPRESSION) {
+            return reply.append(Calculator.evaluate(line.substring(1)));
+        }
+        if (line.equals(STATS)) {
+            return reply.append(getStats());
+        }
+        ReplayEngine.enterTokens(calculator, line, 0, line.length());
+        return calculator.appendCurrentValue(reply);
+    }
+
+
+    // reads request lines like BufferedReader.readLine(), keeping at most MAX_LINE_LENGTH characters
+    private static final class LineReader {
+
+        private final Reader in;
+        private final char[] buffer = new char[8192];
+        private int position = 0;
+        private int limit = 0;
+
+        LineReader(Reader in) {
+            this.in = in;
+        }
+
+        // read the next line into line without its terminator
+        // @return its length, more than MAX_LINE_LENGTH if it was cut, -1 at the end of the stream
+        int readLine(StringBuilder line) throws IOException {
+            line.setLength(0);
+            int length = 0;
+            while (true) {
+                if (this.position == this.limit) {
+                    int read = this.in.read(this.buffer, 0, this.buffer.length);
+                    if (read < 0) {
+                        return (length == 0) ? -1 : length;
+                    }
+                    this.position = 0;
+                    this.limit = read;
+                }
+                int start = this.position;
+                while (this.position < this.limit && this.buffer[this.position] != '\n') {
+                    this.position++;
+                }
+                int count = this.position - start;
+                int kept = Math.max(0, Math.min(count, MAX_LINE_LENGTH + 1 - line.length()));
+                line.append(this.buffer, start, kept);
+                length += count;
+                if (this.position < this.limit) {  // at the newline
+                    this.position++;
+                    if (line.length() > 0 && line.charAt(line.length() - 1) == '\r' && length <= MAX_LINE_LENGTH + 1) {
+                        line.setLength(line.length() - 1);
+                        length--;
+                    }
+                    return length;
+                }
+            }
+        }
+
+        // whether a line may be read without blocking
+        boolean ready() throws IOException {
+            return this.position < this.limit || this.in.ready();
+        }
+    }
+
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return this.serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return whether connections run on virtual threads
+     */
+    public boolean isVirtual() {
+        return this.virtual;
+    }
+
+    /**
+     * @return number of requests answered
+     */
+    public long getRequestCount() {
+        return this.requests.sum();
+    }
+
+    /**
+     * @return number of connections accepted
+     */
+    public long getConnectionCount() {
+        return this.connectionCount.sum();
+    }
+
+    /**
+     * @return number of times accepting a connection failed while the server was open
+     */
+    public long getAcceptFailureCount() {
+        return this.acceptFailures.sum();
+    }
+
+    /**
+     * @return requests answered per second since the server started
+     */
+    public double getThroughput() {
+        double seconds = (System.nanoTime() - this.started) / 1e9;
+        return this.requests.sum() / seconds;
+    }
+
+    /**
+     * @return latencies of the requests answered
+     */
+    public LatencyHistogram getLatency() {
+        return this.latency;
+    }
+
+    /**
+     * @return statistics on one line
+     */
+    public String getStats() {
+        return "connections=" + getConnectionCount() + " requests=" + getRequestCount()
+            + " throughput=" + (long)getThroughput() + "/s p50=" + this.latency.getPercentile(50)
+            + "ns p99=" + this.latency.getPercentile(99) + "ns max=" + this.latency.getMax() + "ns"
+            + " acceptFailures=" + getAcceptFailureCount() + (this.virtual ? " virtual" : " platform");
+    }
+
+    /**
+     * stop accepting connections and close the open ones
+     */
+    public void close() throws IOException {
+        this.serverSocket.close();
+        for (Socket socket : this.open) {
+            socket.close();
+        }
+        this.connections.shutdownNow();
+    }
+
+
+    // main: optionally the port
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        CalculatorServer server = new CalculatorServer(port);
+        System.out.println("listening on localhost:" + server.getPort()
+                           + (server.isVirtual() ? " with virtual threads" : " with platform threads"));
+        while (true) {
+            Thread.sleep(10000);
+            System.out.println(server.getStats());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package calculator;
+
+
+import java.util.concurrent.atomic.AtomicReference;
+
+
+
+/************************************************************
+ *  CalculatorSession
+ *
+ *  A calculator session that several threads may share.
+ *
+ *  The current CalculatorState is held in an AtomicReference.
+ *  Entering a token computes the next state with the engine
+ *  and commits it with compare and set, retrying if another
+ *  thread committed first.  Tokens entered concurrently are
+ *  therefore applied one after the other, in some order,
+ *  without locking.  Sessions that only one thread uses are
+ *  just as well served by calling the engine directly.
+ *
+ ************************************************************/
+public final class CalculatorSession {
+
+    private final CalculatorEngine engine;
+    private final AtomicReference<CalculatorState> state;
+
+
+    /**
+     *  constructors
+     */
+    public CalculatorSession() {
+        this(CalculatorEngine.getDefault(), CalculatorState.INITIAL);
+    }
+    public CalculatorSession(CalculatorEngine engine, CalculatorState state) {
+        this.engine = engine;
+        this.state = new AtomicReference<CalculatorState>(state);
+    }
+
+
+    /**
+     * enter a token
+     * @return the state after entering it
+     */
+    public CalculatorState enter(String token) {
+        CalculatorState current;
+        CalculatorState next;
+        do {
+            current = this.state.get();
+            next = this.engine.next(current, token);
+        } while (!this.state.compareAndSet(current, next));
+        return next;
+    }
+
+    /**
+     * clear the session
+     */
+    public void clear() {
+        this.state.set(CalculatorState.INITIAL);
+    }
+
+    /**
+     * replace the state only if it is still expected
+     * @return whether the state was replaced
+     */
+    public boolean compareAndSet(CalculatorState expected, CalculatorState state) {
+        return this.state.compareAndSet(expected, state);
+    }
+
+    /**
+     * @return the current state
+     */
+    public CalculatorState getState() {
+        return this.state.get();
+    }
+
+    /**
+     * @return the engine driving this session
+     */
+    public CalculatorEngine getEngine() {
+        return this.engine;
+    }
+}
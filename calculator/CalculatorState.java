@@ -0,0 +1,104 @@
+package calculator;
+
+
+/************************************************************
+ *  CalculatorState
+ *
+ *  Immutable snapshot of everything a Calculator remembers:
+ *  both operands, the pending operation and the unfinished
+ *  input.  CalculatorEngine moves from one state to the next,
+ *  so a state can be shared between threads freely.
+ *
+ *  Memory footprint, with compressed references on a 64 bit
+ *  JVM: the state itself is 32 bytes, each operand Value 32
+ *  bytes and the input String 24 bytes plus a 16 byte array
+ *  header and one byte per ASCII character.  A session is
+ *  typically 64 to 96 bytes between keypresses, plus about 48
+ *  bytes while a number is being typed.  INITIAL and the empty
+ *  input are shared by all sessions.
+ *
+ ************************************************************/
+public final class CalculatorState {
+
+    /**
+     * the state of a cleared calculator
+     */
+    public static final CalculatorState INITIAL =
+        new CalculatorState(Value.ZERO, null, Calculator.OP_NONE, "");
+
+    private final Value operand1;   // null when not set
+    private final Value operand2;   // null when not set
+    private final int operation;
+    private final String input;     // a non-zero length would indicate an edit state
+
+
+    /**
+     *  constructor
+     */
+    public CalculatorState(Value operand1, Value operand2, int operation, String input) {
+        this.operand1 = operand1;
+        this.operand2 = operand2;
+        this.operation = operation;
+        this.input = (input == null) ? "" : input;
+    }
+
+
+    /**
+     * @return the first operand, null if not set
+     */
+    public Value getOperand1() {
+        return this.operand1;
+    }
+
+    /**
+     * @return the second operand, null if not set
+     */
+    public Value getOperand2() {
+        return this.operand2;
+    }
+
+    /**
+     * @return the pending operation, one of Calculator.OP_*
+     */
+    public int getOperation() {
+        return this.operation;
+    }
+
+    /**
+     * @return the unfinished input, empty if none
+     */
+    public String getInput() {
+        return this.input;
+    }
+
+    /**
+     *  @return the current value, as Calculator.getCurrentValue()
+     */
+    public Value getCurrentValue() {
+        if (this.operand2 != null) {
+            return this.operand2;
+        }
+        return this.operand1;
+    }
+
+    /**
+     * @return string version of current value, or non-finished input string if there
+     */
+    public String getCurrentValueAsString() {
+        if (this.input.length() > 0) {
+            return this.input;
+        }
+        Value value = getCurrentValue();
+        if (value == null) {
+            return "";
+        }
+        return value.toString();
+    }
+
+    /**
+     *  @return this object as a String
+     */
+    public String toString() {
+        return "" + this.operand1 + " " + Calculator.operationToString(this.operation) + " " + this.operand2;
+    }
+}
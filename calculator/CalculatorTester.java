@@ -1,6 +1,15 @@
 package calculator;
 
 
+import java.io.IOException;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
 
 /**
  *  Test class for the calculator
@@ -10,7 +19,7 @@ package calculator;
  *
  */
 public class CalculatorTester {
-    private static String[][] TESTS = {
+    static final String[][] TESTS = {  // also the corpus for the benchmarks
         {"3 + 2 = * 6 =", "30"},
         {"3 + 2 * 6 =", "15"}, // This will not work with the simple calculator
 	{"70 * 7 =", "490"},
@@ -28,6 +37,50 @@ public class CalculatorTester {
         {"1 + 4 + 1 0 + 2 - 6.1 + 1 =", "11.9"}
     };
 
+    // tests for the numeric modes, see NumericMode
+    private static final String[][] CHECKED_TESTS = {
+        {"9223372036854775807 + 1 =", "9223372036854775808"},
+        {"9223372036854775807 + 1 = - 1 =", "9223372036854775807"},
+        {"3037000500 * 3037000500 =", "9223372037000250000"}
+    };
+    private static final String[][] DECIMAL_TESTS = {
+        {"0 . 1 + 0 . 2 =", "0.3"},
+        {"7 . 1 * 7 =", "49.7"},
+        {"1 / 3 =", "0.3333333333333333333333333333333333"}
+    };
+    private static final String[][] FIXED_TESTS = {  // scale 2, HALF_EVEN
+        {"7 =", "7.00"},
+        {"1 0 . 0 5 / 3 =", "3.35"},
+        {"2 . 5 * 1 . 0 5 =", "2.62"}
+    };
+
+    // tests for OperatorRegistry.getExtended()
+    private static final String[][] EXTENDED_TESTS = {
+        {"7 % 3 =", "1"},
+        {"2 ^ 1 0 =", "1024"},
+        {"2 ^ 0 . 5 =", "1.4142135623730951"},
+        {"9 sqrt + 1 =", "4"},
+        {"5 ~ * 3 =", "-15"},
+        {"1 - 5 = sqrt", "Error"}
+    };
+    private static final String[][] EXTENDED_CHECKED_TESTS = {
+        {"0 - 9223372036854775807 - 1 = ~", "9223372036854775808"},
+        {"2 ^ 7 0 =", "1180591620717411303424"},
+        {"2 ^ 0 . 5 =", "1.4142135623730951"}
+    };
+    private static final String[][] EXTENDED_DECIMAL_TESTS = {
+        {"12345678901234567890 % 7 =", "1"},
+        {"2 ^ 1 0 0 =", "1267650600228229401496703205376"},
+        {"12345678901234567890.123 ~", "-12345678901234567890.123"},
+        {"2 sqrt", "1.414213562373095048801688724209698"},
+        {"2 ^ 0 . 5 =", "Error"}
+    };
+    private static final String[][] EXTENDED_FIXED_TESTS = {  // scale 2, HALF_EVEN
+        {"1 0 . 0 5 % 3 =", "1.05"},
+        {"2 ^ 1 ~ =", "0.50"},
+        {"2 sqrt", "1.41"}
+    };
+
 
     // run individual test
     private static String runTest(Calculator calculator, String test, String result) {
@@ -53,16 +106,239 @@ public class CalculatorTester {
         return "[" + test + "] [" + calculator.getCurrentValue() + "]";
     }
 
+    // run individual test through a compiled Expression
+    private static String runExpressionTest(String test, String result, int backend) {
+        Value value = Expression.compile(test, backend).evaluate();
+        String testResult = "bad: ";
+        if (value.toString().equals(result)) {
+            testResult = "good: ";
+        }
+        return testResult + " [" + test + "] [" + value + "]  desired result: [" + result + "]";
+    }
+
+    // run tests in a numeric mode
+    private static void runModeTests(StringBuilder testResults, String title, NumericMode mode, String[][] tests) {
+        Calculator calculator = new Calculator();
+        calculator.setNumericMode(mode);
+        runTests(testResults, title, calculator, tests);
+    }
+
+    // run tests on a configured calculator
+    private static void runTests(StringBuilder testResults, String title, Calculator calculator, String[][] tests) {
+        testResults.append(title);
+        for (int i = 0; i < tests.length; i++) {
+            testResults.append("\n").append(runTest(calculator, tests[i][0], tests[i][1]));
+        }
+    }
+
+    // run all tests as one request frame of the binary WireProtocol
+    private static void runWireTests(StringBuilder testResults) {
+        ByteBuffer request = ByteBuffer.allocate(4096);
+        ByteBuffer response = ByteBuffer.allocate(4096);
+        WireEncoder encoder = new WireEncoder(request).beginFrame();
+        for (int i = 0; i < TESTS.length; i++) {
+            encoder.putExpression(TESTS[i][0]);
+        }
+        encoder.endFrame();
+        request.flip();
+        WireDecoder decoder = new WireDecoder();
+        decoder.evaluate(request, new Calculator(), new WireEncoder(response));
+        response.flip();
+        testResults.append("Wire: ").append(request.limit()).append(" request bytes, ")
+                   .append(response.limit()).append(" response bytes");
+        decoder.beginFrame(response);
+        for (int i = 0; i < TESTS.length; i++) {
+            Value value = decoder.getValue(response);
+            String testResult = value.toString().equals(TESTS[i][1]) ? "good: " : "bad: ";
+            testResults.append("\n").append(testResult).append(" [").append(TESTS[i][0]).append("] [")
+                       .append(value).append("]  desired result: [").append(TESTS[i][1]).append("]");
+        }
+    }
+
+    // enter "1 +" into a journal from several threads while another takes snapshots,
+    //     then reopen it and check the recovered session is the one closed, no token lost or replayed twice
+    private static void runJournalTests(StringBuilder testResults) {
+        final int rounds = 10;
+        final int threads = 3;
+        testResults.append("Journal:");
+        for (int round = 0; round < rounds; round++) {
+            Path directory = null;
+            String testResult;
+            try {
+                directory = Files.createTempDirectory("journal");
+                final CalculatorJournal journal = CalculatorJournal.open(directory, new Calculator(), 64, 1);
+                final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+                Thread[] enterers = new Thread[threads];
+                for (int t = 0; t < threads; t++) {
+                    enterers[t] = new Thread() {
+                        public void run() {
+                            try {
+                                for (int i = 0; i < 500; i++) {
+                                    journal.enter("1");
+                                    journal.enter("+");
+                                }
+                            }
+                            catch (Throwable e) {
+                                failure.compareAndSet(null, e);
+                            }
+                        }
+                    };
+                    enterers[t].start();
+                }
+                for (int i = 0; i < 8; i++) {
+                    journal.snapshot();
+                    Thread.yield();
+                }
+                for (int t = 0; t < threads; t++) {
+                    enterers[t].join();
+                }
+                if (failure.get() != null) {
+                    throw failure.get();
+                }
+                journal.enter("1");
+                journal.enter(Calculator.STR_EQUALS);
+                long sequence = journal.getSequence();
+                String display = journal.getCurrentValueAsString();
+                journal.close();
+                CalculatorJournal reopened = CalculatorJournal.open(directory);
+                long recoveredSequence = reopened.getSequence();
+                String recoveredDisplay = reopened.getCurrentValueAsString();
+                reopened.close();
+                testResult = (sequence == recoveredSequence && display.equals(recoveredDisplay)) ? "good: " : "bad: ";
+                testResult += " [" + sequence + " tokens, " + display + "] [" + recoveredSequence + " tokens, "
+                              + recoveredDisplay + "]";
+            }
+            catch (Throwable e) {
+                testResult = "bad:  [" + e + "]";
+            }
+            finally {
+                deleteDirectory(directory);
+            }
+            testResults.append("\n").append(testResult);
+        }
+        testResults.append("\n").append(runJournalFailureTest());
+    }
+
+    // fail a commit by interrupting it, which closes the log: the tokens stay pending,
+    //     later entries throw, and close() commits them
+    private static String runJournalFailureTest() {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("journal");
+            CalculatorJournal journal = CalculatorJournal.open(directory, new Calculator(), 64, 60000);
+            journal.enter("1");
+            journal.enter("+");
+            journal.enter("2");
+            long sequence = journal.getSequence();
+            String display = journal.getCurrentValueAsString();
+            String failed = "no failure";
+            Thread.currentThread().interrupt();
+            try {
+                journal.sync();
+            }
+            catch (IOException e) {
+                failed = e.getClass().getSimpleName();
+            }
+            Thread.interrupted();
+            String after = "accepted";
+            try {
+                journal.enter(Calculator.STR_EQUALS);
+            }
+            catch (IOException e) {
+                after = e.getMessage();
+            }
+            long committed = journal.getCommittedSequence();
+            journal.close();
+            CalculatorJournal reopened = CalculatorJournal.open(directory);
+            long recoveredSequence = reopened.getSequence();
+            String recoveredDisplay = reopened.getCurrentValueAsString();
+            reopened.close();
+            boolean good = failed.equals("ClosedByInterruptException") && after.equals("journal commit failed")
+                && committed == 0 && sequence == recoveredSequence && display.equals(recoveredDisplay);
+            return (good ? "good: " : "bad: ") + " [" + failed + ", " + after + ", " + committed + " committed] ["
+                   + recoveredSequence + " tokens, " + recoveredDisplay + "]  desired result: [" + sequence
+                   + " tokens, " + display + "]";
+        }
+        catch (Throwable e) {
+            return "bad:  [" + e + "]";
+        }
+        finally {
+            Thread.interrupted();
+            deleteDirectory(directory);
+        }
+    }
+
+    // remove a journal directory, it holds only files
+    private static void deleteDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(directory);
+        }
+        catch (IOException e) {
+            // a temporary directory, left behind
+        }
+    }
+
+    // replay the tests reading the value after every token, as the display does,
+    //     and count the values that are shared instead of allocated
+    private static String countCanonicalValues() {
+        Calculator calculator = new Calculator();
+        int values = 0;
+        int shared = 0;
+        for (int i = 0; i < TESTS.length; i++) {
+            String[] token = TESTS[i][0].split("[ ]");
+            calculator.clear();
+            for (int j = 0; j < token.length; j++) {
+                calculator.enter(token[j]);
+                values++;
+                if (Value.isCanonical(calculator.getCurrentValue())) {
+                    shared++;
+                }
+            }
+        }
+        return "Canonical values: " + shared + " of " + values + " values shared instead of allocated";
+    }
+
     // run full suit of tests
     private static String runTests() {
-        String testResults = "";
+        StringBuilder testResults = new StringBuilder();
         String newLine = "";
         Calculator calculator = new Calculator();
         for (int i = 0; i < TESTS.length; i++) {
-            testResults += newLine + runTest(calculator, TESTS[i][0], TESTS[i][1]);
+            testResults.append(newLine).append(runTest(calculator, TESTS[i][0], TESTS[i][1]));
             newLine = "\n";
 	}
-        return testResults;
+        testResults.append(newLine).append("Expression:");
+        for (int i = 0; i < TESTS.length; i++) {
+            testResults.append(newLine).append(runExpressionTest(TESTS[i][0], TESTS[i][1], Expression.BACKEND_INTERPRETER));
+        }
+        testResults.append(newLine).append("Generated Expression:");
+        for (int i = 0; i < TESTS.length; i++) {
+            testResults.append(newLine).append(runExpressionTest(TESTS[i][0], TESTS[i][1], Expression.BACKEND_GENERATED));
+        }
+        runModeTests(testResults.append(newLine), "Checked:", NumericMode.checked(), CHECKED_TESTS);
+        runModeTests(testResults.append(newLine), "Decimal:", NumericMode.decimal(MathContext.DECIMAL128), DECIMAL_TESTS);
+        runModeTests(testResults.append(newLine), "Fixed:", NumericMode.fixed(2, RoundingMode.HALF_EVEN), FIXED_TESTS);
+        Calculator extended = new Calculator();
+        extended.setOperatorRegistry(OperatorRegistry.getExtended());
+        runTests(testResults.append(newLine), "Extended operators:", extended, EXTENDED_TESTS);
+        extended.setNumericMode(NumericMode.checked());
+        runTests(testResults.append(newLine), "Extended checked:", extended, EXTENDED_CHECKED_TESTS);
+        extended.setNumericMode(NumericMode.decimal(MathContext.DECIMAL128));
+        runTests(testResults.append(newLine), "Extended decimal:", extended, EXTENDED_DECIMAL_TESTS);
+        extended.setNumericMode(NumericMode.fixed(2, RoundingMode.HALF_EVEN));
+        runTests(testResults.append(newLine), "Extended fixed:", extended, EXTENDED_FIXED_TESTS);
+        runWireTests(testResults.append(newLine));
+        runJournalTests(testResults.append(newLine));
+        testResults.append(newLine).append(countCanonicalValues());
+        return testResults.toString();
     }
 
     // main
@@ -72,14 +348,14 @@ public class CalculatorTester {
             result = runTests();
         }
         else {
-            String test = "";
+            StringBuilder test = new StringBuilder();
             String delimiter = "";
             for (int i = 0; i < args.length; i++) {
-                test += delimiter + args[i];
+                test.append(delimiter).append(args[i]);
                 delimiter = " ";
             }
             Calculator calculator = new Calculator();
-            result = runTest(calculator, test);
+            result = runTest(calculator, test.toString());
         }
         System.out.println(result);
     }
@@ -3,15 +3,35 @@ package calculator;
 
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
 import java.awt.Color;
 import java.awt.Container;
 import java.awt.Font;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
+import java.awt.Toolkit;
+import java.awt.datatransfer.DataFlavor;
+import java.awt.datatransfer.UnsupportedFlavorException;
+import java.io.IOException;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.swing.AbstractAction;
+import javax.swing.ActionMap;
+import javax.swing.InputMap;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JButton;
 import javax.swing.JLabel;
+import javax.swing.KeyStroke;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 
 
@@ -20,6 +40,16 @@ import javax.swing.SwingConstants;
  *
  * User interface for Simple Calculator
  *
+ * Buttons, keys and pasted text all go to one dispatcher, which queues
+ * the tokens and enters them into the Calculator.  Light work is done
+ * right on the event thread; once entering a token gets slow (a big
+ * precision NumericMode, a long paste) the queue is drained on a worker
+ * thread instead, so the window never freezes.  The display is updated
+ * at most once per frame by a Swing Timer, with the latest value.
+ *
+ * Keys: digits, ".", "+", "-", "*" or "x", "/", "=" or Enter,
+ * Escape, Delete or "c" for Clear, Ctrl-V to paste an expression.
+ *
  * Layout:
  *
  *                0   1   2   3
@@ -39,56 +69,176 @@ import javax.swing.SwingConstants;
  ***************************************************************************/
 public class CalculatorUI {
 
+    private static final int FRAME_MILLIS = 16;             // display updates, about 60 per second
+    private static final long HEAVY_NANOS = 2000000L;       // on the event thread for at most 2 ms at a time
+    private static final int EDT_BATCH = 32;                // more queued tokens go to the worker straight away
+
     private Calculator calculator = new Calculator();  // backing class (where the work is done)
     private JLabel displayField = null; // where results are displayed
+    private CalculatorDispatcher dispatcher = null;  // the one listener for buttons, keys and paste
+    private Timer displayTimer = null;  // copies the latest value to the display once per frame
+
+    // internal action class queueing tokens and entering them into the calculator
+    private static class CalculatorDispatcher extends AbstractAction implements Runnable {
+        private static final long serialVersionUID = 1L;
+        private static final String[] DIGITS = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+
+        private final Calculator calculator;
+        private final ArrayDeque<String> queue = new ArrayDeque<String>();  // guarded by itself
+        private boolean draining = false;  // a drain is running or scheduled, guarded by the queue
+        private volatile boolean heavy = false;  // the last drain had a slow token, drain off the EDT
+        private final AtomicReference<String> display = new AtomicReference<String>();  // null if shown
+        private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "calculator-ui-worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
 
-    // internal action listener class to process button presses
-    private static class CalculatorActionListener implements ActionListener {
-        private Calculator calculator = null;
-        private JLabel displayField = null;
-   
         // constructor
-        public CalculatorActionListener(Calculator calc, JLabel field) {
+        public CalculatorDispatcher(Calculator calc) {
             this.calculator = calc;
-            this.displayField = field;
         }
 
-        // process the pressed button
-        private void processButton(String b) {
-            //System.out.println("[" + b + "]");
-            this.calculator.enter(b);
-            this.displayField.setText(this.calculator.getCurrentValueAsString());
+        // queue the token of a button or key, the action command
+        public void actionPerformed(ActionEvent e) {
+            String command = e.getActionCommand();
+            if (command == null) {
+                return;
+            }
+            String token = (command.length() == 1) ? tokenOf(command.charAt(0)) : command;
+            if (token != null) {
+                dispatch(token);
+            }
         }
 
-        //  method to override actionPerformed 
-        public void actionPerformed(ActionEvent e) {
-            JButton button = (JButton)e.getSource();
-            String buttonText = button.getText();
-            processButton(buttonText);
+        // queue one token
+        private void dispatch(String token) {
+            boolean offEdt;
+            synchronized (this.queue) {
+                this.queue.add(token);
+                if (this.draining) {
+                    return;
+                }
+                this.draining = true;
+                offEdt = this.heavy || !SwingUtilities.isEventDispatchThread();
+            }
+            schedule(offEdt);
+        }
+
+        // queue the tokens of pasted text, characters that are not tokens are skipped
+        private void dispatchText(CharSequence text) {
+            boolean offEdt;
+            synchronized (this.queue) {
+                for (int i = 0; i < text.length(); i++) {
+                    String token = tokenOf(text.charAt(i));
+                    if (token != null) {
+                        this.queue.add(token);
+                    }
+                }
+                if (this.draining || this.queue.isEmpty()) {
+                    return;
+                }
+                this.draining = true;
+                offEdt = this.heavy || this.queue.size() > EDT_BATCH || !SwingUtilities.isEventDispatchThread();
+            }
+            schedule(offEdt);
+        }
+
+        // drain the queue here or on the worker
+        private void schedule(boolean offEdt) {
+            if (offEdt) {
+                this.worker.execute(this);
+            }
+            else {
+                run();
+            }
+        }
+
+        // drain the queue, only ever on one thread at a time
+        public void run() {
+            boolean onEdt = SwingUtilities.isEventDispatchThread();
+            long start = System.nanoTime();
+            long published = start;
+            long slowest = 0;
+            while (true) {
+                String token;
+                synchronized (this.queue) {
+                    token = this.queue.poll();
+                    if (token == null) {
+                        this.display.set(this.calculator.getCurrentValueAsString());
+                        this.draining = false;
+                        break;
+                    }
+                }
+                long time = System.nanoTime();
+                this.calculator.enter(token);
+                long now = System.nanoTime();
+                slowest = Math.max(slowest, now - time);
+                if (onEdt && now - start > HEAVY_NANOS) {
+                    // too slow for the event thread, the rest goes to the worker
+                    this.display.set(this.calculator.getCurrentValueAsString());
+                    this.heavy = true;
+                    this.worker.execute(this);
+                    return;
+                }
+                if (now - published > FRAME_MILLIS * 1000000L) {
+                    this.display.set(this.calculator.getCurrentValueAsString());  // progress on long pastes
+                    published = now;
+                }
+            }
+            this.heavy = slowest > HEAVY_NANOS;
+        }
+
+        // the latest value not shown yet, null if none
+        public String takeDisplay() {
+            return this.display.getAndSet(null);
+        }
+
+        // the token for a typed character, null if none
+        private static String tokenOf(char c) {
+            if (c >= '0' && c <= '9') {
+                return DIGITS[c - '0'];
+            }
+            switch(c) {
+                case '.': return Calculator.STR_DOT;
+                case '+': return Calculator.STR_PLUS;
+                case '-': return Calculator.STR_MINUS;
+                case '*': case 'x': case 'X': return Calculator.STR_MULTIPLY;
+                case '/': return Calculator.STR_DIVIDE;
+                case '=': case '\n': case '\r': return Calculator.STR_EQUALS;
+                case 'c': case 'C': case KeyEvent.VK_ESCAPE: case KeyEvent.VK_DELETE: return Calculator.STR_CLEAR;
+                default: return null;
+            }
         }
     }
 
     /**
-     *  constructor
+     *  constructors
      */
     public CalculatorUI() {
     }
+    public CalculatorUI(NumericMode mode) {
+        this.calculator.setNumericMode(mode);
+    }
 
     /**
      *  Launch the Window
      */
     public void display() {
         this.calculator.clear();
+        this.dispatcher = new CalculatorDispatcher(this.calculator);
         initializeFrame();
     }
 
-    // create a button and add its action listener
+    // create a button sending its label to the dispatcher
     private JButton createButton(String label) {
         JButton button = new JButton(label);
-        button.addActionListener(new CalculatorActionListener(this.calculator, this.displayField));
+        button.addActionListener(this.dispatcher);
+        button.setFocusable(false);  // keys go to the window, not the last button clicked
         return button;
     }
-
     // add number buttons
     private void addNumberButtons(Container pane, GridBagConstraints constraints) {
         constraints.gridwidth = 1;
@@ -167,14 +317,84 @@ public class CalculatorUI {
         addNumberDisplay(pane, constraints);
         addNumberButtons(pane, constraints);
         addOperationButtons(pane, constraints);
+        addKeyBindings(frame.getRootPane());
+        startDisplayTimer();
         frame.setVisible(true);
         
         return frame;
     }
 
+    // send typed keys to the dispatcher, and Ctrl-V to paste
+    private void addKeyBindings(JComponent component) {
+        InputMap inputMap = component.getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW);
+        ActionMap actionMap = component.getActionMap();
+        String keys = "0123456789.+-*xX/=cC";
+        for (int i = 0; i < keys.length(); i++) {
+            inputMap.put(KeyStroke.getKeyStroke(keys.charAt(i)), "calculator");
+        }
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ENTER, 0), "calculator");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "calculator");
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), "calculator");
+        actionMap.put("calculator", this.dispatcher);
+
+        inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_V, InputEvent.CTRL_DOWN_MASK), "paste");
+        actionMap.put("paste", new AbstractAction() {
+            private static final long serialVersionUID = 1L;
+            public void actionPerformed(ActionEvent e) {
+                paste();
+            }
+        });
+    }
+
+    // send the clipboard text to the dispatcher
+    private void paste() {
+        try {
+            Object text = Toolkit.getDefaultToolkit().getSystemClipboard().getData(DataFlavor.stringFlavor);
+            this.dispatcher.dispatchText((String)text);
+        }
+        catch (UnsupportedFlavorException e) {
+            // nothing to paste
+        }
+        catch (IOException e) {
+            // the clipboard changed under us, nothing to paste
+        }
+        catch (IllegalStateException e) {
+            // the clipboard is busy, nothing to paste
+        }
+    }
+
+    // show the latest value at most once per frame
+    private void startDisplayTimer() {
+        this.displayTimer = new Timer(FRAME_MILLIS, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                String text = dispatcher.takeDisplay();
+                if (text != null) {
+                    displayField.setText(text);
+                }
+            }
+        });
+        this.displayTimer.start();
+    }
+
+    // main: optionally the numeric mode, "checked", "decimal [digits]" or "fixed [scale]"
     public static void main(String args[]){
-        CalculatorUI ui = new CalculatorUI();
-        ui.display();
+        NumericMode mode = NumericMode.legacy();
+        if (args.length > 0 && args[0].equals("checked")) {
+            mode = NumericMode.checked();
+        }
+        else if (args.length > 0 && args[0].equals("decimal")) {
+            mode = NumericMode.decimal((args.length > 1) ? new MathContext(Integer.parseInt(args[1]))
+                                                          : MathContext.DECIMAL128);
+        }
+        else if (args.length > 0 && args[0].equals("fixed")) {
+            mode = NumericMode.fixed((args.length > 1) ? Integer.parseInt(args[1]) : 2, RoundingMode.HALF_EVEN);
+        }
+        final CalculatorUI ui = new CalculatorUI(mode);
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                ui.display();
+            }
+        });
     }
 }
 
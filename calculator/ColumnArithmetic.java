@@ -0,0 +1,129 @@
+package calculator;
+
+
+/************************************************************
+ *  ColumnArithmetic
+ *
+ *  The calculator's operations over whole ValueColumns, one
+ *  tight loop per operation.
+ *
+ *  Each row follows the same rules as Arithmetic: an error in
+ *  either operand gives an error, two longs use long arithmetic,
+ *  anything else uses double arithmetic and collapses whole
+ *  results to long, and dividing by zero gives an error.  The
+ *  result column may be one of the operand columns.
+ *
+ ************************************************************/
+public final class ColumnArithmetic {
+
+    // static methods only
+    private ColumnArithmetic() {
+    }
+
+    /**
+     *  calculate val1 op val2 into result for the first count rows
+     */
+    public static void calculate(ValueColumn val1, int op, ValueColumn val2, ValueColumn result, int count) {
+        switch(op) {
+            case Calculator.OP_NONE: none(val1, val2, result, count);
+                                     return;
+            case Calculator.OP_PLUS: add(val1, val2, result, count);
+                                     return;
+            case Calculator.OP_MINUS: subtract(val1, val2, result, count);
+                                      return;
+            case Calculator.OP_MULTIPLY: multiply(val1, val2, result, count);
+                                         return;
+            case Calculator.OP_DIVIDE: divide(val1, val2, result, count);
+                                       return;
+            default: // do nothing
+        }
+        for (int i = 0; i < count; i++) {
+            result.setError(i);
+        }
+    }
+
+    // no operation, the result is val2 unless either is an error
+    private static void none(ValueColumn val1, ValueColumn val2, ValueColumn result, int count) {
+        for (int i = 0; i < count; i++) {
+            if (val1.types[i] == Value.ERROR || val2.types[i] == Value.ERROR) {
+                result.setError(i);
+            }
+            else {
+                result.types[i] = val2.types[i];
+                result.longs[i] = val2.longs[i];
+                result.doubles[i] = val2.doubles[i];
+            }
+        }
+    }
+
+    /**
+     * addition
+     */
+    public static void add(ValueColumn val1, ValueColumn val2, ValueColumn result, int count) {
+        for (int i = 0; i < count; i++) {
+            int type1 = val1.types[i];
+            int type2 = val2.types[i];
+            if (type1 == Value.ERROR || type2 == Value.ERROR) {
+                result.setError(i);
+            }
+            else if (type1 == Value.LONG && type2 == Value.LONG) {
+                result.set(i, val1.longs[i] + val2.longs[i]);
+            }
+            else {
+                result.set(i, val1.doubles[i] + val2.doubles[i]);
+            }
+        }
+    }
+
+    /**
+     * subtraction
+     */
+    public static void subtract(ValueColumn val1, ValueColumn val2, ValueColumn result, int count) {
+        for (int i = 0; i < count; i++) {
+            int type1 = val1.types[i];
+            int type2 = val2.types[i];
+            if (type1 == Value.ERROR || type2 == Value.ERROR) {
+                result.setError(i);
+            }
+            else if (type1 == Value.LONG && type2 == Value.LONG) {
+                result.set(i, val1.longs[i] - val2.longs[i]);
+            }
+            else {
+                result.set(i, val1.doubles[i] - val2.doubles[i]);
+            }
+        }
+    }
+
+    /**
+     * multiplication
+     */
+    public static void multiply(ValueColumn val1, ValueColumn val2, ValueColumn result, int count) {
+        for (int i = 0; i < count; i++) {
+            int type1 = val1.types[i];
+            int type2 = val2.types[i];
+            if (type1 == Value.ERROR || type2 == Value.ERROR) {
+                result.setError(i);
+            }
+            else if (type1 == Value.LONG && type2 == Value.LONG) {
+                result.set(i, val1.longs[i] * val2.longs[i]);
+            }
+            else {
+                result.set(i, val1.doubles[i] * val2.doubles[i]);
+            }
+        }
+    }
+
+    /**
+     * division, dividing by zero gives an error
+     */
+    public static void divide(ValueColumn val1, ValueColumn val2, ValueColumn result, int count) {
+        for (int i = 0; i < count; i++) {
+            if (val1.types[i] == Value.ERROR || val2.types[i] == Value.ERROR || val2.doubles[i] == 0.0) {
+                result.setError(i);
+            }
+            else {
+                result.set(i, val1.doubles[i] / val2.doubles[i]);
+            }
+        }
+    }
+}
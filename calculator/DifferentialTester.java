@@ -0,0 +1,1126 @@
+package calculator;
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+
+/************************************************************
+ *  DifferentialTester
+ *
+ *  Differential harness for the evaluation engines: random
+ *  token streams are run through Calculator.enter, which
+ *  defines the semantics including its quirks (49.0 shown as
+ *  49, divide always through double), and through every other
+ *  engine, and each stream on which an engine disagrees is
+ *  reported with a reproducer minimized to the fewest tokens
+ *  that still disagree.
+ *
+ *  Streams are generated from a seed in three shapes:
+ *  CalculatorTester.TESTS with a few tokens replaced, inserted,
+ *  dropped or joined to another case; free streams of any
+ *  tokens, "Clear", "Error", bad numbers and non-ASCII digits
+ *  included; and formulas, operands joined by operators of one
+ *  precedence and ended by "=", which half of the time have
+ *  just two operands.  Every engine checks the streams and
+ *  NumericModes it can evaluate:
+ *
+ *      text, memo, wire      every stream, every mode
+ *      baseline, engine,
+ *      history, replay,
+ *      mapped                every stream
+ *      interpreter, expression memo,
+ *      generated, adaptive, batch,
+ *      parallel                      formulas
+ *      reassociated                  formulas of longs without "/"
+ *      vector, scalar, columns       two operand formulas
+ *
+ *  The parallel engines use a threshold of one, so even these
+ *  small formulas are split over the pool.
+ *
+ *  The vector engine is ArrayArithmetic.getDefault(), named as
+ *  it reports itself, "vector 256 bit" say.  Without the
+ *  jdk.incubator.vector module that is the scalar fallback,
+ *  which is checked as "default scalar", and the report warns
+ *  that the vector kernels were not.  Run it as
+ *
+ *      java --add-modules jdk.incubator.vector
+ *          -cp core/target/classes calculator.DifferentialTester
+ *
+ *  Calculator itself is pinned by the baseline engine, a copy
+ *  of the first release's Calculator and Value(String), so a
+ *  change to the legacy semantics is a divergence too, not a
+ *  new reference.  Literals longer than the Calculator's input
+ *  buffer are among the tokens.
+ *
+ *  Engines that show a display are compared on it and on the
+ *  current value, the others on the value.  Expression binds
+ *  "*" and "/" tighter, which is why it only sees formulas of
+ *  one precedence, where both agree.
+ *
+ *  The engines run in parallel, one task each, and the time
+ *  each takes is reported as its throughput, so the numbers
+ *  are for engines sharing the machine.  Arguments, both
+ *  optional: number of streams, random seed.
+ *
+ ************************************************************/
+public final class DifferentialTester {
+
+    public static final int DEFAULT_STREAMS = 100000;
+
+    private static final int MAX_REPORTED = 5;  // minimized reproducers per engine and mode
+    private static final int MAX_FREE_TOKENS = 16;
+    private static final int MAX_OPERANDS = 6;
+    private static final int HISTORY_DEPTH = 8;  // small, so the ring drops states
+    private static final String NAMES = "abcdef";  // variables of the formula shapes
+
+    // literals longer than the Calculator's input buffer, which are still valid
+    private static final String LONG_ZEROS = "0000000000000000000000000000000000000000000000000000000000000000000005";
+    private static final String LONG_PI = "3.14159265358979323846264338327950288419716939937510582097494459230781640";
+
+    private static final String[] TOKENS = {
+        "0", "1", "2", "3", "4", "5", "6", "7", "8", "9", ".", "+", "-", "*", "/", "=", "=",
+        Calculator.STR_CLEAR, Value.ERROR_MESSAGE, "12a", "7.0", "3.25", "0.1", "\u0663",
+        "9223372036854775807", "-9223372036854775808", "12345678901234567890", LONG_ZEROS, LONG_PI
+    };
+    private static final String[] OPERANDS = {
+        "0", "1", "7", "7.0", "49.7", "0.1", "0.2", "3.25", "-5", "2.0", "1.0E300", "-0.0",
+        "9223372036854775807", "-9223372036854775808", "3037000500", "4503599627370497", LONG_ZEROS, LONG_PI
+    };
+    private static final String[][] OPERATORS = {{"+", "-"}, {"*", "/"}};
+
+    private static final NumericMode[] MODES = {
+        NumericMode.legacy(), NumericMode.checked(), NumericMode.decimal(MathContext.DECIMAL64),
+        NumericMode.fixed(2, RoundingMode.HALF_UP)
+    };
+
+    private final Random random;
+    private final Streams streams;
+    private final Reference reference = new Reference();
+    private final List<Engine> engines = new ArrayList<Engine>();
+
+
+    // token streams with their text, one session each
+    private static final class Streams {
+        final String[][] tokens;
+        final String[] lines;
+        final Formula[] formulas;  // null where a stream is not a formula
+
+        // constructor
+        Streams(String[][] tokens) {
+            this.tokens = tokens;
+            this.lines = new String[tokens.length];
+            this.formulas = new Formula[tokens.length];
+            for (int i = 0; i < tokens.length; i++) {
+                this.lines[i] = String.join(" ", tokens[i]);
+                this.formulas[i] = Formula.parse(tokens[i]);
+            }
+        }
+
+        // number of tokens
+        long tokenCount() {
+            long count = 0;
+            for (int i = 0; i < this.tokens.length; i++) {
+                count += this.tokens[i].length;
+            }
+            return count;
+        }
+    }
+
+
+    // a stream of operands and operators of one precedence, ended by "="
+    private static final class Formula {
+        final Register[] operands;
+        final int[] operations;   // operations[i] joins operands i and i + 1
+        final String shape;       // the formula over variables, "a + b - c ="
+        final String types;       // L or D per operand
+
+        // constructor
+        private Formula(Register[] operands, int[] operations) {
+            this.operands = operands;
+            this.operations = operations;
+            StringBuilder shape = new StringBuilder();
+            StringBuilder types = new StringBuilder();
+            for (int i = 0; i < operands.length; i++) {
+                if (i > 0) {
+                    shape.append(' ').append(Calculator.operationToString(operations[i - 1])).append(' ');
+                }
+                shape.append(NAMES.charAt(i));
+                types.append(operands[i].isLong() ? 'L' : 'D');
+            }
+            this.shape = shape.append(' ').append(Calculator.STR_EQUALS).toString();
+            this.types = types.toString();
+        }
+
+        // the formula in tokens, null if they are not one
+        static Formula parse(String[] tokens) {
+            int count = tokens.length;
+            if (count < 2 || !tokens[count - 1].equals(Calculator.STR_EQUALS)) {
+                return null;
+            }
+            List<Register> operands = new ArrayList<Register>();
+            List<Integer> operations = new ArrayList<Integer>();
+            StringBuilder operand = new StringBuilder();
+            for (int i = 0; i < count; i++) {
+                String token = tokens[i];
+                boolean last = i == count - 1;
+                if (!last && !Calculator.isValidOp(token)) {
+                    if (token.equals(Calculator.STR_EQUALS) || token.equals(Calculator.STR_CLEAR)) {
+                        return null;
+                    }
+                    operand.append(token);
+                    continue;
+                }
+                Register value = new Register();
+                if (operand.length() == 0 || !NumberParser.parse(operand, value)) {
+                    return null;
+                }
+                operands.add(value);
+                operand.setLength(0);
+                if (!last) {
+                    operations.add(Integer.valueOf(Calculator.operationOf(token)));
+                }
+            }
+            if (operands.size() > MAX_OPERANDS) {
+                return null;
+            }
+            int[] ops = new int[operations.size()];
+            for (int i = 0; i < ops.length; i++) {
+                ops[i] = operations.get(i).intValue();
+                boolean multiplicative = ops[i] == Calculator.OP_MULTIPLY || ops[i] == Calculator.OP_DIVIDE;
+                boolean first = ops[0] == Calculator.OP_MULTIPLY || ops[0] == Calculator.OP_DIVIDE;
+                if (multiplicative != first) {
+                    return null;
+                }
+            }
+            return new Formula(operands.toArray(new Register[operands.size()]), ops);
+        }
+
+        // whether this is a single operation, as the array kernels compute
+        boolean isPair() {
+            return this.operands.length == 2;
+        }
+    }
+
+
+    // an engine under test
+    private abstract static class Engine {
+        final String name;
+        long streams = 0;
+        long tokens = 0;
+        long nanos = 0;
+        final String[][] displays = new String[MODES.length][];
+        final String[][] values = new String[MODES.length][];
+
+        // constructor
+        Engine(String name) {
+            this.name = name;
+        }
+
+        // whether the engine evaluates in a mode, only the legacy one unless overridden
+        boolean supports(NumericMode mode) {
+            return mode.getMode() == NumericMode.MODE_LEGACY;
+        }
+
+        // whether the engine evaluates a stream
+        boolean supports(Streams streams, int stream) {
+            return true;
+        }
+
+        // evaluate the supported streams, leaving null what the engine does not show
+        abstract void run(Streams streams, NumericMode mode, String[] displays, String[] values) throws Exception;
+    }
+
+
+    // an engine evaluating one stream at a time
+    private abstract static class StreamEngine extends Engine {
+
+        // constructor
+        StreamEngine(String name) {
+            super(name);
+        }
+
+        // evaluate each supported stream, an exception is reported as its result
+        void run(Streams streams, NumericMode mode, String[] displays, String[] values) {
+            for (int i = 0; i < streams.tokens.length; i++) {
+                if (supports(streams, i)) {
+                    try {
+                        evaluate(streams, i, mode, displays, values);
+                    }
+                    catch (RuntimeException e) {
+                        values[i] = e.toString();
+                    }
+                }
+            }
+        }
+
+        // evaluate one stream into displays[stream] and values[stream]
+        abstract void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values);
+    }
+
+
+    // Calculator.enter token by token, the semantics every engine must match
+    private static final class Reference extends StreamEngine {
+        private final Calculator calculator = new Calculator();
+
+        // constructor
+        Reference() {
+            super("calculator");
+        }
+
+        boolean supports(NumericMode mode) {
+            return true;
+        }
+
+        void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+            this.calculator.setNumericMode(mode);
+            this.calculator.clear();
+            String[] tokens = streams.tokens[stream];
+            for (int i = 0; i < tokens.length; i++) {
+                this.calculator.enter(tokens[i]);
+            }
+            displays[stream] = this.calculator.getCurrentValueAsString();
+            values[stream] = String.valueOf(this.calculator.getCurrentValue());
+        }
+    }
+
+
+    // the Calculator of the first release, its enter() and Value(String) kept as they were, so a
+    //     change in Calculator itself shows as a divergence; values are Longs, Doubles or ERROR
+    private static final class Baseline {
+        private static final Object ERROR = Value.ERROR_MESSAGE;
+
+        private String inputString = "";
+        private Object operand1 = null;
+        private Object operand2 = null;
+        private int operation = Calculator.OP_NONE;
+
+        // constructor
+        Baseline() {
+            clear();
+        }
+
+        // clear the calculator
+        void clear() {
+            this.operand1 = null;
+            this.operand2 = null;
+            this.operation = Calculator.OP_NONE;
+            setOperand("0");
+            this.inputString = "";
+        }
+
+        // enter op or value into the calculator
+        void enter(String token) {
+            if (token.equals(Calculator.STR_EQUALS)) {
+                applyInput();
+                calculate();
+            }
+            else if (token.equals(Calculator.STR_CLEAR)) {
+                clear();
+            }
+            else if (Calculator.isValidOp(token)) {
+                applyInput();
+                setOperation(Calculator.operationOf(token));
+            }
+            else {
+                this.inputString += token;
+            }
+        }
+
+        // apply the input string as operand
+        private void applyInput() {
+            if (this.inputString.length() > 0) {
+                setOperand(this.inputString);
+            }
+            this.inputString = "";
+        }
+
+        // set the operation, "*" or "/" after "+" or "-" with both operands is an error
+        private void setOperation(int op) {
+            if (this.operand1 != null && this.operand2 != null) {
+                boolean mul = op == Calculator.OP_MULTIPLY || op == Calculator.OP_DIVIDE;
+                boolean add = this.operation == Calculator.OP_PLUS || this.operation == Calculator.OP_MINUS;
+                if (!(mul && add)) {
+                    calculate();
+                    this.operation = op;
+                }
+                else {
+                    this.operand1 = ERROR;
+                }
+            }
+            else {
+                this.operation = op;
+            }
+        }
+
+        // set the 1st operand if not already set, 2nd operand otherwise
+        private void setOperand(String str) {
+            if (this.operand1 == null) {
+                this.operand1 = valueOf(str);
+            }
+            else {
+                this.operand2 = valueOf(str);
+            }
+        }
+
+        // calculate into operand1
+        private void calculate() {
+            this.operand1 = calculate(this.operand1, this.operation, this.operand2);
+            this.operation = Calculator.OP_NONE;
+            this.operand2 = null;
+        }
+
+        // val1 op val2
+        private static Object calculate(Object val1, int op, Object val2) {
+            if (val1 == null || val2 == null || val1 == ERROR || val2 == ERROR) {
+                return ERROR;
+            }
+            boolean longs = val1 instanceof Long && val2 instanceof Long;
+            long long1 = ((Number)val1).longValue();
+            long long2 = ((Number)val2).longValue();
+            double double1 = ((Number)val1).doubleValue();
+            double double2 = ((Number)val2).doubleValue();
+            switch(op) {
+                case Calculator.OP_NONE: return val2;
+                case Calculator.OP_PLUS: return longs ? Long.valueOf(long1 + long2) : valueOf(double1 + double2);
+                case Calculator.OP_MINUS: return longs ? Long.valueOf(long1 - long2) : valueOf(double1 - double2);
+                case Calculator.OP_MULTIPLY: return longs ? Long.valueOf(long1 * long2) : valueOf(double1 * double2);
+                case Calculator.OP_DIVIDE: return (double2 == 0.0) ? ERROR : valueOf(double1 / double2);
+                default: return ERROR;
+            }
+        }
+
+        // Value(String): "Error", a double if it has a ".", a long otherwise
+        private static Object valueOf(String str) {
+            if (str.equals(Value.ERROR_MESSAGE)) {
+                return ERROR;
+            }
+            try {
+                return (str.indexOf(".") >= 0) ? (Object)Double.valueOf(str) : (Object)Long.valueOf(str);
+            }
+            catch (NumberFormatException e) {
+                return ERROR;
+            }
+        }
+
+        // Value(double): a whole double becomes a long
+        private static Object valueOf(double value) {
+            long longValue = (long)value;
+            return ((double)longValue == value) ? (Object)Long.valueOf(longValue) : (Object)Double.valueOf(value);
+        }
+
+        // the display
+        String getCurrentValueAsString() {
+            if (this.inputString.length() > 0) {
+                return this.inputString;
+            }
+            return String.valueOf(getCurrentValue());
+        }
+
+        // the current value
+        Object getCurrentValue() {
+            return (this.operand2 != null) ? this.operand2 : this.operand1;
+        }
+    }
+
+
+    /**
+     *  constructor
+     */
+    public DifferentialTester(int streams, long seed) {
+        if (streams < 1) {
+            throw new IllegalArgumentException("streams must be positive: " + streams);
+        }
+        this.random = new Random(seed);
+        String[][] tokens = new String[streams][];
+        for (int i = 0; i < streams; i++) {
+            tokens[i] = generate();
+        }
+        this.streams = new Streams(tokens);
+        addEngines();
+    }
+
+
+    // a random stream, a mutated test case, free tokens or a formula in turn
+    private String[] generate() {
+        switch (this.random.nextInt(3)) {
+            case 0:  return mutate(split(CalculatorTester.TESTS[this.random.nextInt(CalculatorTester.TESTS.length)][0]));
+            case 1:  return free();
+            default: return formula();
+        }
+    }
+
+    // a test case with up to three tokens changed
+    private String[] mutate(String[] tokens) {
+        List<String> mutated = new ArrayList<String>();
+        for (int i = 0; i < tokens.length; i++) {
+            mutated.add(tokens[i]);
+        }
+        int mutations = this.random.nextInt(4);
+        for (int i = 0; i < mutations; i++) {
+            int index = this.random.nextInt(mutated.size());
+            switch (this.random.nextInt(4)) {
+                case 0:  mutated.set(index, randomToken());
+                         break;
+                case 1:  mutated.add(index, randomToken());
+                         break;
+                case 2:  if (mutated.size() > 1) {
+                             mutated.remove(index);
+                         }
+                         break;
+                default: String[] other = split(CalculatorTester.TESTS[this.random.nextInt(CalculatorTester.TESTS.length)][0]);
+                         for (int j = 0; j < other.length; j++) {
+                             mutated.add(other[j]);
+                         }
+                         break;
+            }
+        }
+        return mutated.toArray(new String[mutated.size()]);
+    }
+
+    // any tokens
+    private String[] free() {
+        String[] tokens = new String[1 + this.random.nextInt(MAX_FREE_TOKENS)];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = randomToken();
+        }
+        return tokens;
+    }
+
+    // operands and operators of one precedence, sometimes with operands entered digit by digit
+    private String[] formula() {
+        int operands = this.random.nextBoolean() ? 2 : 2 + this.random.nextInt(MAX_OPERANDS - 1);
+        String[] operators = OPERATORS[this.random.nextInt(OPERATORS.length)];
+        List<String> tokens = new ArrayList<String>();
+        for (int i = 0; i < operands; i++) {
+            if (i > 0) {
+                tokens.add(operators[this.random.nextInt(operators.length)]);
+            }
+            String operand = randomOperand();
+            if (this.random.nextInt(8) == 0 && operand.indexOf('-') < 0 && operand.indexOf('E') < 0) {
+                for (int j = 0; j < operand.length(); j++) {
+                    tokens.add(operand.substring(j, j + 1));
+                }
+            }
+            else {
+                tokens.add(operand);
+            }
+        }
+        tokens.add(Calculator.STR_EQUALS);
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    // a token from the alphabet
+    private String randomToken() {
+        return TOKENS[this.random.nextInt(TOKENS.length)];
+    }
+
+    // an edge case operand or a random long or double
+    private String randomOperand() {
+        switch (this.random.nextInt(4)) {
+            case 0:  return Long.toString(this.random.nextInt(1000));
+            case 1:  return Long.toString(this.random.nextLong());
+            case 2:  return Double.toString(this.random.nextInt(100000) / 100.0);
+            default: return OPERANDS[this.random.nextInt(OPERANDS.length)];
+        }
+    }
+
+    // space separated tokens
+    private static String[] split(String line) {
+        return line.split("[ ]");
+    }
+
+
+    // every engine under test, the reference first
+    private void addEngines() {
+        this.engines.add(this.reference);
+        this.engines.add(new StreamEngine("baseline") {
+            void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+                Baseline baseline = new Baseline();
+                String[] tokens = streams.tokens[stream];
+                for (int i = 0; i < tokens.length; i++) {
+                    baseline.enter(tokens[i]);
+                }
+                displays[stream] = baseline.getCurrentValueAsString();
+                values[stream] = String.valueOf(baseline.getCurrentValue());
+            }
+        });
+        this.engines.add(new StreamEngine("text") {
+            private final Calculator calculator = new Calculator();
+            boolean supports(NumericMode mode) {
+                return true;
+            }
+            void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+                this.calculator.setNumericMode(mode);
+                this.calculator.clear();
+                String line = streams.lines[stream];
+                ReplayEngine.enterTokens(this.calculator, line, 0, line.length());
+                displays[stream] = this.calculator.getCurrentValueAsString();
+                values[stream] = String.valueOf(this.calculator.getCurrentValue());
+            }
+        });
+        this.engines.add(new StreamEngine("memo") {
+            private final Calculator calculator = new Calculator();
+            boolean supports(NumericMode mode) {
+                return true;
+            }
+            void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+                if (this.calculator.getResultMemo() == null) {
+                    this.calculator.setResultMemo(new ResultMemo());
+                }
+                this.calculator.setNumericMode(mode);
+                this.calculator.clear();
+                String[] tokens = streams.tokens[stream];
+                for (int i = 0; i < tokens.length; i++) {
+                    this.calculator.enter(tokens[i]);
+                }
+                displays[stream] = this.calculator.getCurrentValueAsString();
+                values[stream] = String.valueOf(this.calculator.getCurrentValue());
+            }
+        });
+        this.engines.add(new StreamEngine("engine") {
+            void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+                CalculatorState state = CalculatorEngine.getDefault().next(CalculatorState.INITIAL, streams.tokens[stream]);
+                displays[stream] = state.getCurrentValueAsString();
+                values[stream] = String.valueOf(state.getCurrentValue());
+            }
+        });
+        this.engines.add(new StreamEngine("history") {
+            // enter, undo and redo everything, then export and parse the history
+            void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+                CalculatorHistory history = new CalculatorHistory(HISTORY_DEPTH);
+                String[] tokens = streams.tokens[stream];
+                for (int i = 0; i < tokens.length; i++) {
+                    history.enter(tokens[i]);
+                }
+                while (history.canUndo()) {
+                    history.undo();
+                }
+                while (history.canRedo()) {
+                    history.redo();
+                }
+                history = CalculatorHistory.parse(history.export(new StringBuilder()).toString(), HISTORY_DEPTH);
+                displays[stream] = history.getState().getCurrentValueAsString();
+                values[stream] = String.valueOf(history.getState().getCurrentValue());
+            }
+        });
+        this.engines.add(new Engine("wire") {
+            boolean supports(NumericMode mode) {
+                return true;
+            }
+            // one request frame for all streams, as a client pipelines them
+            void run(Streams streams, NumericMode mode, String[] displays, String[] values) {
+                int capacity = WireProtocol.HEADER_BYTES;
+                for (int i = 0; i < streams.lines.length; i++) {
+                    capacity += 4 * streams.lines[i].length() + 32;
+                }
+                ByteBuffer request = ByteBuffer.allocate(capacity);
+                WireEncoder encoder = new WireEncoder(request).beginFrame();
+                for (int i = 0; i < streams.lines.length; i++) {
+                    String line = streams.lines[i];
+                    encoder.putTokens(line, 0, line.length(), mode.isExact()).endExpression();
+                }
+                encoder.endFrame();
+                request.flip();
+                ByteBuffer response = ByteBuffer.allocate(capacity);
+                Calculator calculator = new Calculator();
+                calculator.setNumericMode(mode);
+                new WireDecoder().evaluate(request, calculator, new WireEncoder(response));
+                response.flip();
+                WireDecoder decoder = new WireDecoder();
+                decoder.beginFrame(response);
+                for (int i = 0; i < streams.lines.length; i++) {
+                    values[i] = String.valueOf(decoder.getValue(response));
+                }
+            }
+        });
+        this.engines.add(new Engine("replay") {
+            void run(Streams streams, NumericMode mode, String[] displays, String[] values) throws IOException {
+                StringBuilder input = new StringBuilder();
+                for (int i = 0; i < streams.lines.length; i++) {
+                    input.append(streams.lines[i]).append('\n');
+                }
+                StringWriter output = new StringWriter();
+                new ReplayEngine().replay(new BufferedReader(new StringReader(input.toString())), output);
+                readLines(output.toString(), streams, this, displays);
+            }
+        });
+        this.engines.add(new Engine("mapped") {
+            void run(Streams streams, NumericMode mode, String[] displays, String[] values) throws IOException {
+                StringBuilder input = new StringBuilder();
+                for (int i = 0; i < streams.lines.length; i++) {
+                    input.append(streams.lines[i]).append('\n');
+                }
+                Path in = Files.createTempFile("differential", ".in");
+                Path out = Files.createTempFile("differential", ".out");
+                try {
+                    Files.write(in, input.toString().getBytes(StandardCharsets.UTF_8));
+                    new ReplayEngine().replayMapped(in, out);
+                    readLines(new String(Files.readAllBytes(out), StandardCharsets.UTF_8), streams, this, displays);
+                }
+                finally {
+                    Files.deleteIfExists(in);
+                    Files.deleteIfExists(out);
+                }
+            }
+        });
+        this.engines.add(new StreamEngine("interpreter") {
+            boolean supports(Streams streams, int stream) {
+                return streams.formulas[stream] != null;
+            }
+            void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+                values[stream] = String.valueOf(Expression.compile(streams.lines[stream]).evaluate());
+            }
+        });
+        this.engines.add(new StreamEngine("expression memo") {
+            private final ResultMemo memo = new ResultMemo();
+            boolean supports(Streams streams, int stream) {
+                return streams.formulas[stream] != null;
+            }
+            void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+                values[stream] = String.valueOf(Expression.compile(streams.lines[stream]).withMemo(this.memo).evaluate());
+            }
+        });
+        this.engines.add(new FrameEngine("generated", Expression.BACKEND_GENERATED));
+        this.engines.add(new FrameEngine("adaptive", Expression.BACKEND_ADAPTIVE));
+        this.engines.add(new Engine("batch") {
+            boolean supports(Streams streams, int stream) {
+                return streams.formulas[stream] != null;
+            }
+            // one BatchEvaluator per shape and operand types, one row per stream
+            void run(Streams streams, NumericMode mode, String[] displays, String[] values) {
+                Map<String, List<Integer>> groups = group(streams, false);
+                for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+                    List<Integer> rows = group.getValue();
+                    Formula first = streams.formulas[rows.get(0).intValue()];
+                    BatchEvaluator evaluator = Expression.compile(first.shape).newBatchEvaluator();
+                    for (int variable = 0; variable < first.operands.length; variable++) {
+                        String name = NAMES.substring(variable, variable + 1);
+                        if (first.operands[variable].isLong()) {
+                            long[] column = new long[rows.size()];
+                            for (int row = 0; row < column.length; row++) {
+                                column[row] = streams.formulas[rows.get(row).intValue()].operands[variable].longValue();
+                            }
+                            evaluator.bind(name, column);
+                        }
+                        else {
+                            double[] column = new double[rows.size()];
+                            for (int row = 0; row < column.length; row++) {
+                                column[row] = streams.formulas[rows.get(row).intValue()].operands[variable].doubleValue();
+                            }
+                            evaluator.bind(name, column);
+                        }
+                    }
+                    ValueColumn out = new ValueColumn(rows.size());
+                    evaluator.evaluate(0, rows.size(), out);
+                    for (int row = 0; row < rows.size(); row++) {
+                        values[rows.get(row).intValue()] = String.valueOf(out.getValue(row));
+                    }
+                }
+            }
+        });
+        this.engines.add(new StreamEngine("parallel") {
+            boolean supports(Streams streams, int stream) {
+                return streams.formulas[stream] != null;
+            }
+            void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+                values[stream] = String.valueOf(new ParallelEvaluator(Expression.compile(streams.lines[stream]),
+                    ParallelEvaluator.ORDER_STRICT, ForkJoinPool.commonPool(), 1).evaluate());
+            }
+        });
+        this.engines.add(new StreamEngine("reassociated") {
+            // regrouping is only exact for longs without division
+            boolean supports(Streams streams, int stream) {
+                Formula formula = streams.formulas[stream];
+                if (formula == null || formula.types.indexOf('D') >= 0) {
+                    return false;
+                }
+                for (int i = 0; i < formula.operations.length; i++) {
+                    if (formula.operations[i] == Calculator.OP_DIVIDE) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+                values[stream] = String.valueOf(new ParallelEvaluator(Expression.compile(streams.lines[stream]),
+                    ParallelEvaluator.ORDER_REASSOCIATED, ForkJoinPool.commonPool(), 1).evaluate());
+            }
+        });
+        ArrayArithmetic kernels = ArrayArithmetic.getDefault();
+        this.engines.add(new KernelEngine(kernels.isVectorized() ? kernels.toString() : "default scalar", kernels));
+        this.engines.add(new KernelEngine("scalar", ArrayArithmetic.scalar()));
+        this.engines.add(new Engine("columns") {
+            boolean supports(Streams streams, int stream) {
+                return streams.formulas[stream] != null && streams.formulas[stream].isPair();
+            }
+            // one ColumnArithmetic call per operation
+            void run(Streams streams, NumericMode mode, String[] displays, String[] values) {
+                Map<String, List<Integer>> groups = group(streams, true);
+                for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+                    List<Integer> rows = group.getValue();
+                    int count = rows.size();
+                    ValueColumn val1 = new ValueColumn(count);
+                    ValueColumn val2 = new ValueColumn(count);
+                    ValueColumn result = new ValueColumn(count);
+                    for (int row = 0; row < count; row++) {
+                        Formula formula = streams.formulas[rows.get(row).intValue()];
+                        setColumn(val1, row, formula.operands[0]);
+                        setColumn(val2, row, formula.operands[1]);
+                    }
+                    int op = streams.formulas[rows.get(0).intValue()].operations[0];
+                    ColumnArithmetic.calculate(val1, op, val2, result, count);
+                    for (int row = 0; row < count; row++) {
+                        values[rows.get(row).intValue()] = String.valueOf(result.getValue(row));
+                    }
+                }
+            }
+        });
+    }
+
+
+    // an Expression backend evaluating formula shapes with the operands bound as variables
+    private static final class FrameEngine extends StreamEngine {
+        private final ExpressionCache cache;
+        private final Map<String, ExpressionFrame> frames = new HashMap<String, ExpressionFrame>();
+
+        // constructor
+        FrameEngine(String name, int backend) {
+            super(name);
+            this.cache = new ExpressionCache(ExpressionCache.DEFAULT_CAPACITY, backend);
+        }
+
+        boolean supports(Streams streams, int stream) {
+            return streams.formulas[stream] != null;
+        }
+
+        void evaluate(Streams streams, int stream, NumericMode mode, String[] displays, String[] values) {
+            Formula formula = streams.formulas[stream];
+            ExpressionFrame frame = this.frames.get(formula.shape);
+            if (frame == null) {
+                frame = this.cache.get(formula.shape).newFrame();
+                this.frames.put(formula.shape, frame);
+            }
+            Expression expression = frame.getExpression();
+            for (int i = 0; i < formula.operands.length; i++) {
+                int variable = expression.getVariableIndex(NAMES.substring(i, i + 1));
+                if (formula.operands[i].isLong()) {
+                    frame.set(variable, formula.operands[i].longValue());
+                }
+                else {
+                    frame.set(variable, formula.operands[i].doubleValue());
+                }
+            }
+            values[stream] = frame.evaluate().toString();
+        }
+    }
+
+
+    // ArrayArithmetic kernels over the two operand formulas, long kernels where both are longs
+    private static final class KernelEngine extends Engine {
+        private final ArrayArithmetic arithmetic;
+
+        // constructor
+        KernelEngine(String name, ArrayArithmetic arithmetic) {
+            super(name);
+            this.arithmetic = arithmetic;
+        }
+
+        boolean supports(Streams streams, int stream) {
+            return streams.formulas[stream] != null && streams.formulas[stream].isPair();
+        }
+
+        void run(Streams streams, NumericMode mode, String[] displays, String[] values) {
+            Map<String, List<Integer>> groups = group(streams, true);
+            Register value = new Register();
+            for (Map.Entry<String, List<Integer>> group : groups.entrySet()) {
+                List<Integer> rows = group.getValue();
+                int count = rows.size();
+                Formula first = streams.formulas[rows.get(0).intValue()];
+                int op = first.operations[0];
+                if (first.types.equals("LL")) {
+                    long[] val1 = new long[count];
+                    long[] val2 = new long[count];
+                    for (int row = 0; row < count; row++) {
+                        Formula formula = streams.formulas[rows.get(row).intValue()];
+                        val1[row] = formula.operands[0].longValue();
+                        val2[row] = formula.operands[1].longValue();
+                    }
+                    if (op == Calculator.OP_DIVIDE) {
+                        double[] result = new double[count];
+                        this.arithmetic.divide(val1, val2, result, count);
+                        setValues(result, rows, values, value);
+                    }
+                    else {
+                        long[] result = new long[count];
+                        if (op == Calculator.OP_PLUS) {
+                            this.arithmetic.add(val1, val2, result, count);
+                        }
+                        else if (op == Calculator.OP_MINUS) {
+                            this.arithmetic.subtract(val1, val2, result, count);
+                        }
+                        else {
+                            this.arithmetic.multiply(val1, val2, result, count);
+                        }
+                        for (int row = 0; row < count; row++) {
+                            values[rows.get(row).intValue()] = Long.toString(result[row]);
+                        }
+                    }
+                }
+                else {
+                    double[] val1 = new double[count];
+                    double[] val2 = new double[count];
+                    for (int row = 0; row < count; row++) {
+                        Formula formula = streams.formulas[rows.get(row).intValue()];
+                        val1[row] = formula.operands[0].doubleValue();
+                        val2[row] = formula.operands[1].doubleValue();
+                    }
+                    double[] result = new double[count];
+                    this.arithmetic.calculate(val1, op, val2, result, count);
+                    setValues(result, rows, values, value);
+                }
+            }
+        }
+
+        // doubles as the calculator shows them, NaN is an error
+        private static void setValues(double[] result, List<Integer> rows, String[] values, Register value) {
+            for (int row = 0; row < result.length; row++) {
+                if (Double.isNaN(result[row])) {
+                    value.setError();
+                }
+                else {
+                    value.set(result[row]);
+                }
+                values[rows.get(row).intValue()] = value.toString();
+            }
+        }
+    }
+
+
+    // formula streams by shape and operand types, only two operand ones if pairs
+    private static Map<String, List<Integer>> group(Streams streams, boolean pairs) {
+        Map<String, List<Integer>> groups = new HashMap<String, List<Integer>>();
+        for (int i = 0; i < streams.formulas.length; i++) {
+            Formula formula = streams.formulas[i];
+            if (formula == null || (pairs && !formula.isPair())) {
+                continue;
+            }
+            String key = formula.shape + ' ' + formula.types;
+            List<Integer> rows = groups.get(key);
+            if (rows == null) {
+                rows = new ArrayList<Integer>();
+                groups.put(key, rows);
+            }
+            rows.add(Integer.valueOf(i));
+        }
+        return groups;
+    }
+
+    // set a row of a column to an operand, typed as it was entered
+    private static void setColumn(ValueColumn column, int row, Register operand) {
+        if (operand.isLong()) {
+            column.set(row, operand.longValue());
+        }
+        else {
+            column.setDouble(row, operand.doubleValue());
+        }
+    }
+
+    // the output lines of a replay, one per supported stream
+    private static void readLines(String output, Streams streams, Engine engine, String[] displays) {
+        int start = 0;
+        for (int i = 0; i < streams.lines.length; i++) {
+            if (engine.supports(streams, i)) {
+                int end = output.indexOf('\n', start);
+                displays[i] = output.substring(start, end);
+                start = end + 1;
+            }
+        }
+    }
+
+
+    /**
+     * run every engine in every mode it supports, in parallel, and compare them with the Calculator
+     * @return the report: divergences with minimized reproducers, then throughput per engine
+     */
+    public String run() throws InterruptedException, ExecutionException {
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(this.engines.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < this.engines.size(); i++) {
+                final Engine engine = this.engines.get(i);
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        runEngine(engine);
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                futures.get(i).get();
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        StringBuilder report = new StringBuilder();
+        long divergences = 0;
+        for (int i = 1; i < this.engines.size(); i++) {
+            divergences += compare(this.engines.get(i), report);
+        }
+        report.append(this.streams.tokens.length).append(" streams, ").append(this.streams.tokenCount())
+              .append(" tokens, divergences=").append(divergences);
+        if (!ArrayArithmetic.getDefault().isVectorized()) {
+            report.append("\nwarning: the vector kernels were not checked, run java with"
+                          + " --add-modules jdk.incubator.vector");
+        }
+        for (int i = 0; i < this.engines.size(); i++) {
+            Engine engine = this.engines.get(i);
+            double seconds = engine.nanos / 1e9;
+            report.append(String.format("%n%-16s %8d streams %9d tokens %8.1f ms %8.2f Mtokens/s",
+                                        engine.name, engine.streams, engine.tokens, seconds * 1e3,
+                                        (seconds > 0) ? engine.tokens / seconds / 1e6 : 0.0));
+        }
+        return report.toString();
+    }
+
+    // run an engine in every mode it supports, timing it
+    private void runEngine(Engine engine) throws Exception {
+        int count = this.streams.tokens.length;
+        for (int mode = 0; mode < MODES.length; mode++) {
+            if (!engine.supports(MODES[mode])) {
+                continue;
+            }
+            String[] displays = new String[count];
+            String[] values = new String[count];
+            long start = System.nanoTime();
+            engine.run(this.streams, MODES[mode], displays, values);
+            engine.nanos += System.nanoTime() - start;
+            for (int i = 0; i < count; i++) {
+                if (engine.supports(this.streams, i)) {
+                    engine.streams++;
+                    engine.tokens += this.streams.tokens[i].length;
+                }
+            }
+            engine.displays[mode] = displays;
+            engine.values[mode] = values;
+        }
+    }
+
+    // report the streams on which an engine disagrees with the reference
+    // @return number of divergences
+    private long compare(Engine engine, StringBuilder report) {
+        long divergences = 0;
+        for (int mode = 0; mode < MODES.length; mode++) {
+            if (engine.displays[mode] == null) {
+                continue;
+            }
+            int reported = 0;
+            for (int i = 0; i < this.streams.tokens.length; i++) {
+                if (diverges(engine.displays[mode][i], engine.values[mode][i],
+                             this.reference.displays[mode][i], this.reference.values[mode][i])) {
+                    divergences++;
+                    if (reported++ < MAX_REPORTED) {
+                        report.append(reproducer(engine, MODES[mode], minimize(engine, MODES[mode], this.streams.tokens[i])))
+                              .append('\n');
+                    }
+                }
+            }
+        }
+        return divergences;
+    }
+
+    // whether an engine's results differ from the reference where it shows them
+    private static boolean diverges(String display, String value, String expectedDisplay, String expectedValue) {
+        return (display != null && !display.equals(expectedDisplay)) || (value != null && !value.equals(expectedValue));
+    }
+
+    // evaluate one stream with an engine into display and value
+    private static void evaluate(Engine engine, NumericMode mode, String[] tokens, String[] display, String[] value) {
+        try {
+            engine.run(new Streams(new String[][] {tokens}), mode, display, value);
+        }
+        catch (Exception e) {
+            value[0] = e.toString();
+        }
+    }
+
+    // whether an engine disagrees with the reference on one stream it supports
+    private boolean diverges(Engine engine, NumericMode mode, String[] tokens) {
+        if (tokens.length == 0 || !engine.supports(new Streams(new String[][] {tokens}), 0)) {
+            return false;
+        }
+        String[] display = new String[1];
+        String[] value = new String[1];
+        String[] expectedDisplay = new String[1];
+        String[] expectedValue = new String[1];
+        evaluate(engine, mode, tokens, display, value);
+        evaluate(this.reference, mode, tokens, expectedDisplay, expectedValue);
+        return diverges(display[0], value[0], expectedDisplay[0], expectedValue[0]);
+    }
+
+    // drop runs of tokens, halving the run length, while the engine still disagrees
+    private String[] minimize(Engine engine, NumericMode mode, String[] tokens) {
+        for (int run = Math.max(1, tokens.length / 2); run > 0; run /= 2) {
+            int start = 0;
+            while (start < tokens.length) {
+                int end = Math.min(tokens.length, start + run);
+                String[] shorter = new String[tokens.length - (end - start)];
+                System.arraycopy(tokens, 0, shorter, 0, start);
+                System.arraycopy(tokens, end, shorter, start, tokens.length - end);
+                if (diverges(engine, mode, shorter)) {
+                    tokens = shorter;
+                }
+                else {
+                    start = end;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    // one divergence as a line that reproduces it
+    private String reproducer(Engine engine, NumericMode mode, String[] tokens) {
+        String[] display = new String[1];
+        String[] value = new String[1];
+        String[] expectedDisplay = new String[1];
+        String[] expectedValue = new String[1];
+        evaluate(engine, mode, tokens, display, value);
+        evaluate(this.reference, mode, tokens, expectedDisplay, expectedValue);
+        boolean shown = display[0] != null && !display[0].equals(expectedDisplay[0]);
+        return "diverges: " + engine.name + " " + mode + " [" + String.join(" ", tokens) + "] ["
+               + (shown ? display[0] : value[0]) + "]  calculator: ["
+               + (shown ? expectedDisplay[0] : expectedValue[0]) + "]";
+    }
+
+
+    // main
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        int streams = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_STREAMS;
+        long seed = (args.length > 1) ? Long.parseLong(args[1]) : System.nanoTime();
+        System.out.println("seed " + seed);
+        System.out.println(new DifferentialTester(streams, seed).run());
+    }
+}
@@ -0,0 +1,358 @@
+package calculator;
+
+
+import java.util.concurrent.ForkJoinPool;
+
+
+
+/************************************************************
+ *  Expression
+ *
+ *  Immutable, compiled form of a calculator token sequence
+ *  such as "3 + 2 * 6 =", evaluated with operator precedence.
+ *
+ *  Compiling turns the tokens into a short program of three
+ *  address instructions (result = left op right) over a frame
+ *  laid out as [constants][variables][temporaries].  The
+ *  program is never modified after compiling, so one Expression
+ *  can be cached and evaluated by any number of threads, each
+ *  with its own ExpressionFrame.
+ *
+ *  The program runs in the interpreter by default.  For hot
+ *  formulas an Expression can instead be compiled for the
+ *  generated backend, which turns the program into a JVM class
+ *  (see ExpressionGenerator), or the adaptive backend, which
+ *  interprets until the expression has been evaluated
+ *  HOT_THRESHOLD times and then switches to a generated class.
+ *  All backends give identical results.  The generated class is
+ *  created lazily, it is the only state that changes after
+ *  compiling.
+ *
+ *  withMemo() gives an Expression that looks each instruction's
+ *  result up in a shared ResultMemo first; it always runs in the
+ *  interpreter.  newParallelEvaluator() evaluates a large
+ *  expression on a ForkJoinPool, see ParallelEvaluator.
+ *
+ *  The tokens follow the Calculator rules: adjacent operand
+ *  tokens are joined ("7 . 1" is 7.1), a leading operator works
+ *  on an implicit 0, a second operator replaces the first, a
+ *  missing operand gives an error, "=" completes everything
+ *  entered so far and "Clear" starts over.  An operand that is
+ *  a name, such as "rate", is a variable set before evaluating.
+ *  Unlike Calculator, "*" and "/" bind tighter than "+" and "-",
+ *  and "=" with no pending operator keeps the current value.
+ *
+ ************************************************************/
+public final class Expression {
+
+    public static final int BACKEND_INTERPRETER = 0;
+    public static final int BACKEND_GENERATED = 1;
+    public static final int BACKEND_ADAPTIVE = 2;
+
+    public static final int HOT_THRESHOLD = 10000;  // evaluations before the adaptive backend generates
+
+    private final String source;
+    private final Value[] constants;
+    private final String[] variables;
+    private final int temporaryCount;
+    private final int[] operations;  // Calculator.OP_* per instruction
+    private final int[] lefts;       // frame index of the left operand
+    private final int[] rights;      // frame index of the right operand
+    private final int[] results;     // frame index the result is written to
+    private final int result;        // frame index of the final result
+    private final int backend;
+    private final ResultMemo memo;   // null unless memoizing
+
+    private volatile Program program = null;      // generated program, once created
+    private volatile boolean generated = false;   // generation was attempted
+    private int evaluations = 0;  // approximate, only used to detect hot expressions
+
+
+    // constructor, used by ExpressionCompiler
+    Expression(String source, Value[] constants, String[] variables, int temporaryCount,
+               int[] operations, int[] lefts, int[] rights, int[] results, int result, int backend,
+               ResultMemo memo) {
+        this.source = source;
+        this.constants = constants;
+        this.variables = variables;
+        this.temporaryCount = temporaryCount;
+        this.operations = operations;
+        this.lefts = lefts;
+        this.rights = rights;
+        this.results = results;
+        this.result = result;
+        this.backend = backend;
+        this.memo = memo;
+    }
+
+
+    /**
+     * compile space separated tokens, as accepted by CalculatorTester
+     */
+    public static Expression compile(String source) {
+        return new ExpressionCompiler().compile(source);
+    }
+
+    /**
+     * compile tokens as they would be entered into a Calculator
+     */
+    public static Expression compile(String[] tokens) {
+        return new ExpressionCompiler().compile(tokens);
+    }
+
+    /**
+     * compile space separated tokens for one of the BACKEND_ options
+     */
+    public static Expression compile(String source, int backend) {
+        return compile(source).withBackend(backend);
+    }
+
+    /**
+     * @return this expression running on another backend, sharing the compiled program
+     */
+    public Expression withBackend(int backend) {
+        if (backend < BACKEND_INTERPRETER || backend > BACKEND_ADAPTIVE) {
+            throw new IllegalArgumentException("unknown backend " + backend);
+        }
+        if (backend == this.backend) {
+            return this;
+        }
+        return new Expression(this.source, this.constants, this.variables, this.temporaryCount,
+                              this.operations, this.lefts, this.rights, this.results, this.result, backend,
+                              this.memo);
+    }
+
+    /**
+     * @return this expression memoizing results in memo, null for none, sharing the compiled program
+     */
+    public Expression withMemo(ResultMemo memo) {
+        if (memo == this.memo) {
+            return this;
+        }
+        return new Expression(this.source, this.constants, this.variables, this.temporaryCount,
+                              this.operations, this.lefts, this.rights, this.results, this.result, this.backend,
+                              memo);
+    }
+
+    /**
+     * @return the memo results are looked up in, null if none
+     */
+    public ResultMemo getMemo() {
+        return this.memo;
+    }
+
+    /**
+     * @return the backend, one of the BACKEND_ options
+     */
+    public int getBackend() {
+        return this.backend;
+    }
+
+    /**
+     * @return whether evaluation currently runs through a generated class
+     */
+    public boolean isGenerated() {
+        return this.program != null;
+    }
+
+
+    /**
+     * @return a new frame for evaluating this expression, for use by one thread at a time
+     */
+    public ExpressionFrame newFrame() {
+        return new ExpressionFrame(this);
+    }
+
+    /**
+     * @return a new evaluator for columns of variable values, for use by one thread at a time
+     */
+    public BatchEvaluator newBatchEvaluator() {
+        return new BatchEvaluator(this);
+    }
+
+    /**
+     * @return a new evaluator for large expressions on the common ForkJoinPool, for use by one thread at a time
+     *     order is one of ParallelEvaluator's ORDER_ options
+     */
+    public ParallelEvaluator newParallelEvaluator(int order) {
+        return newParallelEvaluator(order, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return a new evaluator for large expressions on a pool, for use by one thread at a time
+     */
+    public ParallelEvaluator newParallelEvaluator(int order, ForkJoinPool pool) {
+        return new ParallelEvaluator(this, order, pool, ParallelEvaluator.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * evaluate with a temporary frame, variables are 0
+     * @return the resulting value
+     */
+    public Value evaluate() {
+        return newFrame().evaluate().toValue();
+    }
+
+    // load the constants into a new frame's registers
+    void initialize(Register[] frame) {
+        for (int i = 0; i < this.constants.length; i++) {
+            frame[i].set(this.constants[i]);
+        }
+    }
+
+    // load the constants into a new frame's columns
+    void initialize(ValueColumn[] frame) {
+        for (int i = 0; i < this.constants.length; i++) {
+            frame[i].fill(this.constants[i]);
+        }
+    }
+
+    // run the program over a frame, constants and variables already loaded
+    void execute(Register[] frame) {
+        if (this.memo != null) {
+            interpret(frame);
+            return;
+        }
+        Program program = this.program;
+        if (program == null && this.backend != BACKEND_INTERPRETER && !this.generated) {
+            if (this.backend == BACKEND_GENERATED || ++this.evaluations >= HOT_THRESHOLD) {
+                program = generate();
+            }
+        }
+        if (program != null) {
+            program.execute(frame);
+        }
+        else {
+            interpret(frame);
+        }
+    }
+
+    // create the generated program once, null if the expression is too large
+    private synchronized Program generate() {
+        if (!this.generated) {
+            this.program = ExpressionGenerator.generate(this);
+            this.generated = true;
+        }
+        return this.program;
+    }
+
+    // run the program in the interpreter
+    void interpret(Register[] frame) {
+        if (this.memo != null) {
+            for (int i = 0; i < this.operations.length; i++) {
+                this.memo.calculate(frame[this.lefts[i]], this.operations[i], frame[this.rights[i]],
+                                    frame[this.results[i]]);
+            }
+            return;
+        }
+        for (int i = 0; i < this.operations.length; i++) {
+            Arithmetic.calculate(frame[this.lefts[i]], this.operations[i], frame[this.rights[i]],
+                                 frame[this.results[i]]);
+        }
+    }
+
+    // run the program over the first count rows of a frame of columns
+    void execute(ValueColumn[] frame, int count) {
+        for (int i = 0; i < this.operations.length; i++) {
+            ColumnArithmetic.calculate(frame[this.lefts[i]], this.operations[i], frame[this.rights[i]],
+                                       frame[this.results[i]], count);
+        }
+    }
+
+
+    /**
+     * @return number of registers in a frame
+     */
+    int getFrameSize() {
+        return this.constants.length + this.variables.length + this.temporaryCount;
+    }
+
+    /**
+     * @return frame index of a variable
+     */
+    int getVariableFrameIndex(int variable) {
+        return this.constants.length + variable;
+    }
+
+    /**
+     * @return number of variables
+     */
+    public int getVariableCount() {
+        return this.variables.length;
+    }
+
+    /**
+     * @return name of a variable
+     */
+    public String getVariableName(int variable) {
+        return this.variables[variable];
+    }
+
+    /**
+     * @return index of the named variable, -1 if the expression does not use it
+     */
+    public int getVariableIndex(String name) {
+        for (int i = 0; i < this.variables.length; i++) {
+            if (this.variables[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return frame index of the final result
+     */
+    int getResultIndex() {
+        return this.result;
+    }
+
+    /**
+     * @return operation of an instruction
+     */
+    int getOperation(int instruction) {
+        return this.operations[instruction];
+    }
+
+    /**
+     * @return frame index of an instruction's left operand
+     */
+    int getLeft(int instruction) {
+        return this.lefts[instruction];
+    }
+
+    /**
+     * @return frame index of an instruction's right operand
+     */
+    int getRight(int instruction) {
+        return this.rights[instruction];
+    }
+
+    /**
+     * @return frame index an instruction writes its result to
+     */
+    int getResult(int instruction) {
+        return this.results[instruction];
+    }
+
+    /**
+     * @return number of instructions in the program
+     */
+    public int getInstructionCount() {
+        return this.operations.length;
+    }
+
+    /**
+     * @return the source this expression was compiled from
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+    /**
+     *  @return this object as a String
+     */
+    public String toString() {
+        return this.source;
+    }
+}
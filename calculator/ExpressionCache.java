@@ -0,0 +1,216 @@
+package calculator;
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/************************************************************
+ *  ExpressionCache
+ *
+ *  Bounded cache of compiled Expressions, keyed by normalized
+ *  source text so "7 . 0 * 7 =" and "7.0 * 7" share one entry.
+ *
+ *  The cache is a sharded LRU: keys are spread by hash over up
+ *  to 16 shards, each an independent LRU map with its own lock,
+ *  so threads looking up different formulas rarely wait for
+ *  each other.  Eviction is least recently used within a shard,
+ *  not across the cache, and each shard holds at most
+ *  ceil(capacity / shards) expressions, so the cache may hold up
+ *  to shards - 1 more than its capacity.  Compiling happens
+ *  outside the lock; two threads missing on the same formula may
+ *  both compile it, and the first one stored wins.
+ *
+ ************************************************************/
+public final class ExpressionCache {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int MAX_SHARDS = 16;
+    private static final ExpressionCache DEFAULT = new ExpressionCache(DEFAULT_CAPACITY);
+
+    private final Shard[] shards;
+    private final int backend;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+
+    // one shard of the cache, an LRU map of its own
+    private final class Shard extends LinkedHashMap<String, Expression> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        // constructor
+        Shard(int capacity) {
+            super(16, 0.75f, true);  // access order
+            this.capacity = capacity;
+        }
+
+        // drop the least recently used entry when full
+        protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+            if (size() > this.capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+
+    /**
+     *  constructors
+     */
+    public ExpressionCache(int capacity) {
+        this(capacity, Expression.BACKEND_INTERPRETER);
+    }
+    public ExpressionCache(int capacity, int backend) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int count = 1;
+        while (count < MAX_SHARDS && count * 2 <= capacity / 16) {
+            count *= 2;
+        }
+        this.shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            this.shards[i] = new Shard((capacity + count - 1) / count);
+        }
+        this.backend = backend;
+    }
+
+    /**
+     * @return the shared cache used by Calculator.evaluate()
+     */
+    public static ExpressionCache getDefault() {
+        return DEFAULT;
+    }
+
+
+    /**
+     * @return the compiled expression for space separated tokens, compiling on a miss
+     */
+    public Expression get(String source) {
+        String key = normalize(source);
+        Shard shard = shardFor(key);
+        Expression expression;
+        synchronized (shard) {
+            expression = shard.get(key);
+        }
+        if (expression != null) {
+            this.hits.increment();
+            return expression;
+        }
+        this.misses.increment();
+        expression = Expression.compile(key, this.backend);
+        synchronized (shard) {
+            Expression existing = shard.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            shard.put(key, expression);
+        }
+        return expression;
+    }
+
+    // the shard holding a key
+    private Shard shardFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return this.shards[hash & (this.shards.length - 1)];
+    }
+
+    /**
+     * remove every entry, the counters are kept
+     */
+    public void clear() {
+        for (int i = 0; i < this.shards.length; i++) {
+            synchronized (this.shards[i]) {
+                this.shards[i].clear();
+            }
+        }
+    }
+
+    /**
+     * @return number of cached expressions
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < this.shards.length; i++) {
+            synchronized (this.shards[i]) {
+                size += this.shards[i].size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return number of lookups that found a compiled expression
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return number of lookups that had to compile
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return number of expressions dropped to stay within capacity
+     */
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+
+    /**
+     *  normalize space separated tokens: adjacent operand tokens are joined,
+     *  extra spaces and trailing "=" are dropped
+     *  @return the normalized source
+     */
+    public static String normalize(String source) {
+        StringBuilder normalized = new StringBuilder(source.length());
+        boolean inOperand = false;  // the last token written was part of an operand
+        int pendingEquals = 0;      // "=" seen but not written yet, dropped at the end
+        int start = 0;
+        while (start < source.length()) {
+            int end = source.indexOf(' ', start);
+            if (end < 0) {
+                end = source.length();
+            }
+            if (end > start) {
+                String token = source.substring(start, end);
+                if (token.equals(Calculator.STR_EQUALS)) {
+                    pendingEquals++;
+                    inOperand = false;
+                }
+                else {
+                    for (; pendingEquals > 0; pendingEquals--) {
+                        separate(normalized).append(Calculator.STR_EQUALS);
+                    }
+                    boolean operand = !token.equals(Calculator.STR_CLEAR) && !Calculator.isValidOp(token);
+                    if (!(operand && inOperand)) {
+                        separate(normalized);
+                    }
+                    normalized.append(token);
+                    inOperand = operand;
+                }
+            }
+            start = end + 1;
+        }
+        return normalized.toString();
+    }
+
+    // add a space unless at the start
+    private static StringBuilder separate(StringBuilder builder) {
+        if (builder.length() > 0) {
+            builder.append(' ');
+        }
+        return builder;
+    }
+}
@@ -0,0 +1,284 @@
+package calculator;
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+
+/************************************************************
+ *  ExpressionCompiler
+ *
+ *  Compiles calculator tokens into an Expression using the
+ *  shunting yard algorithm.
+ *
+ *  Operands on the stack are references, an index tagged with
+ *  the kind of operand: constant, variable or temporary.  They
+ *  are turned into frame indexes once the number of constants
+ *  and variables is known.  A temporary is released as soon as
+ *  an instruction consumes it, so the frame stays as small as
+ *  the deepest point of the evaluation.
+ *
+ *  Not thread safe, use a new compiler per compilation.
+ *
+ ************************************************************/
+class ExpressionCompiler {
+
+    private static final String TOKEN_DELIMITER = " ";
+
+    // reference kinds, kept in the low bits of a reference
+    private static final int CONSTANT = 0;
+    private static final int VARIABLE = 1;
+    private static final int TEMPORARY = 2;
+    private static final int KIND_BITS = 2;
+    private static final int KIND_MASK = 3;
+
+    private final List<Value> constants = new ArrayList<Value>();
+    private final Map<String, Integer> constantIndex = new HashMap<String, Integer>();
+    private final List<String> variables = new ArrayList<String>();
+    private final List<Integer> operands = new ArrayList<Integer>();
+    private final List<Integer> operators = new ArrayList<Integer>();
+    private final List<Boolean> temporaries = new ArrayList<Boolean>();  // in use flags
+
+    private final List<Integer> operations = new ArrayList<Integer>();
+    private final List<Integer> lefts = new ArrayList<Integer>();
+    private final List<Integer> rights = new ArrayList<Integer>();
+    private final List<Integer> results = new ArrayList<Integer>();
+
+    private final StringBuilder input = new StringBuilder();
+    private boolean expectOperand = false;  // an operator is waiting for its right operand
+    private boolean completed = false;      // the top operand is a finished result
+
+
+    /**
+     * compile space separated tokens
+     */
+    Expression compile(String source) {
+        return compile(source.split(TOKEN_DELIMITER));
+    }
+
+    /**
+     * compile tokens
+     */
+    Expression compile(String[] tokens) {
+        StringBuilder source = new StringBuilder();
+        clear();
+        for (int i = 0; i < tokens.length; i++) {
+            String token = tokens[i];
+            if (token == null || token.length() == 0) {
+                continue;
+            }
+            if (source.length() > 0) {
+                source.append(TOKEN_DELIMITER);
+            }
+            source.append(token);
+            enter(token);
+        }
+        complete();
+        return build(source.toString());
+    }
+
+    // process a single token
+    private void enter(String token) {
+        if (token.equals(Calculator.STR_EQUALS)) {
+            complete();
+        }
+        else if (token.equals(Calculator.STR_CLEAR)) {
+            clear();
+        }
+        else if (Calculator.isValidOp(token)) {
+            setOperation(Calculator.operationOf(token));
+        }
+        else {
+            this.input.append(token);
+        }
+    }
+
+    // start over, the current value becomes 0
+    private void clear() {
+        this.constants.clear();
+        this.constantIndex.clear();
+        this.variables.clear();
+        this.operands.clear();
+        this.operators.clear();
+        this.temporaries.clear();
+        this.operations.clear();
+        this.lefts.clear();
+        this.rights.clear();
+        this.results.clear();
+        this.input.setLength(0);
+        this.operands.add(constant(Value.init(), "0"));
+        this.expectOperand = false;
+        this.completed = true;
+    }
+
+    // finish everything entered so far, as "=" does
+    private void complete() {
+        applyInput();
+        if (this.expectOperand) {
+            this.operands.add(constant(Value.error(), Value.ERROR_MESSAGE));  // missing operand
+            this.expectOperand = false;
+        }
+        while (!this.operators.isEmpty()) {
+            emit(pop(this.operators));
+        }
+        this.completed = true;
+    }
+
+    // push the input string as an operand
+    private void applyInput() {
+        if (this.input.length() == 0) {
+            return;
+        }
+        String literal = this.input.toString();
+        this.input.setLength(0);
+        if (this.completed) {  // new input replaces a finished result
+            release(pop(this.operands));
+            this.completed = false;
+        }
+        if (isVariable(literal)) {
+            this.operands.add(variable(literal));
+        }
+        else {
+            this.operands.add(constant(Value.valueOf(literal), literal));
+        }
+        this.expectOperand = false;
+    }
+
+    // push an operator, emitting the stacked ones of equal or higher precedence
+    private void setOperation(int op) {
+        applyInput();
+        if (this.expectOperand) {  // a second operator replaces the first
+            pop(this.operators);
+        }
+        while (!this.operators.isEmpty() && precedence(top(this.operators)) >= precedence(op)) {
+            emit(pop(this.operators));
+        }
+        this.operators.add(Integer.valueOf(op));
+        this.expectOperand = true;
+        this.completed = false;
+    }
+
+    // emit an instruction for op over the top two operands
+    private void emit(int op) {
+        int right = pop(this.operands);
+        int left = pop(this.operands);
+        release(right);
+        release(left);
+        int result = allocate();
+        this.operations.add(Integer.valueOf(op));
+        this.lefts.add(Integer.valueOf(left));
+        this.rights.add(Integer.valueOf(right));
+        this.results.add(Integer.valueOf(result));
+        this.operands.add(Integer.valueOf(result));
+    }
+
+    // reference to a constant, sharing repeated literals
+    private int constant(Value value, String literal) {
+        Integer index = this.constantIndex.get(literal);
+        if (index == null) {
+            index = Integer.valueOf(this.constants.size());
+            this.constants.add(value);
+            this.constantIndex.put(literal, index);
+        }
+        return reference(index.intValue(), CONSTANT);
+    }
+
+    // reference to a named variable
+    private int variable(String name) {
+        int index = this.variables.indexOf(name);
+        if (index < 0) {
+            index = this.variables.size();
+            this.variables.add(name);
+        }
+        return reference(index, VARIABLE);
+    }
+
+    // whether an operand is a variable name rather than a number
+    private static boolean isVariable(String literal) {
+        if (literal.equals(Value.ERROR_MESSAGE) || !Character.isJavaIdentifierStart(literal.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < literal.length(); i++) {
+            if (!Character.isJavaIdentifierPart(literal.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // reference to the lowest free temporary
+    private int allocate() {
+        int i = this.temporaries.indexOf(Boolean.FALSE);
+        if (i < 0) {
+            i = this.temporaries.size();
+            this.temporaries.add(Boolean.TRUE);
+        }
+        else {
+            this.temporaries.set(i, Boolean.TRUE);
+        }
+        return reference(i, TEMPORARY);
+    }
+
+    // free a temporary once it has been consumed
+    private void release(int reference) {
+        if ((reference & KIND_MASK) == TEMPORARY) {
+            this.temporaries.set(reference >> KIND_BITS, Boolean.FALSE);
+        }
+    }
+
+    // tag an index with its kind
+    private static int reference(int index, int kind) {
+        return (index << KIND_BITS) | kind;
+    }
+
+    // precedence of an operation, higher binds tighter
+    private static int precedence(int op) {
+        if (op == Calculator.OP_MULTIPLY || op == Calculator.OP_DIVIDE) {
+            return 2;
+        }
+        return 1;
+    }
+
+    // build the Expression, turning references into frame indexes
+    private Expression build(String source) {
+        int count = this.operations.size();
+        int[] operations = new int[count];
+        int[] lefts = new int[count];
+        int[] rights = new int[count];
+        int[] results = new int[count];
+        for (int i = 0; i < count; i++) {
+            operations[i] = this.operations.get(i).intValue();
+            lefts[i] = index(this.lefts.get(i).intValue());
+            rights[i] = index(this.rights.get(i).intValue());
+            results[i] = index(this.results.get(i).intValue());
+        }
+        Value[] constants = this.constants.toArray(new Value[this.constants.size()]);
+        String[] variables = this.variables.toArray(new String[this.variables.size()]);
+        return new Expression(source, constants, variables, this.temporaries.size(),
+                              operations, lefts, rights, results, index(top(this.operands)),
+                              Expression.BACKEND_INTERPRETER, null);
+    }
+
+    // frame index of a reference, the frame is laid out [constants][variables][temporaries]
+    private int index(int reference) {
+        int index = reference >> KIND_BITS;
+        switch(reference & KIND_MASK) {
+            case VARIABLE: return this.constants.size() + index;
+            case TEMPORARY: return this.constants.size() + this.variables.size() + index;
+            default: return index;
+        }
+    }
+
+    // remove and return the last element
+    private static int pop(List<Integer> list) {
+        return list.remove(list.size() - 1).intValue();
+    }
+
+    // return the last element
+    private static int top(List<Integer> list) {
+        return list.get(list.size() - 1).intValue();
+    }
+}
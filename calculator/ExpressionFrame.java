@@ -0,0 +1,86 @@
+package calculator;
+
+
+/************************************************************
+ *  ExpressionFrame
+ *
+ *  The working registers for evaluating one Expression.
+ *
+ *  A frame is created once and reused for as many evaluations
+ *  as needed, so evaluating does not allocate.  Variables keep
+ *  their values between evaluations, and start as 0.  Frames
+ *  are not thread safe, each thread should use its own.
+ *
+ ************************************************************/
+public final class ExpressionFrame {
+
+    private final Expression expression;
+    private final Register[] registers;
+
+
+    // constructor, see Expression.newFrame()
+    ExpressionFrame(Expression expression) {
+        this.expression = expression;
+        this.registers = new Register[expression.getFrameSize()];
+        for (int i = 0; i < this.registers.length; i++) {
+            this.registers[i] = new Register();
+        }
+        expression.initialize(this.registers);
+    }
+
+
+    /**
+     * set a variable to a long value
+     */
+    public void set(int variable, long value) {
+        variable(variable).set(value);
+    }
+
+    /**
+     * set a variable to a double value, typed DOUBLE like a literal "7.0"
+     */
+    public void set(int variable, double value) {
+        variable(variable).setDouble(value);
+    }
+
+    /**
+     * set a variable to a value
+     */
+    public void set(int variable, Value value) {
+        variable(variable).set(value);
+    }
+
+    /**
+     * set a named variable to a value, ignored if the expression does not use it
+     */
+    public void set(String name, Value value) {
+        int variable = this.expression.getVariableIndex(name);
+        if (variable >= 0) {
+            set(variable, value);
+        }
+    }
+
+    // the register holding a variable
+    private Register variable(int variable) {
+        if (variable < 0 || variable >= this.expression.getVariableCount()) {
+            throw new IndexOutOfBoundsException("no variable " + variable + " in " + this.expression);
+        }
+        return this.registers[this.expression.getVariableFrameIndex(variable)];
+    }
+
+    /**
+     * evaluate the expression
+     * @return the register holding the result, overwritten by the next evaluation
+     */
+    public Register evaluate() {
+        this.expression.execute(this.registers);
+        return this.registers[this.expression.getResultIndex()];
+    }
+
+    /**
+     * @return the expression this frame evaluates
+     */
+    public Expression getExpression() {
+        return this.expression;
+    }
+}
@@ -0,0 +1,309 @@
+package calculator;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+
+
+
+/************************************************************
+ *  ExpressionGenerator
+ *
+ *  Turns an Expression into a generated Program class, defined
+ *  as a hidden class, so the JIT sees straight line code instead
+ *  of the interpreter's loop and switch.
+ *
+ *  For "3 + a * 2" the generated execute method is simply
+ *
+ *      ExpressionGenerator.multiply(frame[3], frame[2], frame[4]);
+ *      ExpressionGenerator.add(frame[1], frame[4], frame[4]);
+ *
+ *  calling the same Arithmetic methods the interpreter uses, so
+ *  results are identical.  The code has no branches, which keeps
+ *  the class file free of stack map frames.  The class file is
+ *  written by hand, no bytecode library is needed.
+ *
+ ************************************************************/
+final class ExpressionGenerator {
+
+    // HotSpot does not JIT compile methods over 8000 bytes, sipush limits frame indexes
+    private static final int MAX_CODE_LENGTH = 8000;
+    private static final int MAX_FRAME_SIZE = Short.MAX_VALUE;
+
+    private static final int CLASS_VERSION = 52;  // Java 8, no stack map frames needed without branches
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    // constant pool tags
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // opcodes
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int AALOAD = 0x32;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    private static final String GENERATED_NAME = "calculator/GeneratedProgram";
+    private static final String REGISTER = "Lcalculator/Register;";
+    private static final String OPERATION_TYPE = "(" + REGISTER + REGISTER + REGISTER + ")V";
+    private static final String CALCULATE_TYPE = "(" + REGISTER + "I" + REGISTER + REGISTER + ")V";
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(this.pool);
+    private final List<String> poolKeys = new ArrayList<String>();
+
+
+    /**
+     * @return a Program running the expression, null if it is too large to generate
+     */
+    static Program generate(Expression expression) {
+        try {
+            byte[] bytes = new ExpressionGenerator().write(expression);
+            if (bytes == null) {
+                return null;
+            }
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            return (Program)lookup.lookupClass().getDeclaredConstructor().newInstance();
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("cannot write program for " + expression, e);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot define program for " + expression, e);
+        }
+    }
+
+
+    /*
+     *  entry points for generated code, an error operand gives an error as in Arithmetic.calculate
+     */
+    static void add(Register val1, Register val2, Register result) {
+        if (val1.isError() || val2.isError()) {
+            result.setError();
+        }
+        else {
+            Arithmetic.add(val1, val2, result);
+        }
+    }
+    static void subtract(Register val1, Register val2, Register result) {
+        if (val1.isError() || val2.isError()) {
+            result.setError();
+        }
+        else {
+            Arithmetic.subtract(val1, val2, result);
+        }
+    }
+    static void multiply(Register val1, Register val2, Register result) {
+        if (val1.isError() || val2.isError()) {
+            result.setError();
+        }
+        else {
+            Arithmetic.multiply(val1, val2, result);
+        }
+    }
+    static void divide(Register val1, Register val2, Register result) {
+        if (val1.isError() || val2.isError()) {
+            result.setError();
+        }
+        else {
+            Arithmetic.divide(val1, val2, result);
+        }
+    }
+
+
+    // write the class file, null if the expression is too large
+    private byte[] write(Expression expression) throws IOException {
+        if (expression.getFrameSize() > MAX_FRAME_SIZE) {
+            return null;
+        }
+        int thisClass = classConstant(GENERATED_NAME);
+        int superClass = classConstant("java/lang/Object");
+        int programInterface = classConstant("calculator/Program");
+        int code = utf8Constant("Code");
+        int init = utf8Constant("<init>");
+        int initType = utf8Constant("()V");
+        int execute = utf8Constant("execute");
+        int executeType = utf8Constant("([" + REGISTER + ")V");
+        int objectInit = methodConstant(CONSTANT_METHODREF, "java/lang/Object", "<init>", "()V");
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream bodyOut = new DataOutputStream(body);
+        for (int i = 0; i < expression.getInstructionCount(); i++) {
+            writeInstruction(bodyOut, expression, i);
+        }
+        bodyOut.writeByte(RETURN);
+        if (body.size() > MAX_CODE_LENGTH) {
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(CLASS_VERSION);
+        out.writeShort(this.poolKeys.size() + 1);
+        this.poolOut.flush();
+        this.pool.writeTo(out);
+        out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);  // interfaces
+        out.writeShort(programInterface);
+        out.writeShort(0);  // fields
+        out.writeShort(2);  // methods
+
+        // public <init>() { super(); }
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(init);
+        out.writeShort(initType);
+        out.writeShort(1);  // attributes
+        out.writeShort(code);
+        out.writeInt(2 + 2 + 4 + 5 + 2 + 2);
+        out.writeShort(1);  // max stack
+        out.writeShort(1);  // max locals
+        out.writeInt(5);
+        out.writeByte(ALOAD_0);
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(objectInit);
+        out.writeByte(RETURN);
+        out.writeShort(0);  // exception table
+        out.writeShort(0);  // attributes
+
+        // public void execute(Register[] frame)
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(execute);
+        out.writeShort(executeType);
+        out.writeShort(1);  // attributes
+        out.writeShort(code);
+        out.writeInt(2 + 2 + 4 + body.size() + 2 + 2);
+        out.writeShort(5);  // max stack: two registers, an op code, the frame and an index
+        out.writeShort(2);  // max locals: this and frame
+        out.writeInt(body.size());
+        body.writeTo(out);
+        out.writeShort(0);  // exception table
+        out.writeShort(0);  // attributes
+
+        out.writeShort(0);  // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // write the call for one instruction
+    private void writeInstruction(DataOutputStream out, Expression expression, int i) throws IOException {
+        String name = null;
+        switch(expression.getOperation(i)) {
+            case Calculator.OP_PLUS: name = "add";
+                                     break;
+            case Calculator.OP_MINUS: name = "subtract";
+                                      break;
+            case Calculator.OP_MULTIPLY: name = "multiply";
+                                         break;
+            case Calculator.OP_DIVIDE: name = "divide";
+                                       break;
+            default: // anything else goes through Arithmetic.calculate
+        }
+        writeRegister(out, expression.getLeft(i));
+        if (name == null) {
+            out.writeByte(LDC_W);
+            out.writeShort(integerConstant(expression.getOperation(i)));
+        }
+        writeRegister(out, expression.getRight(i));
+        writeRegister(out, expression.getResult(i));
+        out.writeByte(INVOKESTATIC);
+        if (name == null) {
+            out.writeShort(methodConstant(CONSTANT_METHODREF, "calculator/Arithmetic", "calculate", CALCULATE_TYPE));
+        }
+        else {
+            out.writeShort(methodConstant(CONSTANT_METHODREF, "calculator/ExpressionGenerator", name, OPERATION_TYPE));
+        }
+    }
+
+    // push frame[index]
+    private void writeRegister(DataOutputStream out, int index) throws IOException {
+        out.writeByte(ALOAD_1);
+        out.writeByte(SIPUSH);
+        out.writeShort(index);
+        out.writeByte(AALOAD);
+    }
+
+
+    // constant pool index of a UTF8 entry
+    private int utf8Constant(String value) throws IOException {
+        String key = "U" + value;
+        int index = this.poolKeys.indexOf(key);
+        if (index < 0) {
+            this.poolOut.writeByte(CONSTANT_UTF8);
+            this.poolOut.writeUTF(value);
+            index = add(key);
+        }
+        return index + 1;
+    }
+
+    // constant pool index of an integer entry
+    private int integerConstant(int value) throws IOException {
+        String key = "I" + value;
+        int index = this.poolKeys.indexOf(key);
+        if (index < 0) {
+            this.poolOut.writeByte(CONSTANT_INTEGER);
+            this.poolOut.writeInt(value);
+            index = add(key);
+        }
+        return index + 1;
+    }
+
+    // constant pool index of a class entry
+    private int classConstant(String name) throws IOException {
+        String key = "C" + name;
+        int index = this.poolKeys.indexOf(key);
+        if (index < 0) {
+            int nameIndex = utf8Constant(name);
+            this.poolOut.writeByte(CONSTANT_CLASS);
+            this.poolOut.writeShort(nameIndex);
+            index = add(key);
+        }
+        return index + 1;
+    }
+
+    // constant pool index of a method reference
+    private int methodConstant(int tag, String owner, String name, String type) throws IOException {
+        String key = "M" + owner + "." + name + type;
+        int index = this.poolKeys.indexOf(key);
+        if (index < 0) {
+            int ownerIndex = classConstant(owner);
+            int nameIndex = utf8Constant(name);
+            int typeIndex = utf8Constant(type);
+            String nameAndTypeKey = "N" + name + type;
+            int nameAndType = this.poolKeys.indexOf(nameAndTypeKey);
+            if (nameAndType < 0) {
+                this.poolOut.writeByte(CONSTANT_NAME_AND_TYPE);
+                this.poolOut.writeShort(nameIndex);
+                this.poolOut.writeShort(typeIndex);
+                nameAndType = add(nameAndTypeKey);
+            }
+            this.poolOut.writeByte(tag);
+            this.poolOut.writeShort(ownerIndex);
+            this.poolOut.writeShort(nameAndType + 1);
+            index = add(key);
+        }
+        return index + 1;
+    }
+
+    // record a new constant pool entry
+    private int add(String key) {
+        this.poolKeys.add(key);
+        return this.poolKeys.size() - 1;
+    }
+}
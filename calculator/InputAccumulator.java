@@ -0,0 +1,229 @@
+package calculator;
+
+
+import java.math.BigDecimal;
+
+
+
+/************************************************************
+ *  InputAccumulator
+ *
+ *  The number being typed into a Calculator.
+ *
+ *  Characters are kept in a fixed buffer for display only; the
+ *  value itself is built as each character arrives, so entering
+ *  a digit copies nothing and applying the input does not parse
+ *  the text again.  The value follows NumberParser, and so
+ *  Value(String), exactly: "7 . 1" is the double 7.1, "7 0" the
+ *  long 70, "7 . ." an error.  Input longer than the buffer,
+ *  leading zeros or a long fraction say, is rare: the characters
+ *  beyond it are kept in a builder of their own, and the whole
+ *  text is parsed wherever the incremental value does not
+ *  suffice.
+ *
+ *  Plain decimal input is accumulated directly.  Anything else
+ *  (a sign in the middle, letters, "Error" typed in) is handed
+ *  to NumberParser when applied, reading the buffer in place.
+ *
+ *  For the exact NumericModes input with a "." becomes a decimal
+ *  instead of a double, an unscaled long while it fits.
+ *
+ ************************************************************/
+final class InputAccumulator implements CharSequence {
+
+    public static final int CAPACITY = 64;
+
+    // doubles are exact up to 2^53, powers of ten up to 10^22
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final char[] buffer = new char[CAPACITY];
+    private StringBuilder rest = null;  // characters beyond the buffer, null until there are any
+    private int length = 0;             // characters in the buffer and the rest
+    private String text = null;         // the input as a String, made on demand
+
+    // value accumulated negatively as Long.parseLong does, so Long.MIN_VALUE fits
+    private boolean negative = false;
+    private long accumulated = 0;
+    private boolean overflow = false;
+    private int digits = 0;
+    private int fractionDigits = 0;
+    private int dots = 0;
+    private boolean unusual = false;  // not plain decimal, NumberParser decides
+
+
+    /**
+     * forget the input
+     */
+    void clear() {
+        this.length = 0;
+        if (this.rest != null) {
+            this.rest.setLength(0);
+        }
+        this.text = null;
+        this.negative = false;
+        this.accumulated = 0;
+        this.overflow = false;
+        this.digits = 0;
+        this.fractionDigits = 0;
+        this.dots = 0;
+        this.unusual = false;
+    }
+
+    /**
+     * append the characters of a token
+     */
+    void append(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            append(token.charAt(i));
+        }
+    }
+
+    /**
+     * append characters from start (inclusive) to end (exclusive) of text
+     */
+    void append(CharSequence text, int start, int end) {
+        for (int i = start; i < end; i++) {
+            append(text.charAt(i));
+        }
+    }
+
+    /**
+     * append one character
+     */
+    void append(char c) {
+        this.text = null;
+        if (c >= '0' && c <= '9') {
+            this.digits++;
+            if (this.dots > 0) {
+                this.fractionDigits++;
+            }
+            long limit = this.negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+            int digit = c - '0';
+            if (this.accumulated < limit / 10 || this.accumulated * 10 < limit + digit) {
+                this.overflow = true;
+            }
+            else if (!this.overflow) {
+                this.accumulated = this.accumulated * 10 - digit;
+            }
+        }
+        else if (c == '.') {
+            this.dots++;
+        }
+        else if (this.length == 0 && (c == '-' || c == '+')) {
+            this.negative = (c == '-');
+        }
+        else {
+            this.unusual = true;
+        }
+        if (this.length < CAPACITY) {
+            this.buffer[this.length] = c;
+        }
+        else {
+            if (this.rest == null) {
+                this.rest = new StringBuilder();
+            }
+            this.rest.append(c);
+        }
+        this.length++;
+    }
+
+    /**
+     * set a register to the value of the input
+     * @return false if the input is not a valid value, the register then holds an error
+     */
+    boolean applyTo(Register register) {
+        return applyTo(register, false);
+    }
+
+    /**
+     * set a register to the value of the input, as an exact decimal if asked for
+     * @return false if the input is not a valid value, the register then holds an error
+     */
+    boolean applyTo(Register register, boolean exact) {
+        if (this.unusual) {
+            return NumberParser.parse(this, register);
+        }
+        if (this.dots > 1 || this.digits == 0) {
+            register.setError();
+            return false;
+        }
+        if (exact && (this.dots == 1 || this.overflow)) {
+            if (!this.overflow && this.fractionDigits <= Register.MAX_SCALE) {
+                register.setDecimal(this.negative ? this.accumulated : -this.accumulated, this.fractionDigits);
+            }
+            else if (this.length <= CAPACITY) {
+                register.setDecimal(new BigDecimal(this.buffer, 0, this.length));
+            }
+            else {
+                register.setDecimal(new BigDecimal(toString()));
+            }
+            return true;
+        }
+        if (this.dots == 1) {
+            if (this.overflow || this.accumulated < -MAX_EXACT_MANTISSA
+                || this.fractionDigits >= POWERS_OF_TEN.length) {
+                return NumberParser.parse(this, register);  // beyond the exact fast path
+            }
+            double value = (double)(-this.accumulated) / POWERS_OF_TEN[this.fractionDigits];
+            register.setDouble(this.negative ? -value : value);
+            return true;
+        }
+        if (this.overflow) {
+            register.setError();
+            return false;
+        }
+        register.set(this.negative ? this.accumulated : -this.accumulated);
+        return true;
+    }
+
+    /**
+     * append the input as typed
+     */
+    StringBuilder appendTo(StringBuilder builder) {
+        builder.append(this.buffer, 0, Math.min(this.length, CAPACITY));
+        if (this.length > CAPACITY) {
+            builder.append(this.rest);
+        }
+        return builder;
+    }
+
+
+    /**
+     * @return number of characters in the input
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * @return the character at an index
+     */
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + this.length);
+        }
+        return (index < CAPACITY) ? this.buffer[index] : this.rest.charAt(index - CAPACITY);
+    }
+
+    /**
+     * @return a copy of part of the input
+     */
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * @return the input as typed, the same String until the input changes
+     */
+    public String toString() {
+        if (this.text == null) {
+            this.text = (this.length <= CAPACITY) ? new String(this.buffer, 0, this.length)
+                                                  : appendTo(new StringBuilder(this.length)).toString();
+        }
+        return this.text;
+    }
+}
@@ -0,0 +1,136 @@
+package calculator;
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/************************************************************
+ *  LatencyHistogram
+ *
+ *  Histogram of nanosecond latencies in the style of an HDR
+ *  histogram: every power of two is split into SUB_BUCKETS
+ *  linear buckets, so any recorded value is known to within
+ *  1/SUB_BUCKETS (12.5%) of itself from one nanosecond up to
+ *  centuries, in a fixed 488 counters.
+ *
+ *  Recording is one array increment and needs no lock, so any
+ *  number of threads may record at once.  Percentiles report
+ *  the highest value of the bucket the percentile falls in,
+ *  never more than the largest value recorded.
+ *
+ ************************************************************/
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    public static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+
+    /**
+     * record one latency in nanoseconds, negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        this.counts.incrementAndGet(bucket(nanos));
+        this.count.increment();
+        this.total.add(nanos);
+        long max = this.max.get();
+        while (nanos > max && !this.max.compareAndSet(max, nanos)) {
+            max = this.max.get();
+        }
+    }
+
+    // bucket of a value
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int)value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        return (msb - SUB_BITS + 1) * SUB_BUCKETS + (int)((value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    // highest value in a bucket
+    private static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lowest = (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    /**
+     * @return largest value recorded, 0 if none
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @return mean of the values recorded, 0 if none
+     */
+    public double getMean() {
+        long count = this.count.sum();
+        return (count == 0) ? 0.0 : (double)this.total.sum() / count;
+    }
+
+    /**
+     * @return value at or below which percentile percent of the values are, 0 if none
+     */
+    public long getPercentile(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += this.counts.get(i);
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValue(i), this.max.get());
+            }
+        }
+        return this.max.get();
+    }
+
+    /**
+     * forget every value recorded, values recorded meanwhile may be partly kept
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0);
+        }
+        this.count.reset();
+        this.total.reset();
+        this.max.set(0);
+    }
+
+    /**
+     *  @return this object as a String
+     */
+    public String toString() {
+        return "count=" + getCount() + " mean=" + (long)getMean() + " p50=" + getPercentile(50)
+            + " p99=" + getPercentile(99) + " p99.9=" + getPercentile(99.9) + " max=" + getMax();
+    }
+}
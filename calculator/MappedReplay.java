@@ -0,0 +1,326 @@
+package calculator;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+
+/************************************************************
+ *  MappedReplay
+ *
+ *  ReplayEngine's path for large files: the input is mapped
+ *  with FileChannel.map in line aligned chunks instead of being
+ *  read through a Reader, so no line ever becomes a String.
+ *
+ *  Each chunk is tokenized straight from the mapped bytes.
+ *  Operators, "=" and "Clear" go to the Calculator as codes,
+ *  operand characters into its input as they are.  The results
+ *  are encoded straight into a direct byte buffer per chunk and
+ *  written to the output channel in input order, so the channel
+ *  writes them without copying.  The direct buffers are pooled
+ *  and reused by later chunks.
+ *
+ *  Lines end with "\n" or "\r\n".  Both files are UTF-8 as in
+ *  replay(): ASCII lines, all a calculator records but for
+ *  digits of other scripts, are read byte for char, and any
+ *  other line is decoded first.
+ *
+ ************************************************************/
+final class MappedReplay {
+
+    public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+
+    private final int parallelism;
+    private final int chunkBytes;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();  // written, free
+
+
+    /**
+     *  constructor
+     */
+    MappedReplay(int parallelism, int chunkBytes) {
+        this.parallelism = parallelism;
+        this.chunkBytes = chunkBytes;
+    }
+
+
+    /**
+     * replay every line of input into output
+     * @return number of lines replayed
+     */
+    long replay(Path input, Path output) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                                                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (this.parallelism == 1) {
+                return replay(in, out, null);
+            }
+            ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+            try {
+                return replay(in, out, pool);
+            }
+            finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    // map chunk after chunk, replaying them in the calling thread or on the pool
+    private long replay(FileChannel in, FileChannel out, ForkJoinPool pool) throws IOException {
+        ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+        long size = in.size();
+        long position = 0;
+        long count = 0;
+        while (position < size) {
+            MappedByteBuffer mapped = mapChunk(in, position, size);
+            position += mapped.limit();
+            Chunk chunk = new Chunk(mapped, this.buffers);
+            if (pool == null) {
+                count += write(out, chunk.call());
+                continue;
+            }
+            if (pending.size() == 2 * this.parallelism) {
+                count += write(out, await(pending.removeFirst()));
+            }
+            pending.addLast(pool.submit(chunk));
+        }
+        while (!pending.isEmpty()) {
+            count += write(out, await(pending.removeFirst()));
+        }
+        return count;
+    }
+
+    // map from position up to the end of the last whole line that fits, growing for long lines
+    private MappedByteBuffer mapChunk(FileChannel in, long position, long size) throws IOException {
+        long length = this.chunkBytes;
+        while (true) {
+            if (length >= size - position) {
+                return in.map(FileChannel.MapMode.READ_ONLY, position, size - position);
+            }
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("line too long at byte " + position);
+            }
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+            for (int i = (int)length - 1; i >= 0; i--) {
+                if (mapped.get(i) == '\n') {
+                    mapped.limit(i + 1);
+                    return mapped;
+                }
+            }
+            length *= 2;
+        }
+    }
+
+    // write a replayed chunk and return its buffer to the pool
+    private int write(FileChannel out, Chunk chunk) throws IOException {
+        ByteBuffer result = chunk.result;
+        while (result.hasRemaining()) {
+            out.write(result);
+        }
+        result.clear();
+        this.buffers.offer(result);
+        return chunk.lines;
+    }
+
+    // result of a chunk, rethrowing its failure
+    private static Chunk await(Future<Chunk> chunk) throws IOException {
+        try {
+            return chunk.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("replay interrupted");
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("replay failed", e.getCause());
+        }
+    }
+
+
+    // replays the lines of one mapped chunk with its own calculator
+    private static final class Chunk implements Callable<Chunk> {
+        private final ByteBuffer input;
+        private final ConcurrentLinkedQueue<ByteBuffer> buffers;
+        private ByteBuffer result;
+        private int lines;
+
+        // constructor
+        Chunk(ByteBuffer input, ConcurrentLinkedQueue<ByteBuffer> buffers) {
+            this.input = input;
+            this.buffers = buffers;
+        }
+
+        // replay every line, one result line each
+        public Chunk call() {
+            ReplayChunkEvent event = new ReplayChunkEvent();
+            event.begin();
+            Calculator calculator = new Calculator();
+            ByteSequence text = new ByteSequence(this.input);
+            StringBuilder display = new StringBuilder();  // reused, the display of one line
+            int limit = this.input.limit();
+            this.result = buffer(Math.max(256, limit / 2));
+            int start = 0;
+            while (start < limit) {
+                int end = start;
+                boolean ascii = true;
+                while (end < limit && this.input.get(end) != '\n') {
+                    if (this.input.get(end) < 0) {
+                        ascii = false;
+                    }
+                    end++;
+                }
+                int next = end + 1;
+                if (end > start && this.input.get(end - 1) == '\r') {
+                    end--;
+                }
+                display.setLength(0);
+                if (ascii) {
+                    replayLine(calculator, text, start, end, display);
+                }
+                else {  // only digits of other scripts need decoding
+                    byte[] encoded = new byte[end - start];
+                    this.input.get(start, encoded);
+                    ReplayEngine.replayLine(calculator, new String(encoded, StandardCharsets.UTF_8), display);
+                }
+                put(display);
+                this.lines++;
+                start = next;
+            }
+            this.result.flip();
+            event.end();
+            if (event.shouldCommit()) {
+                event.lines = this.lines;
+                event.bytes = limit;
+                event.mapped = true;
+                event.commit();
+            }
+            return this;
+        }
+
+        // append a display and a newline to the result, in UTF-8
+        private void put(StringBuilder display) {
+            int length = display.length();
+            for (int i = 0; i < length; i++) {
+                if (display.charAt(i) >= 0x80) {
+                    byte[] encoded = display.toString().getBytes(StandardCharsets.UTF_8);
+                    reserve(encoded.length + 1);
+                    this.result.put(encoded).put((byte)'\n');
+                    return;
+                }
+            }
+            reserve(length + 1);
+            for (int i = 0; i < length; i++) {
+                this.result.put((byte)display.charAt(i));
+            }
+            this.result.put((byte)'\n');
+        }
+
+        // make room for bytes more in the result
+        private void reserve(int bytes) {
+            if (this.result.remaining() < bytes) {
+                ByteBuffer larger = buffer(Math.max(this.result.capacity() * 2, this.result.position() + bytes));
+                this.result.flip();
+                larger.put(this.result);
+                this.result.clear();
+                this.buffers.offer(this.result);
+                this.result = larger;
+            }
+        }
+
+        // a free direct buffer of at least capacity bytes from the pool, or a new one
+        private ByteBuffer buffer(int capacity) {
+            ByteBuffer buffer = this.buffers.poll();
+            if (buffer != null && buffer.capacity() >= capacity) {
+                return buffer;
+            }
+            return ByteBuffer.allocateDirect(capacity);  // one too small is left to the collector
+        }
+    }
+
+    /**
+     * clear the calculator, enter the space separated tokens from start to end and append the display
+     */
+    static StringBuilder replayLine(Calculator calculator, ByteSequence text, int start, int end,
+                                    StringBuilder result) {
+        calculator.reset();
+        int tokenStart = start;
+        while (tokenStart < end) {
+            int tokenEnd = tokenStart;
+            while (tokenEnd < end && text.byteAt(tokenEnd) != ' ') {
+                tokenEnd++;
+            }
+            int length = tokenEnd - tokenStart;
+            if (length == 1) {
+                byte b = text.byteAt(tokenStart);
+                int op = Calculator.operationOf((char)b);
+                if (b == '=') {
+                    calculator.enterEquals();
+                }
+                else if (op != Calculator.OP_NONE) {
+                    calculator.enterOperation(op);
+                }
+                else {
+                    calculator.enter(text, tokenStart, tokenEnd);
+                }
+            }
+            else if (length > 0) {
+                calculator.enter(text, tokenStart, tokenEnd);  // "Clear" or operand characters
+            }
+            tokenStart = tokenEnd + 1;
+        }
+        return calculator.appendCurrentValue(result);
+    }
+
+
+    // ISO-8859-1 view of a byte buffer, read in place
+    static final class ByteSequence implements CharSequence {
+        private final ByteBuffer bytes;
+
+        // constructor
+        ByteSequence(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        // byte at an absolute index
+        byte byteAt(int index) {
+            return this.bytes.get(index);
+        }
+
+        // number of bytes
+        public int length() {
+            return this.bytes.limit();
+        }
+
+        // character at an absolute index
+        public char charAt(int index) {
+            return (char)(this.bytes.get(index) & 0xff);
+        }
+
+        // copy of part of the bytes
+        public CharSequence subSequence(int start, int end) {
+            StringBuilder builder = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                builder.append(charAt(i));
+            }
+            return builder.toString();
+        }
+
+        // the bytes as a String
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+    }
+}
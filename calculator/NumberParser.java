@@ -0,0 +1,211 @@
+package calculator;
+
+
+import java.nio.charset.StandardCharsets;
+
+
+
+/************************************************************
+ *  NumberParser
+ *
+ *  Single pass scanner turning text into a calculator value
+ *  with exactly the rules of Value(String): "Error" is an
+ *  error, text with a "." is a double as Double.parseDouble
+ *  reads it, anything else a long as Long.parseLong reads it,
+ *  and text those reject is an error.
+ *
+ *  Plain decimals such as "72345", "-7" or "49.7" are parsed
+ *  directly without creating any objects, and malformed text
+ *  such as "7..0" or "12a" is rejected without an exception.
+ *  Only the rare forms the scanner does not handle itself
+ *  (exponents, hex, "NaN", digits beyond double precision,
+ *  long overflow checks on non-ASCII digits) are handed to the
+ *  JDK parsers.
+ *
+ *  The text can be a String, any CharSequence or a slice of a
+ *  byte array holding ASCII, so network buffers can be parsed
+ *  without first building Strings.
+ *
+ ************************************************************/
+public final class NumberParser {
+
+    // doubles are exact up to 2^53, powers of ten up to 10^22
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // characters Double.parseDouble accepts besides digits and "."
+    private static final String DOUBLE_CHARACTERS = "+-eEdDfFxXpPabcABCNInity";
+
+    // static methods only
+    private NumberParser() {
+    }
+
+
+    /**
+     * parse a whole CharSequence into result
+     * @return false if the text is not a valid value, result then holds an error
+     */
+    public static boolean parse(CharSequence text, Register result) {
+        return parse(text, 0, text.length(), result);
+    }
+
+    /**
+     * parse ASCII bytes from start (inclusive) to end (exclusive) into result
+     * @return false if the text is not a valid value, result then holds an error
+     */
+    public static boolean parse(byte[] bytes, int start, int end, Register result) {
+        return parse(null, bytes, start, end, result);
+    }
+
+    /**
+     * parse characters from start (inclusive) to end (exclusive) into result
+     * @return false if the text is not a valid value, result then holds an error
+     */
+    public static boolean parse(CharSequence text, int start, int end, Register result) {
+        return parse(text, null, start, end, result);
+    }
+
+    // parse from either text or bytes, whichever is not null
+    private static boolean parse(CharSequence text, byte[] bytes, int start, int end, Register result) {
+        if (isError(text, bytes, start, end)) {
+            result.setError();
+            return false;
+        }
+        int i = start;
+        boolean negative = false;
+        if (i < end && (charAt(text, bytes, i) == '-' || charAt(text, bytes, i) == '+')) {
+            negative = charAt(text, bytes, i) == '-';
+            i++;
+        }
+
+        // accumulate negatively as Long.parseLong does, so Long.MIN_VALUE fits
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / 10;
+        long accumulated = 0;
+        boolean overflow = false;
+        int digits = 0;
+        int fractionDigits = 0;
+        int dots = 0;
+        boolean unusual = false;    // characters only the JDK parsers may accept
+        boolean invalid = false;    // characters no parser accepts as a long
+        boolean invalidDouble = false;  // characters no parser accepts as a double
+        for (; i < end; i++) {
+            char c = charAt(text, bytes, i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (dots > 0) {
+                    fractionDigits++;
+                }
+                int digit = c - '0';
+                if (accumulated < multiplyLimit || accumulated * 10 < limit + digit) {
+                    overflow = true;
+                }
+                else if (!overflow) {
+                    accumulated = accumulated * 10 - digit;
+                }
+            }
+            else if (c == '.') {
+                dots++;
+            }
+            else {
+                unusual = true;
+                if (!(c > 127 && Character.isDigit(c))) {
+                    invalid = true;
+                }
+                if (c > ' ' && DOUBLE_CHARACTERS.indexOf(c) < 0) {
+                    invalidDouble = true;
+                }
+            }
+        }
+
+        if (dots > 0) {
+            if (dots > 1 || invalidDouble) {
+                result.setError();
+                return false;
+            }
+            if (!unusual && !overflow && digits > 0
+                && accumulated >= -MAX_EXACT_MANTISSA && fractionDigits < POWERS_OF_TEN.length) {
+                // both the mantissa and the power of ten are exact, so one division rounds correctly
+                double value = (double)(-accumulated) / POWERS_OF_TEN[fractionDigits];
+                result.setDouble(negative ? -value : value);
+                return true;
+            }
+            if (digits == 0 && !unusual) {  // "." or "-."
+                result.setError();
+                return false;
+            }
+            return parseDouble(toString(text, bytes, start, end), result);
+        }
+
+        if (invalid || (digits == 0 && !unusual)) {
+            result.setError();
+            return false;
+        }
+        if (unusual) {  // non-ASCII digits
+            return parseLong(toString(text, bytes, start, end), result);
+        }
+        if (overflow) {
+            result.setError();
+            return false;
+        }
+        result.set(negative ? accumulated : -accumulated);
+        return true;
+    }
+
+    // character at an index of text or bytes
+    private static char charAt(CharSequence text, byte[] bytes, int index) {
+        if (bytes != null) {
+            return (char)(bytes[index] & 0xff);
+        }
+        return text.charAt(index);
+    }
+
+    // text or bytes as a String, only for the slow paths
+    private static String toString(CharSequence text, byte[] bytes, int start, int end) {
+        if (bytes != null) {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+        return text.subSequence(start, end).toString();
+    }
+
+    // whether the text is the error literal
+    private static boolean isError(CharSequence text, byte[] bytes, int start, int end) {
+        String error = Value.ERROR_MESSAGE;
+        if (end - start != error.length()) {
+            return false;
+        }
+        for (int i = 0; i < error.length(); i++) {
+            if (charAt(text, bytes, start + i) != error.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // slow path through the JDK for forms the scanner does not handle
+    private static boolean parseDouble(String text, Register result) {
+        try {
+            result.setDouble(Double.parseDouble(text));
+            return true;
+        }
+        catch(NumberFormatException e) {
+            result.setError();
+            return false;
+        }
+    }
+
+    // slow path through the JDK for forms the scanner does not handle
+    private static boolean parseLong(String text, Register result) {
+        try {
+            result.set(Long.parseLong(text));
+            return true;
+        }
+        catch(NumberFormatException e) {
+            result.setError();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,602 @@
+package calculator;
+
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+
+
+/************************************************************
+ *  NumericMode
+ *
+ *  How a Calculator does its arithmetic.
+ *
+ *  LEGACY is the original behavior: longs wrap silently on
+ *  overflow and anything with a fraction is a double.
+ *
+ *  CHECKED works the same, except a long result that would
+ *  overflow becomes an exact decimal instead of wrapping, and
+ *  a decimal that comes back into range becomes a long again.
+ *  Dividing such a decimal gives up to 34 digits.
+ *
+ *  DECIMAL keeps typed input exact ("0.1" is one tenth, not
+ *  the nearest double) and calculates with BigDecimal under a
+ *  MathContext, so 1 / 3 has as many digits as its precision
+ *  allows.
+ *
+ *  FIXED keeps every value at one scale, for instance cents
+ *  with a scale of 2, rounding each input and result with a
+ *  RoundingMode.  A value beyond the range of a scaled long is
+ *  an error.
+ *
+ *  Each mode has a fast path over primitives that creates no
+ *  objects: checked longs, and decimals small enough to be an
+ *  unscaled long with a scale of at most Register.MAX_SCALE.
+ *  Only values outside that range, and DECIMAL division, use
+ *  BigDecimal.
+ *
+ *  The extended operators of OperatorRegistry are exact too
+ *  outside LEGACY: "%", "~" and "^" with a whole exponent are
+ *  calculated with BigDecimal, then rounded as the mode rounds
+ *  a quotient, and "sqrt" is rounded the same way.  CHECKED
+ *  leaves doubles to the legacy kernels, and a long "~" or
+ *  "^" that overflows becomes a decimal.  A power with a
+ *  fraction in the exponent has no exact result, and one whose
+ *  exact result has more than MAX_POWER_DIGITS digits is too
+ *  large; both are errors rather than rounded doubles.
+ *  Operators of other registries only have long and double
+ *  kernels and are for LEGACY, see supports().
+ *
+ ************************************************************/
+public final class NumericMode {
+
+    public static final int MODE_LEGACY = 0;
+    public static final int MODE_CHECKED = 1;
+    public static final int MODE_DECIMAL = 2;
+    public static final int MODE_FIXED = 3;
+
+    private static final NumericMode LEGACY = new NumericMode(MODE_LEGACY, MathContext.UNLIMITED, 0, RoundingMode.HALF_EVEN);
+    private static final NumericMode CHECKED = new NumericMode(MODE_CHECKED, MathContext.UNLIMITED, 0, RoundingMode.HALF_EVEN);
+
+    /**
+     * most digits of an exact power, a larger one is an error
+     */
+    public static final int MAX_POWER_DIGITS = 10000;
+
+    // the fast paths are exact, which is only correct when the precision can hold any long
+    private static final int LONG_DIGITS = 19;
+
+    private final int mode;
+    private final MathContext mathContext;
+    private final int scale;
+    private final RoundingMode rounding;
+
+
+    // constructor, see the factory methods
+    private NumericMode(int mode, MathContext mathContext, int scale, RoundingMode rounding) {
+        this.mode = mode;
+        this.mathContext = mathContext;
+        this.scale = scale;
+        this.rounding = rounding;
+    }
+
+    /**
+     * @return the original arithmetic
+     */
+    public static NumericMode legacy() {
+        return LEGACY;
+    }
+
+    /**
+     * @return longs that become decimals instead of overflowing, division as legacy
+     */
+    public static NumericMode checked() {
+        return CHECKED;
+    }
+
+    /**
+     * @return exact decimals, rounded to a MathContext, an unlimited one rounds inexact quotients to 34 digits
+     */
+    public static NumericMode decimal(MathContext mathContext) {
+        if (mathContext == null) {
+            throw new IllegalArgumentException("math context must not be null");
+        }
+        return new NumericMode(MODE_DECIMAL, mathContext, 0, mathContext.getRoundingMode());
+    }
+
+    /**
+     * @return decimals of one scale, 0 to Register.MAX_SCALE digits, rounded with a RoundingMode
+     */
+    public static NumericMode fixed(int scale, RoundingMode rounding) {
+        if (scale < 0 || scale > Register.MAX_SCALE) {
+            throw new IllegalArgumentException("scale must be 0 to " + Register.MAX_SCALE + ": " + scale);
+        }
+        if (rounding == null) {
+            throw new IllegalArgumentException("rounding mode must not be null");
+        }
+        return new NumericMode(MODE_FIXED, MathContext.UNLIMITED, scale, rounding);
+    }
+
+
+    /**
+     * @return one of the MODE_* constants
+     */
+    public int getMode() {
+        return this.mode;
+    }
+
+    /**
+     * @return the MathContext of DECIMAL, unlimited otherwise
+     */
+    public MathContext getMathContext() {
+        return this.mathContext;
+    }
+
+    /**
+     * @return the scale of FIXED, 0 otherwise
+     */
+    public int getScale() {
+        return this.scale;
+    }
+
+    /**
+     * @return the rounding of DECIMAL and FIXED
+     */
+    public RoundingMode getRounding() {
+        return this.rounding;
+    }
+
+    /**
+     * @return whether typed input should be kept as an exact decimal
+     */
+    public boolean isExact() {
+        return this.mode == MODE_DECIMAL || this.mode == MODE_FIXED;
+    }
+
+
+    /**
+     * @return whether this mode can calculate an operator: LEGACY any, the others the default
+     *      and the extended operators of OperatorRegistry, whose results they calculate exactly
+     */
+    public boolean supports(Operator operator) {
+        if (this.mode == MODE_LEGACY) {
+            return true;
+        }
+        return operator == Operator.PLUS || operator == Operator.MINUS || operator == Operator.MULTIPLY
+            || operator == Operator.DIVIDE || operator == Operator.REMAINDER || operator == Operator.POWER
+            || operator == Operator.NEGATE || operator == Operator.SQRT;
+    }
+
+    /**
+     * bring an operand into this mode: FIXED rounds it to its scale, DECIMAL makes doubles decimal
+     */
+    public void convert(Register value) {
+        if (value.isError()) {
+            return;
+        }
+        if (this.mode == MODE_FIXED) {
+            if (!toFixed(value, value)) {
+                value.setError();
+            }
+        }
+        else if (this.mode == MODE_DECIMAL && value.isDouble()) {
+            if (!isFinite(value)) {
+                value.setError();
+            }
+            else {
+                value.setDecimal(value.decimalValue().round(this.mathContext));
+            }
+        }
+    }
+
+    /**
+     *  calculate val1 op val2 into result, which may be one of the operands
+     *      an error operand, unknown operation or division by zero gives an error result;
+     *      outside LEGACY op may be an extended operator, val2 being val1 for a unary one
+     */
+    public void calculate(Register val1, int op, Register val2, Register result) {
+        if (this.mode == MODE_LEGACY || val1.isError() || val2.isError()) {
+            Arithmetic.calculate(val1, op, val2, result);
+            return;
+        }
+        if (op > Calculator.OP_DIVIDE) {
+            calculateExtended(val1, op, val2, result);
+            return;
+        }
+        if (op == Calculator.OP_NONE) {
+            result.set(val2);
+            convert(result);
+            return;
+        }
+        if (op < Calculator.OP_PLUS || op > Calculator.OP_DIVIDE
+            || (op == Calculator.OP_DIVIDE && val2.isZero())) {
+            result.setError();
+            return;
+        }
+        switch(this.mode) {
+            case MODE_CHECKED: calculateChecked(val1, op, val2, result);
+                               return;
+            case MODE_DECIMAL: calculateDecimal(val1, op, val2, result);
+                               return;
+            default: calculateFixed(val1, op, val2, result);
+        }
+    }
+
+
+    // longs checked for overflow, decimals once promoted, doubles and division as legacy
+    private void calculateChecked(Register val1, int op, Register val2, Register result) {
+        if (val1.isLong() && val2.isLong() && op != Calculator.OP_DIVIDE) {
+            if (!exact(val1.longValue(), op, val2.longValue(), result)) {
+                result.setDecimal(calculate(val1.decimalValue(), op, val2.decimalValue(), MathContext.UNLIMITED));
+            }
+        }
+        else if (val1.isDecimal() || val2.isDecimal()) {
+            if (!isFinite(val1) || !isFinite(val2)) {
+                result.setError();
+                return;
+            }
+            setChecked(calculate(val1.decimalValue(), op, val2.decimalValue(), this.mathContext), result);
+        }
+        else {
+            Arithmetic.calculate(val1, op, val2, result);
+        }
+    }
+
+    // a checked decimal into result, a long again if it is a whole number in range
+    private static void setChecked(BigDecimal value, Register result) {
+        BigDecimal whole = value.setScale(0, RoundingMode.DOWN);
+        if (whole.compareTo(value) == 0 && whole.unscaledValue().bitLength() < 64) {
+            result.set(whole.longValue());
+        }
+        else {
+            result.setDecimal(value);
+        }
+    }
+
+    // "%", "^", "~" and "sqrt" exactly, a BigDecimal result rounded as a quotient of this mode
+    private void calculateExtended(Register val1, int op, Register val2, Register result) {
+        if (op > Calculator.OP_SQRT || (op == Calculator.OP_REMAINDER && val2.isZero())) {
+            result.setError();
+            return;
+        }
+        if (this.mode == MODE_CHECKED && !val1.isDecimal() && !val2.isDecimal()) {
+            boolean longs = val1.isLong() && val2.isLong();
+            boolean overflows = op == Calculator.OP_NEGATE || (op == Calculator.OP_POWER && val2.longValue() >= 0);
+            if (!(longs && overflows)) {  // remainder of longs is exact, doubles are legacy
+                OperatorRegistry.getExtended().get(op).apply(val1, val2, result);
+                return;
+            }
+        }
+        if (!isFinite(val1) || !isFinite(val2)) {
+            result.setError();
+            return;
+        }
+        BigDecimal a = val1.decimalValue();
+        BigDecimal b = val2.decimalValue();
+        try {
+            if (this.mode == MODE_FIXED) {
+                a = a.setScale(this.scale, this.rounding);
+                b = b.setScale(this.scale, this.rounding);
+            }
+            BigDecimal value;
+            switch(op) {
+                case Calculator.OP_REMAINDER: value = a.remainder(b);
+                                              break;
+                case Calculator.OP_NEGATE: value = a.negate();
+                                           break;
+                case Calculator.OP_POWER: value = power(a, b);
+                                          break;
+                default: value = squareRoot(a);
+            }
+            if (value == null) {
+                result.setError();
+            }
+            else if (this.mode == MODE_CHECKED) {
+                setChecked(value, result);
+            }
+            else if (this.mode == MODE_DECIMAL) {
+                result.setDecimal(value.round(this.mathContext));
+            }
+            else {
+                setFixed(value.setScale(this.scale, this.rounding), result);
+            }
+        }
+        catch (ArithmeticException e) {  // zero to a negative power, a negative root, unnecessary rounding
+            result.setError();
+        }
+    }
+
+    // a^b for a whole b, exact or rounded as a quotient, null if b has a fraction or the power is too large
+    private BigDecimal power(BigDecimal a, BigDecimal b) {
+        BigDecimal exponent = b.stripTrailingZeros();
+        if (exponent.scale() > 0 || exponent.precision() - exponent.scale() > 9) {
+            return null;  // a fraction, or beyond what BigDecimal.pow takes
+        }
+        int n = exponent.intValueExact();
+        int precision = this.mathContext.getPrecision();
+        if (this.mode == MODE_DECIMAL && precision > 0) {
+            return a.pow(n, this.mathContext);
+        }
+        BigDecimal base = a.stripTrailingZeros();
+        if (a.signum() != 0 && (long)Math.max(1, base.precision()) * Math.abs((long)n) > MAX_POWER_DIGITS) {
+            return null;
+        }
+        BigDecimal power = a.pow(Math.abs(n));
+        if (n >= 0) {
+            return power;
+        }
+        if (this.mode == MODE_FIXED) {
+            return BigDecimal.ONE.divide(power, this.scale, this.rounding);
+        }
+        return calculate(BigDecimal.ONE, Calculator.OP_DIVIDE, power, MathContext.UNLIMITED);
+    }
+
+    // the square root of a, exact or rounded as a quotient
+    private BigDecimal squareRoot(BigDecimal a) {
+        if (this.mode == MODE_FIXED) {
+            // truncated with digits to spare and marked inexact, so setScale rounds it as the exact root
+            int digits = Math.max(1, (a.precision() - a.scale() + 1) / 2) + this.scale + 3;
+            BigDecimal root = a.sqrt(new MathContext(digits, RoundingMode.DOWN));
+            if (root.multiply(root).compareTo(a) != 0) {
+                root = root.add(root.ulp().movePointLeft(1));
+            }
+            return root;
+        }
+        if (this.mathContext.getPrecision() > 0) {
+            return a.sqrt(this.mathContext);
+        }
+        try {
+            return a.sqrt(MathContext.UNLIMITED);  // exact, or 34 digits as a quotient
+        }
+        catch (ArithmeticException e) {
+            if (a.signum() < 0) {
+                throw e;
+            }
+            return a.sqrt(MathContext.DECIMAL128);
+        }
+    }
+
+    // compact decimals while the result is exact and fits, BigDecimal otherwise
+    private void calculateDecimal(Register val1, int op, Register val2, Register result) {
+        int precision = this.mathContext.getPrecision();
+        if (op != Calculator.OP_DIVIDE && (precision == 0 || precision >= LONG_DIGITS)
+            && isCompact(val1) && isCompact(val2)
+            && exactDecimal(val1.unscaledValue(), val1.scale(), op, val2.unscaledValue(), val2.scale(), result)) {
+            return;
+        }
+        if (!isFinite(val1) || !isFinite(val2)) {
+            result.setError();
+            return;
+        }
+        result.setDecimal(calculate(val1.decimalValue(), op, val2.decimalValue(), this.mathContext));
+    }
+
+    // scaled longs rounded to the scale, BigDecimal only when an intermediate overflows
+    private void calculateFixed(Register val1, int op, Register val2, Register result) {
+        if (!isAtScale(val1) || !isAtScale(val2)) {  // operands from outside this mode
+            Register left = new Register();
+            Register right = new Register();
+            if (!toFixed(val1, left) || !toFixed(val2, right)) {
+                result.setError();
+                return;
+            }
+            calculateFixed(left, op, right, result);
+            return;
+        }
+        long a = val1.unscaledValue();
+        long b = val2.unscaledValue();
+        long power = Register.LONG_POWERS_OF_TEN[this.scale];
+        if (op == Calculator.OP_PLUS || op == Calculator.OP_MINUS) {
+            if (exact(a, op, b, result)) {
+                result.setDecimal(result.unscaledValue(), this.scale);
+            }
+            else {
+                result.setError();  // beyond the range of the scale
+            }
+            return;
+        }
+        if (op == Calculator.OP_MULTIPLY) {
+            long product = a * b;
+            if (Math.multiplyHigh(a, b) == (product >> 63) && divide(product, power, result)) {
+                return;
+            }
+        }
+        else {
+            long numerator = a * power;
+            if (Math.multiplyHigh(a, power) == (numerator >> 63) && divide(numerator, b, result)) {
+                return;
+            }
+        }
+        // the intermediate does not fit a long, the result still may
+        BigDecimal x = BigDecimal.valueOf(a, this.scale);
+        BigDecimal y = BigDecimal.valueOf(b, this.scale);
+        try {
+            BigDecimal exact = (op == Calculator.OP_MULTIPLY) ? x.multiply(y) : x.divide(y, this.scale, this.rounding);
+            setFixed(exact.setScale(this.scale, this.rounding), result);
+        }
+        catch (ArithmeticException e) {  // rounding needed with RoundingMode.UNNECESSARY
+            result.setError();
+        }
+    }
+
+    // whether a register holds a value at the scale
+    private boolean isAtScale(Register value) {
+        if (this.scale == 0) {
+            return value.isLong();
+        }
+        return value.isCompactDecimal() && value.scale() == this.scale;
+    }
+
+    // a decimal at the scale into result, an error if it does not fit a long
+    private void setFixed(BigDecimal value, Register result) {
+        if (value.unscaledValue().bitLength() < 64) {
+            result.setDecimal(value.unscaledValue().longValue(), this.scale);
+        }
+        else {
+            result.setError();
+        }
+    }
+
+    // whether a register is a long or a compact decimal
+    private static boolean isCompact(Register value) {
+        return value.isLong() || value.isCompactDecimal();
+    }
+
+    // a op b for + - * into result, false if it overflows
+    private static boolean exact(long a, int op, long b, Register result) {
+        long value;
+        switch(op) {
+            case Calculator.OP_PLUS: value = a + b;
+                                     if (((a ^ value) & (b ^ value)) < 0) {
+                                         return false;
+                                     }
+                                     break;
+            case Calculator.OP_MINUS: value = a - b;
+                                      if (((a ^ b) & (a ^ value)) < 0) {
+                                          return false;
+                                      }
+                                      break;
+            default: value = a * b;
+                     if (Math.multiplyHigh(a, b) != (value >> 63)) {
+                         return false;
+                     }
+        }
+        result.set(value);
+        return true;
+    }
+
+    // (a, scaleA) op (b, scaleB) for + - * into result, false if it does not fit a compact decimal
+    private static boolean exactDecimal(long a, int scaleA, int op, long b, int scaleB, Register result) {
+        int scale;
+        if (op == Calculator.OP_MULTIPLY) {
+            scale = scaleA + scaleB;
+        }
+        else {
+            scale = Math.max(scaleA, scaleB);
+            long powerA = Register.LONG_POWERS_OF_TEN[scale - scaleA];
+            long powerB = Register.LONG_POWERS_OF_TEN[scale - scaleB];
+            long scaledA = a * powerA;
+            long scaledB = b * powerB;
+            if (Math.multiplyHigh(a, powerA) != (scaledA >> 63) || Math.multiplyHigh(b, powerB) != (scaledB >> 63)) {
+                return false;
+            }
+            a = scaledA;
+            b = scaledB;
+        }
+        if (scale > Register.MAX_SCALE || !exact(a, op, b, result)) {
+            return false;
+        }
+        result.setDecimal(result.unscaledValue(), scale);
+        return true;
+    }
+
+    // a op b with BigDecimal, rounded to a MathContext
+    private static BigDecimal calculate(BigDecimal a, int op, BigDecimal b, MathContext mathContext) {
+        switch(op) {
+            case Calculator.OP_PLUS: return a.add(b, mathContext);
+            case Calculator.OP_MINUS: return a.subtract(b, mathContext);
+            case Calculator.OP_MULTIPLY: return a.multiply(b, mathContext);
+            default: if (mathContext.getPrecision() == 0) {  // exact quotient, or rounded to 34 digits
+                         try {
+                             return a.divide(b);
+                         }
+                         catch (ArithmeticException e) {
+                             return a.divide(b, MathContext.DECIMAL128);
+                         }
+                     }
+                     return a.divide(b, mathContext);
+        }
+    }
+
+    // value at the scale into result, which may be value, false if it does not fit or needs unnecessary rounding
+    private boolean toFixed(Register value, Register result) {
+        if (value.isLong() || value.isCompactDecimal()) {
+            int scale = value.scale();
+            long unscaled = value.unscaledValue();
+            if (scale == this.scale) {
+                result.setDecimal(unscaled, scale);
+                return true;
+            }
+            if (scale < this.scale) {
+                long power = Register.LONG_POWERS_OF_TEN[this.scale - scale];
+                long scaled = unscaled * power;
+                if (Math.multiplyHigh(unscaled, power) != (scaled >> 63)) {
+                    return false;
+                }
+                result.setDecimal(scaled, this.scale);
+                return true;
+            }
+            if (divide(unscaled, Register.LONG_POWERS_OF_TEN[scale - this.scale], result)) {
+                return true;
+            }
+        }
+        if (!isFinite(value)) {
+            return false;
+        }
+        try {
+            setFixed(value.decimalValue().setScale(this.scale, this.rounding), result);
+            return !result.isError();
+        }
+        catch (ArithmeticException e) {  // rounding needed with RoundingMode.UNNECESSARY
+            return false;
+        }
+    }
+
+    // whether a register holds a number BigDecimal can represent
+    private static boolean isFinite(Register value) {
+        if (value.isError()) {
+            return false;
+        }
+        return !value.isDouble() || !(Double.isNaN(value.doubleValue()) || Double.isInfinite(value.doubleValue()));
+    }
+
+    // numerator / denominator rounded with the rounding mode into result at the scale,
+    //     false if that overflows or needs unnecessary rounding
+    private boolean divide(long numerator, long denominator, Register result) {
+        if (denominator == Long.MIN_VALUE || (numerator == Long.MIN_VALUE && denominator == -1)) {
+            return false;
+        }
+        long quotient = numerator / denominator;
+        long remainder = Math.abs(numerator % denominator);
+        if (remainder != 0) {
+            boolean negative = (numerator < 0) != (denominator < 0);
+            long half = remainder - (Math.abs(denominator) - remainder);  // compares the remainder to half
+            boolean increment;
+            switch(this.rounding) {
+                case UP: increment = true;
+                         break;
+                case DOWN: increment = false;
+                           break;
+                case CEILING: increment = !negative;
+                              break;
+                case FLOOR: increment = negative;
+                            break;
+                case HALF_UP: increment = half >= 0;
+                              break;
+                case HALF_DOWN: increment = half > 0;
+                                break;
+                case HALF_EVEN: increment = half > 0 || (half == 0 && (quotient & 1) != 0);
+                                break;
+                default: return false;  // UNNECESSARY
+            }
+            if (increment) {
+                quotient += negative ? -1 : 1;
+            }
+        }
+        result.setDecimal(quotient, this.scale);
+        return true;
+    }
+
+    /**
+     *  @return this mode as a String
+     */
+    public String toString() {
+        switch(this.mode) {
+            case MODE_LEGACY: return "legacy";
+            case MODE_CHECKED: return "checked";
+            case MODE_DECIMAL: return "decimal " + this.mathContext;
+            default: return "fixed scale=" + this.scale + " " + this.rounding;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package calculator;
+
+
+/************************************************************
+ *  Operator
+ *
+ *  One operator of an OperatorRegistry: its symbol, its
+ *  operation code, how it binds and the kernel calculating it.
+ *
+ *  Precedence is a small positive number, higher binds tighter:
+ *  1 for "+" and "-", 2 for "*", "/" and "%", 3 for "^".  A unary
+ *  operator applies to the current value straight away, as the
+ *  square root key of a pocket calculator does.
+ *
+ *  Kernels work on Registers like Arithmetic, reading their
+ *  operands before writing the result, and are only called with
+ *  non-error operands; a unary kernel gets the same register as
+ *  both operands.  The kernels are the LEGACY arithmetic, a
+ *  NumericMode calculates the constants here its own way.  The
+ *  constants are the four operators every Calculator has and
+ *  the extra ones of OperatorRegistry.getExtended().
+ *
+ ************************************************************/
+public abstract class Operator {
+
+    public static final int LEFT = 0;   // associativity
+    public static final int RIGHT = 1;
+
+    public static final Operator PLUS = new Operator(Calculator.STR_PLUS, Calculator.OP_PLUS, 1, LEFT, 2) {
+        public void apply(Register val1, Register val2, Register result) {
+            Arithmetic.add(val1, val2, result);
+        }
+    };
+    public static final Operator MINUS = new Operator(Calculator.STR_MINUS, Calculator.OP_MINUS, 1, LEFT, 2) {
+        public void apply(Register val1, Register val2, Register result) {
+            Arithmetic.subtract(val1, val2, result);
+        }
+    };
+    public static final Operator MULTIPLY = new Operator(Calculator.STR_MULTIPLY, Calculator.OP_MULTIPLY, 2, LEFT, 2) {
+        public void apply(Register val1, Register val2, Register result) {
+            Arithmetic.multiply(val1, val2, result);
+        }
+    };
+    public static final Operator DIVIDE = new Operator(Calculator.STR_DIVIDE, Calculator.OP_DIVIDE, 2, LEFT, 2) {
+        public void apply(Register val1, Register val2, Register result) {
+            Arithmetic.divide(val1, val2, result);
+        }
+    };
+
+    // remainder with the sign of the dividend as Java's %, zero divisor gives an error
+    public static final Operator REMAINDER = new Operator("%", Calculator.OP_REMAINDER, 2, LEFT, 2) {
+        public void apply(Register val1, Register val2, Register result) {
+            if (val2.isZero()) {
+                result.setError();
+            }
+            else if (val1.isLong() && val2.isLong()) {
+                result.set(val1.longValue() % val2.longValue());
+            }
+            else {
+                result.set(val1.doubleValue() % val2.doubleValue());
+            }
+        }
+    };
+
+    // power, exact for longs while it fits, an undefined result is an error
+    public static final Operator POWER = new Operator("^", Calculator.OP_POWER, 3, RIGHT, 2) {
+        public void apply(Register val1, Register val2, Register result) {
+            if (val1.isLong() && val2.isLong() && val2.longValue() >= 0 && longPower(val1.longValue(), val2.longValue(), result)) {
+                return;
+            }
+            double power = Math.pow(val1.doubleValue(), val2.doubleValue());
+            if (Double.isNaN(power)) {
+                result.setError();
+            }
+            else {
+                result.set(power);
+            }
+        }
+    };
+
+    // unary minus, longs wrap as subtracting from zero does
+    public static final Operator NEGATE = new Operator("~", Calculator.OP_NEGATE, 4, RIGHT, 1) {
+        public void apply(Register val1, Register val2, Register result) {
+            if (val1.isLong()) {
+                result.set(-val1.longValue());
+            }
+            else {
+                result.set(-val1.doubleValue());
+            }
+        }
+    };
+
+    // square root, a negative operand gives an error
+    public static final Operator SQRT = new Operator("sqrt", Calculator.OP_SQRT, 4, RIGHT, 1) {
+        public void apply(Register val1, Register val2, Register result) {
+            double value = val1.doubleValue();
+            if (value < 0.0 || Double.isNaN(value)) {
+                result.setError();
+            }
+            else {
+                result.set(Math.sqrt(value));
+            }
+        }
+    };
+
+    private final String symbol;
+    private final int code;
+    private final int precedence;
+    private final int associativity;
+    private final int arity;
+
+
+    /**
+     *  constructor
+     */
+    protected Operator(String symbol, int code, int precedence, int associativity, int arity) {
+        if (symbol == null || symbol.length() == 0) {
+            throw new IllegalArgumentException("operator without a symbol");
+        }
+        if (code <= Calculator.OP_NONE || code > OperatorRegistry.MAX_CODE) {
+            throw new IllegalArgumentException("operation code out of range: " + code);
+        }
+        if (precedence < 1) {
+            throw new IllegalArgumentException("precedence must be positive: " + precedence);
+        }
+        if (associativity != LEFT && associativity != RIGHT) {
+            throw new IllegalArgumentException("unknown associativity: " + associativity);
+        }
+        if (arity != 1 && arity != 2) {
+            throw new IllegalArgumentException("arity must be 1 or 2: " + arity);
+        }
+        this.symbol = symbol;
+        this.code = code;
+        this.precedence = precedence;
+        this.associativity = associativity;
+        this.arity = arity;
+    }
+
+
+    /**
+     * calculate into result, val2 is val1 for a unary operator, neither is an error
+     */
+    public abstract void apply(Register val1, Register val2, Register result);
+
+    // base^exponent into result if it fits a long
+    private static boolean longPower(long base, long exponent, Register result) {
+        long power = 1;
+        try {
+            for (; exponent > 0; exponent >>= 1) {
+                if ((exponent & 1) != 0) {
+                    power = Math.multiplyExact(power, base);
+                }
+                if (exponent > 1) {
+                    base = Math.multiplyExact(base, base);
+                }
+            }
+        }
+        catch (ArithmeticException e) {
+            return false;
+        }
+        result.set(power);
+        return true;
+    }
+
+    /**
+     * @return the token entering this operator
+     */
+    public String getSymbol() {
+        return this.symbol;
+    }
+
+    /**
+     * @return the operation code, one of Calculator.OP_*
+     */
+    public int getCode() {
+        return this.code;
+    }
+
+    /**
+     * @return how tightly this operator binds, higher is tighter
+     */
+    public int getPrecedence() {
+        return this.precedence;
+    }
+
+    /**
+     * @return LEFT or RIGHT
+     */
+    public int getAssociativity() {
+        return this.associativity;
+    }
+
+    /**
+     * @return number of operands, 1 or 2
+     */
+    public int getArity() {
+        return this.arity;
+    }
+
+    /**
+     * @return the symbol
+     */
+    public String toString() {
+        return this.symbol;
+    }
+}
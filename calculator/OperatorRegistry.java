@@ -0,0 +1,190 @@
+package calculator;
+
+
+import java.util.HashMap;
+
+
+
+/************************************************************
+ *  OperatorRegistry
+ *
+ *  The operators a Calculator understands, looked up by token
+ *  and by operation code in constant time.
+ *
+ *  Single character ASCII symbols, which all the usual ones
+ *  are, sit in a table indexed by the character, so classifying
+ *  a token costs one array read however many operators there
+ *  are.  Longer symbols such as "sqrt" go to a hash map, which
+ *  is only consulted for tokens that do not start with a digit,
+ *  so numbers never pay for it.  Operation codes index a second
+ *  table.
+ *
+ *  A registry is immutable and can be shared by any number of
+ *  Calculators.  getDefault() has the four original operators
+ *  and is what every Calculator starts with; getExtended() adds
+ *  "%", "^", unary minus "~" and "sqrt".  New operators are new
+ *  Operator instances passed to with(), the dispatch in
+ *  Calculator does not change.  In LEGACY mode operators beyond
+ *  the default four calculate with their kernel in longs and
+ *  doubles; the other NumericModes calculate the extended ones
+ *  exactly and reject a registry with operators of their own.
+ *  Expression and the other engines keep to the default
+ *  operators.
+ *
+ ************************************************************/
+public final class OperatorRegistry {
+
+    /**
+     * largest operation code
+     */
+    public static final int MAX_CODE = 63;
+
+    private static final int TABLE_SIZE = 128;  // single ASCII characters
+
+    private static final OperatorRegistry DEFAULT = new OperatorRegistry(new Operator[] {
+        Operator.PLUS, Operator.MINUS, Operator.MULTIPLY, Operator.DIVIDE
+    });
+    private static final OperatorRegistry EXTENDED = DEFAULT.with(Operator.REMAINDER).with(Operator.POWER)
+                                                            .with(Operator.NEGATE).with(Operator.SQRT);
+
+    private final Operator[] operators;
+    private final Operator[] bySymbol = new Operator[TABLE_SIZE];
+    private final Operator[] byCode = new Operator[MAX_CODE + 1];
+    private final HashMap<String, Operator> byName = new HashMap<String, Operator>();  // other symbols
+
+
+    /**
+     *  constructor
+     */
+    public OperatorRegistry(Operator[] operators) {
+        this.operators = operators.clone();
+        for (int i = 0; i < this.operators.length; i++) {
+            Operator operator = this.operators[i];
+            String symbol = operator.getSymbol();
+            char first = symbol.charAt(0);
+            if ((first >= '0' && first <= '9') || first == '.' || (first == '-' && symbol.length() > 1)
+                || symbol.equals(Calculator.STR_EQUALS) || symbol.equals(Calculator.STR_CLEAR)) {
+                throw new IllegalArgumentException("symbol is not an operator: " + symbol);
+            }
+            if (lookup(symbol) != null || this.byCode[operator.getCode()] != null) {
+                throw new IllegalArgumentException("operator registered twice: " + operator);
+            }
+            if (symbol.length() == 1 && first < TABLE_SIZE) {
+                this.bySymbol[first] = operator;
+            }
+            else {
+                this.byName.put(symbol, operator);
+            }
+            this.byCode[operator.getCode()] = operator;
+        }
+    }
+
+    /**
+     * @return the four operators of the original calculator
+     */
+    public static OperatorRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @return the default operators and "%", "^", "~" and "sqrt"
+     */
+    public static OperatorRegistry getExtended() {
+        return EXTENDED;
+    }
+
+    /**
+     * @return a registry with these operators and one more
+     */
+    public OperatorRegistry with(Operator operator) {
+        Operator[] operators = new Operator[this.operators.length + 1];
+        System.arraycopy(this.operators, 0, operators, 0, this.operators.length);
+        operators[this.operators.length] = operator;
+        return new OperatorRegistry(operators);
+    }
+
+    /**
+     * @return the registered operators, in registration order
+     */
+    public Operator[] getOperators() {
+        return this.operators.clone();
+    }
+
+
+    /**
+     * @return the operator for an operation code, null if none
+     */
+    public Operator get(int code) {
+        if (code < 0 || code > MAX_CODE) {
+            return null;
+        }
+        return this.byCode[code];
+    }
+
+    /**
+     * @return the operator for a single character symbol, null if none
+     */
+    public Operator lookup(char c) {
+        if (c < TABLE_SIZE) {
+            return this.bySymbol[c];
+        }
+        return this.byName.isEmpty() ? null : this.byName.get(String.valueOf(c));
+    }
+
+    /**
+     * @return the operator for a token, null if none
+     */
+    public Operator lookup(String token) {
+        if (token == null || token.length() == 0) {
+            return null;
+        }
+        if (token.length() == 1) {
+            return lookup(token.charAt(0));
+        }
+        return this.byName.isEmpty() ? null : this.byName.get(token);
+    }
+
+    /**
+     * @return the operator for the token from start (inclusive) to end (exclusive) of text,
+     *      null if none, without creating a String unless it may be a named operator
+     */
+    public Operator lookup(CharSequence text, int start, int end) {
+        int length = end - start;
+        if (length <= 0) {
+            return null;
+        }
+        char first = text.charAt(start);
+        if (length == 1) {
+            return lookup(first);
+        }
+        if (this.byName.isEmpty() || (first >= '0' && first <= '9') || first == '.' || first == '-') {
+            return null;  // a number, or at least not a name
+        }
+        return this.byName.get(text.subSequence(start, end).toString());
+    }
+
+    /**
+     * @return the symbol for an operation code, "" for OP_NONE and "err" for an unknown code
+     */
+    public String symbolOf(int code) {
+        if (code == Calculator.OP_NONE) {
+            return "";
+        }
+        Operator operator = get(code);
+        return (operator == null) ? "err" : operator.getSymbol();
+    }
+
+    /**
+     * @return whether an operation binds tighter than the pending one, so a calculator
+     *      working left to right cannot apply the pending one first
+     */
+    public boolean isHigherPriority(int op, int pending) {
+        Operator operator = get(op);
+        Operator previous = get(pending);
+        if (operator == null || previous == null) {
+            return false;
+        }
+        return operator.getPrecedence() > previous.getPrecedence()
+            || (operator.getPrecedence() == previous.getPrecedence() && operator.getAssociativity() == Operator.RIGHT);
+    }
+}
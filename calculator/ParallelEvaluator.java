@@ -0,0 +1,418 @@
+package calculator;
+
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+
+
+/************************************************************
+ *  ParallelEvaluator
+ *
+ *  Evaluates a large Expression, such as a generated formula
+ *  of tens of thousands of terms, on a ForkJoinPool.
+ *
+ *  The program is turned back into its expression tree, and
+ *  every run of "+" and "-", or of "*" and "/", folded left to
+ *  right becomes one node holding its terms, so that
+ *  "1 + 4 + 10 + 2 - 6" is a single sum of five terms rather
+ *  than a chain four deep.  Above the threshold the terms are
+ *  evaluated in parallel, splitting in halves, and the run is
+ *  reduced as a balanced tree of the same halves: each half is
+ *  folded left to right from 0 (or 1), "- b" and "/ b" staying
+ *  as they are, and the halves are then added (or multiplied).
+ *  Smaller runs are folded left to right.
+ *
+ *  With ORDER_STRICT the result is exactly what Expression and
+ *  the Calculator give.  A run is only reduced as a tree when
+ *  every term is a LONG and it has no "/", as long arithmetic
+ *  wraps and so regroups exactly.  Any other run is folded left
+ *  to right after its terms have been evaluated in parallel,
+ *  with every double rounded in the same order.
+ *
+ *  ORDER_REASSOCIATED reduces every large run as a tree.  It is
+ *  faster on double runs, but the doubles round differently and
+ *  a long run mixed with doubles can overflow in a different
+ *  place, so results may differ from the strict order beyond
+ *  all-long formulas.  A zero divisor is still an error.
+ *
+ *  A tree nested deeper than MAX_DEPTH, as "=" between runs of
+ *  alternating kinds can give, runs in the interpreter instead.
+ *
+ *  An evaluator holds the constants and variables like an
+ *  ExpressionFrame and is for use by one thread at a time; the
+ *  parallelism is inside evaluate().
+ *
+ ************************************************************/
+public final class ParallelEvaluator {
+
+    public static final int ORDER_STRICT = 0;
+    public static final int ORDER_REASSOCIATED = 1;
+
+    public static final int DEFAULT_THRESHOLD = 8192;  // leaves below which a subtree is evaluated sequentially
+    public static final int MAX_DEPTH = 1000;          // deeper trees are interpreted, evaluating recurses
+
+    // node kinds
+    private static final int LEAF = 0;      // a constant or variable
+    private static final int BINARY = 1;    // any other operation
+    private static final int SUM = 2;       // a run of "+" and "-"
+    private static final int PRODUCT = 3;   // a run of "*" and "/"
+
+    private static final Register ZERO = new Register(0L);  // read only, where a half of a sum starts
+    private static final Register ONE = new Register(1L);   // read only, where a half of a product starts
+
+    private final Expression expression;
+    private final int order;
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private final Register[] frame;   // constants and variables, read only while evaluating
+    private final Node root;
+
+
+    // the terms of a run, shared by the nodes of the run as it grew
+    private static final class Terms {
+        Node[] nodes = new Node[4];
+        boolean[] inverse = new boolean[4];  // subtracted or divided
+        int size = 0;
+
+        // append a term
+        void add(Node node, boolean inverse) {
+            if (this.size == this.nodes.length) {
+                Node[] nodes = new Node[this.size * 2];
+                boolean[] inverses = new boolean[this.size * 2];
+                System.arraycopy(this.nodes, 0, nodes, 0, this.size);
+                System.arraycopy(this.inverse, 0, inverses, 0, this.size);
+                this.nodes = nodes;
+                this.inverse = inverses;
+            }
+            this.nodes[this.size] = node;
+            this.inverse[this.size] = inverse;
+            this.size++;
+        }
+    }
+
+
+    // a node of the expression tree
+    private static final class Node {
+        final int kind;
+        final int index;       // frame index of a LEAF
+        final int operation;   // operation of a BINARY
+        final Node left;
+        final Node right;
+        final Terms terms;     // terms of a SUM or PRODUCT
+        final int count;       // number of those terms in this node
+        final long size;       // leaves below, decides what is forked
+        final int depth;
+
+        // constructor
+        Node(int kind, int index, int operation, Node left, Node right, Terms terms, int count, long size,
+             int depth) {
+            this.kind = kind;
+            this.index = index;
+            this.operation = operation;
+            this.left = left;
+            this.right = right;
+            this.terms = terms;
+            this.count = count;
+            this.size = size;
+            this.depth = depth;
+        }
+    }
+
+
+    // constructor, see Expression.newParallelEvaluator()
+    ParallelEvaluator(Expression expression, int order, ForkJoinPool pool, int threshold) {
+        if (order != ORDER_STRICT && order != ORDER_REASSOCIATED) {
+            throw new IllegalArgumentException("unknown order " + order);
+        }
+        if (threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive: " + threshold);
+        }
+        this.expression = expression;
+        this.order = order;
+        this.pool = pool;
+        this.threshold = threshold;
+        this.frame = new Register[expression.getFrameSize()];
+        for (int i = 0; i < this.frame.length; i++) {
+            this.frame[i] = new Register();
+        }
+        expression.initialize(this.frame);
+        this.root = buildTree(expression);
+    }
+
+
+    // the tree of a program, instructions come after the ones they read from
+    private static Node buildTree(Expression expression) {
+        Node[] definitions = new Node[expression.getFrameSize()];
+        for (int i = 0; i < expression.getInstructionCount(); i++) {
+            Node left = definition(definitions, expression.getLeft(i));
+            Node right = definition(definitions, expression.getRight(i));
+            definitions[expression.getResult(i)] = node(expression.getOperation(i), left, right);
+        }
+        return definition(definitions, expression.getResultIndex());
+    }
+
+    // the node last written to a frame index, a leaf if none was
+    private static Node definition(Node[] definitions, int index) {
+        if (definitions[index] == null) {
+            definitions[index] = new Node(LEAF, index, Calculator.OP_NONE, null, null, null, 0, 1, 0);
+        }
+        return definitions[index];
+    }
+
+    // the node of left op right, extending a run left of it
+    private static Node node(int op, Node left, Node right) {
+        int kind;
+        if (op == Calculator.OP_PLUS || op == Calculator.OP_MINUS) {
+            kind = SUM;
+        }
+        else if (op == Calculator.OP_MULTIPLY || op == Calculator.OP_DIVIDE) {
+            kind = PRODUCT;
+        }
+        else {
+            return new Node(BINARY, -1, op, left, right, null, 0, left.size + right.size,
+                            Math.max(left.depth, right.depth) + 1);
+        }
+        boolean inverse = op == Calculator.OP_MINUS || op == Calculator.OP_DIVIDE;
+        Terms terms;
+        if (left.kind == kind && left.count == left.terms.size) {
+            terms = left.terms;  // the newest node of the run, its terms can be shared
+        }
+        else {
+            terms = new Terms();
+            if (left.kind == kind) {
+                for (int i = 0; i < left.count; i++) {
+                    terms.add(left.terms.nodes[i], left.terms.inverse[i]);
+                }
+            }
+            else {
+                terms.add(left, false);
+            }
+        }
+        terms.add(right, inverse);
+        int depth = Math.max((left.kind == kind) ? left.depth : left.depth + 1, right.depth + 1);
+        return new Node(kind, -1, op, null, null, terms, terms.size, left.size + right.size, depth);
+    }
+
+
+    /**
+     * set a variable to a long value
+     */
+    public void set(int variable, long value) {
+        variable(variable).set(value);
+    }
+
+    /**
+     * set a variable to a double value, typed DOUBLE like a literal "7.0"
+     */
+    public void set(int variable, double value) {
+        variable(variable).setDouble(value);
+    }
+
+    /**
+     * set a variable to a value
+     */
+    public void set(int variable, Value value) {
+        variable(variable).set(value);
+    }
+
+    // the register holding a variable
+    private Register variable(int variable) {
+        if (variable < 0 || variable >= this.expression.getVariableCount()) {
+            throw new IndexOutOfBoundsException("no variable " + variable + " in " + this.expression);
+        }
+        return this.frame[this.expression.getVariableFrameIndex(variable)];
+    }
+
+    /**
+     * evaluate the expression, in parallel where it is larger than the threshold
+     * @return the resulting value
+     */
+    public Value evaluate() {
+        if (this.root.depth > MAX_DEPTH) {
+            this.expression.interpret(this.frame);  // only writes the temporaries
+            return this.frame[this.expression.getResultIndex()].toValue();
+        }
+        if (this.root.size < this.threshold) {
+            return evaluate(this.root).toValue();
+        }
+        return this.pool.invoke(new Evaluation(this.root)).toValue();
+    }
+
+    /**
+     * @return the order, ORDER_STRICT or ORDER_REASSOCIATED
+     */
+    public int getOrder() {
+        return this.order;
+    }
+
+    /**
+     * @return the expression this evaluator evaluates
+     */
+    public Expression getExpression() {
+        return this.expression;
+    }
+
+
+    // evaluate a node, forking its large parts; a leaf's register is returned as is and must not be written
+    private Register evaluate(Node node) {
+        switch (node.kind) {
+            case LEAF:   return this.frame[node.index];
+            case BINARY: return evaluateBinary(node);
+            default:     return evaluateRun(node);
+        }
+    }
+
+    // evaluate both sides of an operation, in parallel if large
+    private Register evaluateBinary(Node node) {
+        Register left;
+        Register right;
+        if (node.size >= this.threshold) {
+            Evaluation fork = new Evaluation(node.left);
+            fork.fork();  // already on the pool, see evaluate()
+            right = evaluate(node.right);
+            left = fork.join();
+        }
+        else {
+            left = evaluate(node.left);
+            right = evaluate(node.right);
+        }
+        Register result = new Register();
+        Arithmetic.calculate(left, node.operation, right, result);
+        return result;
+    }
+
+    // evaluate the terms of a run, then reduce them as a tree or fold them in order
+    private Register evaluateRun(Node node) {
+        Register[] values = new Register[node.count];
+        if (node.size < this.threshold) {
+            evaluateTerms(node, values, 0, node.count);
+            return fold(node, values, 0, node.count);
+        }
+        new TermEvaluation(node, values, 0, node.count).invoke();
+        if (this.order == ORDER_STRICT && !isExact(node, values)) {
+            return fold(node, values, 0, node.count);
+        }
+        return new Reduction(node, values, 0, node.count).invoke();
+    }
+
+    // evaluate terms from (inclusive) to to (exclusive) into values
+    private void evaluateTerms(Node node, Register[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            values[i] = evaluate(node.terms.nodes[i]);
+        }
+    }
+
+    // whether regrouping a run gives exactly its left to right fold: longs only, no division
+    private static boolean isExact(Node node, Register[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (!values[i].isLong() || (node.kind == PRODUCT && node.terms.inverse[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // fold the terms of a run from (inclusive) to to (exclusive) left to right, as Expression does,
+    // a range after the first starts from 0 or 1
+    private static Register fold(Node node, Register[] values, int from, int to) {
+        boolean sum = node.kind == SUM;
+        Register result = new Register();
+        if (from == 0) {
+            result.set(values[0]);
+            from++;
+        }
+        else {
+            result.set(sum ? ZERO : ONE);
+        }
+        for (int i = from; i < to; i++) {
+            int op;
+            if (node.terms.inverse[i]) {
+                op = sum ? Calculator.OP_MINUS : Calculator.OP_DIVIDE;
+            }
+            else {
+                op = sum ? Calculator.OP_PLUS : Calculator.OP_MULTIPLY;
+            }
+            Arithmetic.calculate(result, op, values[i], result);
+        }
+        return result;
+    }
+
+
+    // evaluates a node on the pool
+    private final class Evaluation extends RecursiveTask<Register> {
+        private static final long serialVersionUID = 1L;
+        private final Node node;
+
+        // constructor
+        Evaluation(Node node) {
+            this.node = node;
+        }
+
+        protected Register compute() {
+            return evaluate(this.node);
+        }
+    }
+
+    // evaluates a range of a run's terms on the pool, in halves down to the threshold
+    private final class TermEvaluation extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Node node;
+        private final Register[] values;
+        private final int from;
+        private final int to;
+
+        // constructor
+        TermEvaluation(Node node, Register[] values, int from, int to) {
+            this.node = node;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            long size = 0;
+            for (int i = this.from; i < this.to && size < threshold; i++) {
+                size += this.node.terms.nodes[i].size;
+            }
+            if (size < threshold || this.to - this.from < 2) {
+                evaluateTerms(this.node, this.values, this.from, this.to);
+                return;
+            }
+            int middle = (this.from + this.to) >>> 1;
+            invokeAll(new TermEvaluation(this.node, this.values, this.from, middle),
+                      new TermEvaluation(this.node, this.values, middle, this.to));
+        }
+    }
+
+    // reduces a range of a run's evaluated terms on the pool, as a tree of halves
+    private final class Reduction extends RecursiveTask<Register> {
+        private static final long serialVersionUID = 1L;
+        private final Node node;
+        private final Register[] values;
+        private final int from;
+        private final int to;
+
+        // constructor
+        Reduction(Node node, Register[] values, int from, int to) {
+            this.node = node;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected Register compute() {
+            if (this.to - this.from <= threshold) {
+                return fold(this.node, this.values, this.from, this.to);
+            }
+            int middle = (this.from + this.to) >>> 1;
+            Reduction right = new Reduction(this.node, this.values, middle, this.to);
+            right.fork();
+            Register result = new Reduction(this.node, this.values, this.from, middle).compute();
+            int op = (this.node.kind == SUM) ? Calculator.OP_PLUS : Calculator.OP_MULTIPLY;
+            Arithmetic.calculate(result, op, right.join(), result);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package calculator;
+
+
+/************************************************************
+ *  Program
+ *
+ *  Executable form of an Expression over a frame of Registers,
+ *  implemented by the classes ExpressionGenerator creates.
+ *
+ ************************************************************/
+interface Program {
+
+    /**
+     * run every instruction, constants and variables already loaded
+     */
+    void execute(Register[] frame);
+}
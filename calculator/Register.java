@@ -0,0 +1,342 @@
+package calculator;
+
+
+import java.math.BigDecimal;
+
+
+
+/************************************************************
+ *  Register
+ *
+ *  Mutable, primitive backed holder for a calculator value.
+ *
+ *  A Register carries the same LONG/DOUBLE/ERROR type tag as
+ *  Value, but keeps the payload in primitive fields so it can
+ *  be reused for every operation without allocating.  Value
+ *  is the immutable view handed out to callers.
+ *
+ *  A DECIMAL, used by the exact NumericModes, is kept as an
+ *  unscaled long with a scale of 1 to MAX_SCALE digits while it
+ *  fits, and only as a BigDecimal when it does not.
+ *
+ ************************************************************/
+public final class Register {
+
+    /**
+     * largest scale a DECIMAL keeps as an unscaled long
+     */
+    public static final int MAX_SCALE = 18;
+
+    // powers of ten that fit a long, LONG_POWERS_OF_TEN[MAX_SCALE] is the largest
+    static final long[] LONG_POWERS_OF_TEN = {
+        1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+        10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+        1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+    };
+
+    private int type = Value.LONG;
+    private long longValue = 0;         // payload when LONG, unscaled payload when DECIMAL
+    private double doubleValue = 0.0;
+    private int scale = 0;              // scale of the unscaled payload when DECIMAL
+    private BigDecimal decimalValue = null;  // payload when DECIMAL and too large for a long
+
+
+    /**
+     *  constructors
+     */
+    public Register() {
+    }
+    public Register(long value) {
+        set(value);
+    }
+    public Register(double value) {
+        set(value);
+    }
+
+
+    /**
+     * set to a long value
+     */
+    public void set(long value) {
+        this.type = Value.LONG;
+        this.longValue = value;
+        this.doubleValue = 0.0;
+        this.scale = 0;
+        this.decimalValue = null;
+    }
+
+    /**
+     * set to a double value, collapsing whole numbers to long as Value(double) does
+     */
+    public void set(double value) {
+        long longValue = (long)value;
+        if ((double)longValue == value) {
+            set(longValue);
+        }
+        else {
+            setDouble(value);
+        }
+    }
+
+    /**
+     * set to a double value without collapsing whole numbers, as Value(String) does for "7.0"
+     */
+    public void setDouble(double value) {
+        this.type = Value.DOUBLE;
+        this.longValue = 0;
+        this.doubleValue = value;
+        this.scale = 0;
+        this.decimalValue = null;
+    }
+
+    /**
+     * set to the decimal unscaled * 10^-scale, a scale of 0 gives a long
+     */
+    public void setDecimal(long unscaled, int scale) {
+        if (scale == 0) {
+            set(unscaled);
+        }
+        else if (scale < 0 || scale > MAX_SCALE) {
+            setDecimal(BigDecimal.valueOf(unscaled, scale));
+        }
+        else {
+            this.type = Value.DECIMAL;
+            this.longValue = unscaled;
+            this.doubleValue = 0.0;
+            this.scale = scale;
+            this.decimalValue = null;
+        }
+    }
+
+    /**
+     * set to a decimal, kept as an unscaled long when it fits, null gives an error
+     */
+    public void setDecimal(BigDecimal value) {
+        if (value == null) {
+            setError();
+        }
+        else if (value.scale() >= 0 && value.scale() <= MAX_SCALE && value.unscaledValue().bitLength() < 64) {
+            setDecimal(value.unscaledValue().longValue(), value.scale());
+        }
+        else {
+            this.type = Value.DECIMAL;
+            this.longValue = 0;
+            this.doubleValue = 0.0;
+            this.scale = 0;
+            this.decimalValue = value;
+        }
+    }
+
+    /**
+     * set to the error value
+     */
+    public void setError() {
+        this.type = Value.ERROR;
+        this.longValue = 0;
+        this.doubleValue = 0.0;
+        this.scale = 0;
+        this.decimalValue = null;
+    }
+
+    /**
+     * copy another register
+     */
+    public void set(Register other) {
+        this.type = other.type;
+        this.longValue = other.longValue;
+        this.doubleValue = other.doubleValue;
+        this.scale = other.scale;
+        this.decimalValue = other.decimalValue;
+    }
+
+    /**
+     * copy a value
+     */
+    public void set(Value value) {
+        if (value == null || value.isError()) {
+            setError();
+        }
+        else if (value.isDouble()) {
+            setDouble(value.doubleValue());
+        }
+        else if (value.isDecimal()) {
+            setDecimal(value.decimalValue());
+        }
+        else {
+            set(value.longValue());
+        }
+    }
+
+    /**
+     * parse a value from a String with the same rules as Value(String), see NumberParser
+     */
+    public void set(String str) {
+        if (str == null) {
+            set(0L);
+        }
+        else {
+            NumberParser.parse(str, this);
+        }
+    }
+
+
+    /**
+     * @return the type tag, one of Value's LONG, DOUBLE or ERROR
+     */
+    int type() {
+        return this.type;
+    }
+
+    /**
+     * @return whether this register holds an error
+     */
+    public boolean isError() {
+        return this.type == Value.ERROR;
+    }
+
+    /**
+     * @return whether this register holds a long
+     */
+    public boolean isLong() {
+        return this.type == Value.LONG;
+    }
+
+    /**
+     * @return whether this register holds a double
+     */
+    public boolean isDouble() {
+        return this.type == Value.DOUBLE;
+    }
+
+    /**
+     * @return whether this register holds a decimal
+     */
+    public boolean isDecimal() {
+        return this.type == Value.DECIMAL;
+    }
+
+    /**
+     * @return whether this register holds a decimal kept as an unscaled long
+     */
+    boolean isCompactDecimal() {
+        return this.type == Value.DECIMAL && this.decimalValue == null;
+    }
+
+    /**
+     * @return the scale of a compact decimal, 0 for a long
+     */
+    int scale() {
+        return this.scale;
+    }
+
+    /**
+     * @return the unscaled value of a compact decimal, the value of a long
+     */
+    long unscaledValue() {
+        return this.longValue;
+    }
+
+    /**
+     * @return whether this register is zero
+     */
+    public boolean isZero() {
+        if (this.type == Value.DECIMAL) {
+            return (this.decimalValue == null) ? this.longValue == 0 : this.decimalValue.signum() == 0;
+        }
+        return doubleValue() == 0.0;
+    }
+
+    /**
+     * @return long version of value
+     */
+    public long longValue() {
+        if (this.type == Value.DOUBLE) {
+            return (long)this.doubleValue;
+        }
+        if (this.type == Value.DECIMAL) {
+            if (this.decimalValue != null) {
+                return this.decimalValue.longValue();
+            }
+            return this.longValue / LONG_POWERS_OF_TEN[this.scale];
+        }
+        return this.longValue;
+    }
+
+    /**
+     * @return double version of value
+     */
+    public double doubleValue() {
+        if (this.type == Value.DOUBLE) {
+            return this.doubleValue;
+        }
+        if (this.type == Value.DECIMAL) {
+            if (this.decimalValue == null && Math.abs(this.longValue) <= (1L << 53)) {
+                // both exact, so one division rounds correctly
+                return (double)this.longValue / (double)LONG_POWERS_OF_TEN[this.scale];
+            }
+            return decimalValue().doubleValue();
+        }
+        return (double)this.longValue;
+    }
+
+    /**
+     * @return decimal version of value, null for an error
+     */
+    public BigDecimal decimalValue() {
+        switch(this.type) {
+            case Value.LONG: return BigDecimal.valueOf(this.longValue);
+            case Value.DOUBLE: return BigDecimal.valueOf(this.doubleValue);
+            case Value.DECIMAL: return (this.decimalValue != null) ? this.decimalValue
+                                                                   : BigDecimal.valueOf(this.longValue, this.scale);
+            default: return null;
+        }
+    }
+
+    /**
+     * @return an immutable Value holding the current contents, shared if canonical
+     */
+    public Value toValue() {
+        return Value.valueOf(this);
+    }
+
+    /**
+     * append the value as Value.toString() would render it
+     */
+    public StringBuilder appendTo(StringBuilder builder) {
+        switch(this.type) {
+            case Value.LONG: return builder.append(this.longValue);
+            case Value.DOUBLE: return builder.append(this.doubleValue);
+            case Value.DECIMAL: if (this.decimalValue != null) {
+                                    return builder.append(this.decimalValue.toPlainString());
+                                }
+                                return appendDecimal(builder, this.longValue, this.scale);
+            default: return builder.append(Value.ERROR_MESSAGE);
+        }
+    }
+
+    // append unscaled * 10^-scale as BigDecimal.toPlainString() would render it
+    private static StringBuilder appendDecimal(StringBuilder builder, long unscaled, int scale) {
+        long power = LONG_POWERS_OF_TEN[scale];
+        long fraction = Math.abs(unscaled % power);
+        if (unscaled < 0) {
+            builder.append('-');
+        }
+        builder.append(Math.abs(unscaled / power)).append('.');
+        for (int digits = scale - 1; digits > 0 && fraction < LONG_POWERS_OF_TEN[digits]; digits--) {
+            builder.append('0');
+        }
+        return builder.append(fraction);
+    }
+
+    /**
+     * @return the value as a String
+     */
+    public String toString() {
+        switch(this.type) {
+            case Value.LONG: return Long.toString(this.longValue);
+            case Value.DOUBLE: return Double.toString(this.doubleValue);
+            case Value.DECIMAL: return appendTo(new StringBuilder()).toString();
+            default: return Value.ERROR_MESSAGE;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package calculator;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+
+/************************************************************
+ *  ReplayChunkEvent
+ *
+ *  Flight Recorder event for one chunk of lines replayed by
+ *  ReplayEngine, through a Reader or a mapped file.
+ *
+ ************************************************************/
+@Name("calculator.ReplayChunk")
+@Label("Replay Chunk")
+@Category("Calculator")
+@Description("A chunk of recorded sessions was replayed")
+@StackTrace(false)
+final class ReplayChunkEvent extends jdk.jfr.Event {
+
+    @Label("Lines")
+    int lines;
+
+    @Label("Input Size")
+    @Description("Bytes mapped for the chunk, 0 when read through a Reader")
+    @DataAmount
+    long bytes;
+
+    @Label("Mapped")
+    boolean mapped;
+}
@@ -0,0 +1,262 @@
+package calculator;
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+
+
+/************************************************************
+ *  ReplayEngine
+ *
+ *  Replays recorded keypress sessions through a Calculator.
+ *
+ *  Each input line is one session: space separated tokens as
+ *  CalculatorTester accepts them, such as "7 . 1 * 7 =".  The
+ *  calculator is cleared, every token entered, and the display
+ *  (what getCurrentValueAsString() shows) written as one output
+ *  line.
+ *
+ *  Lines are read in chunks.  With a parallelism above one the
+ *  chunks are replayed on a ForkJoinPool of that size, each with
+ *  its own Calculator, and written out in input order as they
+ *  complete.  At most two chunks per thread are in flight, so
+ *  memory stays bounded however large the input.  Tokens are
+ *  entered straight from the line, without splitting it into
+ *  Strings.
+ *
+ *  replayMapped() reads files through FileChannel.map instead,
+ *  see MappedReplay; it is the faster path for large logs.
+ *
+ ************************************************************/
+public final class ReplayEngine {
+
+    public static final int DEFAULT_CHUNK_LINES = 4096;
+
+    private final int parallelism;
+    private final int chunkLines;
+
+
+    /**
+     *  constructors
+     */
+    public ReplayEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+    public ReplayEngine(int parallelism) {
+        this(parallelism, DEFAULT_CHUNK_LINES);
+    }
+    public ReplayEngine(int parallelism, int chunkLines) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        if (chunkLines < 1) {
+            throw new IllegalArgumentException("chunk lines must be positive: " + chunkLines);
+        }
+        this.parallelism = parallelism;
+        this.chunkLines = chunkLines;
+    }
+
+
+    /**
+     * replay every line of a file into another file
+     * @return number of lines replayed
+     */
+    public long replay(Path input, Path output) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter out = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+            return replay(in, out);
+        }
+    }
+
+    /**
+     * replay every line of a file into another file, mapping the input in chunks, see MappedReplay
+     * @return number of lines replayed
+     */
+    public long replayMapped(Path input, Path output) throws IOException {
+        return new MappedReplay(this.parallelism, MappedReplay.DEFAULT_CHUNK_BYTES).replay(input, output);
+    }
+
+    /**
+     * replay every line of a reader, one result line per input line
+     * @return number of lines replayed
+     */
+    public long replay(BufferedReader in, Writer out) throws IOException {
+        if (this.parallelism == 1) {
+            return replaySerial(in, out);
+        }
+        ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            return replayParallel(in, out, pool);
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // replay in the calling thread
+    private long replaySerial(BufferedReader in, Writer out) throws IOException {
+        Calculator calculator = new Calculator();
+        StringBuilder result = new StringBuilder();
+        ReplayChunkEvent event = new ReplayChunkEvent();
+        event.begin();
+        long count = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            result.setLength(0);
+            replayLine(calculator, line, result).append('\n');
+            out.append(result);
+            count++;
+            if (++event.lines == this.chunkLines) {
+                commit(event);
+                event = new ReplayChunkEvent();
+                event.begin();
+            }
+        }
+        if (event.lines > 0) {
+            commit(event);
+        }
+        out.flush();
+        return count;
+    }
+
+    // replay chunks on the pool, writing them in order
+    private long replayParallel(BufferedReader in, Writer out, ForkJoinPool pool) throws IOException {
+        ArrayDeque<Future<StringBuilder>> pending = new ArrayDeque<Future<StringBuilder>>();
+        long count = 0;
+        while (true) {
+            String[] lines = readChunk(in);
+            if (lines == null) {
+                break;
+            }
+            count += lines.length;
+            if (pending.size() == 2 * this.parallelism) {
+                out.append(await(pending.removeFirst()));
+            }
+            pending.addLast(pool.submit(new Chunk(lines)));
+        }
+        while (!pending.isEmpty()) {
+            out.append(await(pending.removeFirst()));
+        }
+        out.flush();
+        return count;
+    }
+
+    // next lines of the input, null at the end
+    private String[] readChunk(BufferedReader in) throws IOException {
+        String[] lines = new String[this.chunkLines];
+        int count = 0;
+        String line;
+        while (count < lines.length && (line = in.readLine()) != null) {
+            lines[count++] = line;
+        }
+        if (count == 0) {
+            return null;
+        }
+        if (count < lines.length) {
+            String[] shorter = new String[count];
+            System.arraycopy(lines, 0, shorter, 0, count);
+            return shorter;
+        }
+        return lines;
+    }
+
+    // result of a chunk, rethrowing its failure
+    private static StringBuilder await(Future<StringBuilder> chunk) throws IOException {
+        try {
+            return chunk.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("replay interrupted");
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException("replay failed", e.getCause());
+        }
+    }
+
+    // replays one chunk of lines with its own calculator
+    private static final class Chunk implements Callable<StringBuilder> {
+        private final String[] lines;
+
+        // constructor
+        Chunk(String[] lines) {
+            this.lines = lines;
+        }
+
+        // replay every line, one result line each
+        public StringBuilder call() {
+            ReplayChunkEvent event = new ReplayChunkEvent();
+            event.begin();
+            Calculator calculator = new Calculator();
+            StringBuilder result = new StringBuilder(this.lines.length * 8);
+            for (int i = 0; i < this.lines.length; i++) {
+                replayLine(calculator, this.lines[i], result).append('\n');
+            }
+            event.lines = this.lines.length;
+            commit(event);
+            return result;
+        }
+    }
+
+    // commit a chunk event read through a Reader, if recording
+    private static void commit(ReplayChunkEvent event) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.mapped = false;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * clear the calculator, enter the space separated tokens of a line and append the display
+     */
+    public static StringBuilder replayLine(Calculator calculator, CharSequence line, StringBuilder result) {
+        calculator.reset();
+        enterTokens(calculator, line, 0, line.length());
+        return calculator.appendCurrentValue(result);
+    }
+
+    /**
+     * enter the space separated tokens from start to end of text, without creating Strings for them
+     */
+    public static void enterTokens(Calculator calculator, CharSequence text, int start, int end) {
+        while (start < end) {
+            int tokenEnd = start;
+            while (tokenEnd < end && text.charAt(tokenEnd) != ' ') {
+                tokenEnd++;
+            }
+            if (tokenEnd > start) {
+                calculator.enter(text, start, tokenEnd);
+            }
+            start = tokenEnd + 1;
+        }
+    }
+
+
+    // main: input file, output file and optionally the parallelism
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("usage: ReplayEngine <input> <output> [parallelism]");
+            return;
+        }
+        ReplayEngine engine = (args.length > 2) ? new ReplayEngine(Integer.parseInt(args[2])) : new ReplayEngine();
+        long start = System.nanoTime();
+        long lines = engine.replayMapped(Paths.get(args[0]), Paths.get(args[1]));
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println(lines + " lines in " + millis + " ms");
+    }
+}
@@ -0,0 +1,224 @@
+package calculator;
+
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+
+/************************************************************
+ *  ResultMemo
+ *
+ *  Opt-in memo of operation results, keyed on the operation
+ *  and both operand values, shared by any number of threads.
+ *
+ *  Keys are the canonical identity of the operands as
+ *  Value.equals sees it (type and value, doubles by their
+ *  bits), read straight from the Registers so a lookup creates
+ *  no objects and a miss only its entry, also when the result
+ *  overwrites an operand as a Calculator's does.  Results are
+ *  stored exactly as the arithmetic produced them, errors
+ *  included, so a hit gives the same type and value a
+ *  calculation would, "7 / 0" still an error and 6 / 2 still
+ *  the long 3.
+ *
+ *  The table is direct mapped: each key has one slot and a new
+ *  entry simply replaces whatever was there, so the memo never
+ *  grows beyond its capacity and needs no lock.  Entries are
+ *  immutable with final fields, so a racing reader sees either
+ *  the old or the new entry whole.
+ *
+ *  A lookup costs more than adding two longs; the memo pays
+ *  for repeated decimal division and other costly NumericMode
+ *  operations.  Operands that are large BigDecimals, and error
+ *  operands, are calculated without the memo.
+ *
+ ************************************************************/
+public final class ResultMemo {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final Entry[] table;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+
+    // one memoized result, never modified
+    private static final class Entry {
+        final NumericMode mode;
+        final int op;
+        final int type1;
+        final long bits1;
+        final int scale1;
+        final int type2;
+        final long bits2;
+        final int scale2;
+        final int resultType;
+        final long resultBits;
+        final int resultScale;
+
+        // constructor, the operands' keys were taken before result was written, it may be one of them
+        Entry(NumericMode mode, int op, int type1, long bits1, int scale1, int type2, long bits2, int scale2,
+              Register result) {
+            this.mode = mode;
+            this.op = op;
+            this.type1 = type1;
+            this.bits1 = bits1;
+            this.scale1 = scale1;
+            this.type2 = type2;
+            this.bits2 = bits2;
+            this.scale2 = scale2;
+            this.resultType = result.type();
+            this.resultBits = bits(result);
+            this.resultScale = result.scale();
+        }
+
+        // whether this entry is for the operation on the operands
+        boolean matches(NumericMode mode, int op, Register val1, Register val2) {
+            return this.mode == mode && this.op == op
+                && this.type1 == val1.type() && this.bits1 == bits(val1) && this.scale1 == val1.scale()
+                && this.type2 == val2.type() && this.bits2 == bits(val2) && this.scale2 == val2.scale();
+        }
+
+        // set a register to the result
+        void applyTo(Register result) {
+            switch(this.resultType) {
+                case Value.LONG: result.set(this.resultBits);
+                                 break;
+                case Value.DOUBLE: result.setDouble(Double.longBitsToDouble(this.resultBits));
+                                   break;
+                case Value.DECIMAL: result.setDecimal(this.resultBits, this.resultScale);
+                                    break;
+                default: result.setError();
+            }
+        }
+    }
+
+
+    /**
+     *  constructors
+     */
+    public ResultMemo() {
+        this(DEFAULT_CAPACITY);
+    }
+    public ResultMemo(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size *= 2;
+        }
+        this.table = new Entry[size];
+    }
+
+
+    /**
+     *  calculate val1 op val2 into result with the legacy arithmetic, see Arithmetic.calculate
+     */
+    public void calculate(Register val1, int op, Register val2, Register result) {
+        calculate(NumericMode.legacy(), val1, op, val2, result);
+    }
+
+    /**
+     *  calculate val1 op val2 into result in a numeric mode, see NumericMode.calculate
+     */
+    public void calculate(NumericMode mode, Register val1, int op, Register val2, Register result) {
+        if (!isMemoizable(val1) || !isMemoizable(val2)) {
+            mode.calculate(val1, op, val2, result);
+            return;
+        }
+        int index = index(mode, op, val1, val2);
+        Entry entry = this.table[index];
+        if (entry != null && entry.matches(mode, op, val1, val2)) {
+            this.hits.increment();
+            entry.applyTo(result);
+            return;
+        }
+        this.misses.increment();
+        // the key, read before calculating as result may be an operand, as it is for a Calculator
+        int type1 = val1.type();
+        long bits1 = bits(val1);
+        int scale1 = val1.scale();
+        int type2 = val2.type();
+        long bits2 = bits(val2);
+        int scale2 = val2.scale();
+        mode.calculate(val1, op, val2, result);
+        if (isMemoizable(result) || result.isError()) {
+            if (entry != null) {
+                this.evictions.increment();
+            }
+            this.table[index] = new Entry(mode, op, type1, bits1, scale1, type2, bits2, scale2, result);
+        }
+    }
+
+    // whether a register's value can be a key, everything but errors and large decimals
+    private static boolean isMemoizable(Register value) {
+        return value.isLong() || value.isDouble() || value.isCompactDecimal();
+    }
+
+    // the payload of a register as bits, doubles as Double.equals compares them
+    private static long bits(Register value) {
+        if (value.isDouble()) {
+            return Double.doubleToLongBits(value.doubleValue());
+        }
+        return value.unscaledValue();
+    }
+
+    // slot of a key
+    private int index(NumericMode mode, int op, Register val1, Register val2) {
+        long hash = bits(val1) * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ bits(val2)) * 0x9E3779B97F4A7C15L;
+        hash ^= (op << 8) ^ (val1.type() << 4) ^ val2.type() ^ ((long)val1.scale() << 40) ^ ((long)val2.scale() << 48);
+        hash ^= System.identityHashCode(mode);
+        hash ^= hash >>> 29;
+        return (int)hash & (this.table.length - 1);
+    }
+
+
+    /**
+     * remove every entry, the counters are kept
+     */
+    public void clear() {
+        for (int i = 0; i < this.table.length; i++) {
+            this.table[i] = null;
+        }
+    }
+
+    /**
+     * @return number of slots
+     */
+    public int capacity() {
+        return this.table.length;
+    }
+
+    /**
+     * @return number of lookups that found a result
+     */
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return number of lookups that had to calculate
+     */
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return number of results replaced by another key
+     */
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * @return hits per lookup, 0 before the first lookup
+     */
+    public double getHitRatio() {
+        long hits = this.hits.sum();
+        long lookups = hits + this.misses.sum();
+        return (lookups == 0) ? 0.0 : (double)hits / lookups;
+    }
+}
@@ -0,0 +1,49 @@
+package calculator;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+
+
+/************************************************************
+ *  SessionEvent
+ *
+ *  Flight Recorder event for a Calculator starting or being
+ *  cleared.  An instant event, committed only while recording
+ *  with calculator.Session enabled, see calculator.jfc.
+ *
+ ************************************************************/
+@Name("calculator.Session")
+@Label("Calculator Session")
+@Category("Calculator")
+@Description("A calculator was created or cleared")
+@StackTrace(false)
+final class SessionEvent extends jdk.jfr.Event {
+
+    public static final String START = "start";
+    public static final String CLEAR = "clear";
+
+    @Label("Action")
+    String action;
+
+    @Label("Calculator")
+    @Description("Identity hash code of the calculator")
+    int calculator;
+
+
+    /**
+     * record a session action if recording
+     */
+    static void record(String action, Object calculator) {
+        SessionEvent event = new SessionEvent();
+        if (event.isEnabled()) {
+            event.action = action;
+            event.calculator = System.identityHashCode(calculator);
+            event.commit();
+        }
+    }
+}
@@ -1,24 +1,53 @@
 package calculator;
 
 
+import java.math.BigDecimal;
+
+
+
 /************************************************************
  *  Value
  *
  *  Immutable class to represent a calculator value
+ *
+ *  The error value, zero and longs from CACHE_LOW to CACHE_HIGH
+ *  are canonical: valueOf(), error(), init() and every Value a
+ *  Register hands out share one instance for each, as
+ *  Long.valueOf does.  The constructors still always create a
+ *  new object.
  *  
  ************************************************************/
 public class Value {
   
-    private static final String ERROR_MESSAGE = "Error";
+    static final String ERROR_MESSAGE = "Error";
 
     // display types
-    private static final int ERROR = -1;
-    private static final int UNKNOWN = 0;
-    private static final int LONG = 1;
-    private static final int DOUBLE = 2;
+    static final int ERROR = -1;
+    static final int UNKNOWN = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int DECIMAL = 3;
 
     private int type = 0;
-    private Object value = null;
+    private long longValue = 0;      // payload when LONG
+    private double doubleValue = 0.0; // payload when DOUBLE
+    private BigDecimal decimalValue = null;  // payload when DECIMAL
+
+    // range of the canonical longs
+    static final int CACHE_LOW = -128;
+    static final int CACHE_HIGH = 1023;
+    private static final Value[] CACHE = new Value[CACHE_HIGH - CACHE_LOW + 1];
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new Value((long)(CACHE_LOW + i));
+        }
+    }
+
+    /**
+     * the shared error and zero values
+     */
+    public static final Value ERROR_VALUE = new Value(ERROR);
+    public static final Value ZERO = CACHE[-CACHE_LOW];
 
 
     /**
@@ -28,21 +57,36 @@ public class Value {
         init(type);
     }
     public Value(String value) {
-        init(value);
+        this(parse(value));
     }
     public Value(long value) {
         this.type = LONG;
-        this.value = Long.valueOf(value);
+        this.longValue = value;
     }
     public Value(double value) {
         long longValue = (long)value;
         if ((double)longValue == value) {
             this.type = LONG;
-            this.value = Long.valueOf(longValue);
+            this.longValue = longValue;
         }
         else {
             this.type = DOUBLE;
-            this.value = Double.valueOf(value);
+            this.doubleValue = value;
+        }
+    }
+    public Value(BigDecimal value) {
+        this(decimal(value));
+    }
+    Value(Register register) {
+        this.type = register.type();
+        if (this.type == DOUBLE) {
+            this.doubleValue = register.doubleValue();
+        }
+        else if (this.type == LONG) {
+            this.longValue = register.longValue();
+        }
+        else if (this.type == DECIMAL) {
+            this.decimalValue = register.decimalValue();
         }
     }
 
@@ -50,55 +94,42 @@ public class Value {
     // initialize based on type only
     private void init(int type) {
         this.type = type;
+        this.longValue = 0;
+        this.doubleValue = 0.0;
         switch(type) {
-            case UNKNOWN: this.value = Long.valueOf(0); // assume integer
-                          this.type = LONG;  
-                          break;
-            case LONG: this.value = Long.valueOf(0);
-                          break;
-            case DOUBLE:   this.value = Double.valueOf(0.0);
+            case UNKNOWN: this.type = LONG;  // assume integer
                           break;
-            case ERROR:   this.value = ERROR_MESSAGE;
-                          break;
-            default:      this.value = ERROR_MESSAGE;
-                          this.type = ERROR;
+            case LONG:
+            case DOUBLE:
+            case ERROR:   break;
+            default:      this.type = ERROR;
         }
     }
 
-    // initialize based on String value
-    private void init(String str) {
-        if (str == null) {
-            init(UNKNOWN);
-        }
-	else if (str.equals(ERROR_MESSAGE)) {
-            init(ERROR);
-            return;
-        }
-        else if (str.indexOf(".") >= 0) {
-            init(DOUBLE);
-            try {
-                this.value = Double.valueOf(str);
-            }
-            catch(NumberFormatException e) {
-                init(ERROR);
-            }
-        }
-        else {
-            init(LONG);
-            try {
-                this.value = Long.valueOf(str);
-            }
-            catch(NumberFormatException e) {
-                init(ERROR);
-            }
-        }
+    // parse a String, see NumberParser
+    private static Register parse(String str) {
+        Register register = new Register();
+        register.set(str);
+        return register;
+    }
+
+    // a decimal in a register, whole numbers that fit become longs
+    private static Register decimal(BigDecimal value) {
+        Register register = new Register();
+        register.setDecimal(value);
+        return register;
     }
 
     /**
      * @return the value as a String
      */
     public String toString() {
-        return this.value.toString();
+        switch(this.type) {
+            case LONG: return Long.toString(this.longValue);
+            case DOUBLE: return Double.toString(this.doubleValue);
+            case DECIMAL: return this.decimalValue.toPlainString();
+            default: return ERROR_MESSAGE;
+        }
     }
 
     /**
@@ -143,25 +174,104 @@ public class Value {
 
 
     /**
-     * @return error value object
+     * @return whether this value is a decimal, see NumericMode
+     */
+    public boolean isDecimal() {
+        if (this.type == DECIMAL) {
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * @return error value object, shared
      */
     public static Value error() {
-        return new Value(ERROR);
+        return ERROR_VALUE;
     }
 
     /**
-     * @return default initial value
+     * @return default initial value, shared
      */
     public static Value init() {
-        return new Value(LONG);
+        return ZERO;
     }
 
 
     /**
-     * @return Value object
+     * @return Value object, shared if canonical
      */
     public static Value valueOf(String str) {
-        return new Value(str);
+        return parse(str).toValue();
+    }
+
+    /**
+     * @return Value object, shared if canonical
+     */
+    public static Value valueOf(long value) {
+        if (value >= CACHE_LOW && value <= CACHE_HIGH) {
+            return CACHE[(int)value - CACHE_LOW];
+        }
+        return new Value(value);
+    }
+
+    /**
+     * @return Value object for a register's contents, shared if canonical
+     */
+    static Value valueOf(Register register) {
+        switch(register.type()) {
+            case LONG: return valueOf(register.longValue());
+            case DOUBLE:
+            case DECIMAL: return new Value(register);
+            default: return ERROR_VALUE;
+        }
+    }
+
+    /**
+     * @return whether a value is one of the shared canonical instances
+     */
+    static boolean isCanonical(Value value) {
+        if (value == ERROR_VALUE) {
+            return true;
+        }
+        return value != null && value.type == LONG && value.longValue >= CACHE_LOW && value.longValue <= CACHE_HIGH
+            && CACHE[(int)value.longValue - CACHE_LOW] == value;
+    }
+
+    /**
+     * @return whether another object is a Value of the same type and value,
+     *      doubles compare as Double.equals does and decimals as BigDecimal.equals does
+     */
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof Value)) {
+            return false;
+        }
+        Value value = (Value)other;
+        if (this.type != value.type) {
+            return false;
+        }
+        switch(this.type) {
+            case LONG: return this.longValue == value.longValue;
+            case DOUBLE: return Double.doubleToLongBits(this.doubleValue) == Double.doubleToLongBits(value.doubleValue);
+            case DECIMAL: return this.decimalValue.equals(value.decimalValue);
+            default: return true;
+        }
+    }
+
+    /**
+     * @return hash code consistent with equals
+     */
+    public int hashCode() {
+        switch(this.type) {
+            case LONG: return Long.hashCode(this.longValue);
+            case DOUBLE: return 31 * DOUBLE + Double.hashCode(this.doubleValue);
+            case DECIMAL: return 31 * DECIMAL + this.decimalValue.hashCode();
+            default: return this.type;
+        }
     }
 
     /**
@@ -169,12 +279,13 @@ public class Value {
      */
     public long longValue() {
         if (this.type == LONG) {
-            Long l = (Long)this.value;
-            return l.longValue();
+            return this.longValue;
         }
         if (this.type == DOUBLE) {
-            Double d = (Double)this.value;
-            return d.longValue();
+            return (long)this.doubleValue;
+        }
+        if (this.type == DECIMAL) {
+            return this.decimalValue.longValue();
         }
         return 0;
     }
@@ -184,15 +295,28 @@ public class Value {
      */
     public double doubleValue() {
         if (this.type == LONG) {
-            Long l = (Long)this.value;
-            return l.doubleValue();
+            return (double)this.longValue;
         }
         if (this.type == DOUBLE) {
-            Double d = (Double)this.value;
-            return d.doubleValue();
+            return this.doubleValue;
+        }
+        if (this.type == DECIMAL) {
+            return this.decimalValue.doubleValue();
         }
         return 0.0;
     }
+
+    /**
+     * @return decimal version of value, null for an error
+     */
+    public BigDecimal decimalValue() {
+        switch(this.type) {
+            case LONG: return BigDecimal.valueOf(this.longValue);
+            case DOUBLE: return BigDecimal.valueOf(this.doubleValue);
+            case DECIMAL: return this.decimalValue;
+            default: return null;
+        }
+    }
 }
 
 
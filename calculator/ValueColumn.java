@@ -0,0 +1,188 @@
+package calculator;
+
+
+import java.util.Arrays;
+
+
+
+/************************************************************
+ *  ValueColumn
+ *
+ *  Mutable column of calculator values, stored as parallel
+ *  primitive arrays so a whole column can be processed in one
+ *  loop without a Value per row.
+ *
+ *  Both payload arrays are always filled: a LONG row also holds
+ *  its double value and a DOUBLE row its truncated long value,
+ *  so the arithmetic can read either without checking the type.
+ *  An ERROR row holds 0 and NaN.
+ *
+ ************************************************************/
+public final class ValueColumn {
+
+    final byte[] types;
+    final long[] longs;
+    final double[] doubles;
+
+
+    /**
+     *  constructor, every row starts as 0
+     */
+    public ValueColumn(int capacity) {
+        this.types = new byte[capacity];
+        this.longs = new long[capacity];
+        this.doubles = new double[capacity];
+        Arrays.fill(this.types, (byte)Value.LONG);
+    }
+
+
+    /**
+     * @return the number of rows this column can hold
+     */
+    public int capacity() {
+        return this.types.length;
+    }
+
+    /**
+     * set a row to a long value
+     */
+    public void set(int row, long value) {
+        this.types[row] = Value.LONG;
+        this.longs[row] = value;
+        this.doubles[row] = (double)value;
+    }
+
+    /**
+     * set a row to a double value, collapsing whole numbers to long as Value(double) does
+     */
+    public void set(int row, double value) {
+        long longValue = (long)value;
+        this.types[row] = ((double)longValue == value) ? (byte)Value.LONG : (byte)Value.DOUBLE;
+        this.longs[row] = longValue;
+        this.doubles[row] = value;
+    }
+
+    /**
+     * set a row to a double value without collapsing whole numbers
+     */
+    public void setDouble(int row, double value) {
+        this.types[row] = Value.DOUBLE;
+        this.longs[row] = (long)value;
+        this.doubles[row] = value;
+    }
+
+    /**
+     * set a row to the error value
+     */
+    public void setError(int row) {
+        this.types[row] = Value.ERROR;
+        this.longs[row] = 0;
+        this.doubles[row] = Double.NaN;
+    }
+
+    /**
+     * set a row to a value, decimals are stored as doubles
+     */
+    public void set(int row, Value value) {
+        if (value == null || value.isError()) {
+            setError(row);
+        }
+        else if (value.isDouble() || value.isDecimal()) {
+            setDouble(row, value.doubleValue());
+        }
+        else {
+            set(row, value.longValue());
+        }
+    }
+
+    /**
+     * set every row to a value
+     */
+    public void fill(Value value) {
+        for (int i = 0; i < this.types.length; i++) {
+            set(i, value);
+        }
+    }
+
+    /**
+     * copy count rows from a long array, typed LONG
+     */
+    public void load(long[] values, int from, int row, int count) {
+        System.arraycopy(values, from, this.longs, row, count);
+        for (int i = row; i < row + count; i++) {
+            this.types[i] = Value.LONG;
+            this.doubles[i] = (double)this.longs[i];
+        }
+    }
+
+    /**
+     * copy count rows from a double array, typed DOUBLE like a literal "7.0"
+     */
+    public void load(double[] values, int from, int row, int count) {
+        System.arraycopy(values, from, this.doubles, row, count);
+        for (int i = row; i < row + count; i++) {
+            this.types[i] = Value.DOUBLE;
+            this.longs[i] = (long)this.doubles[i];
+        }
+    }
+
+    /**
+     * copy count rows from another column
+     */
+    public void copy(ValueColumn other, int from, int row, int count) {
+        System.arraycopy(other.types, from, this.types, row, count);
+        System.arraycopy(other.longs, from, this.longs, row, count);
+        System.arraycopy(other.doubles, from, this.doubles, row, count);
+    }
+
+
+    /**
+     * @return whether a row is an error
+     */
+    public boolean isError(int row) {
+        return this.types[row] == Value.ERROR;
+    }
+
+    /**
+     * @return whether a row is a long
+     */
+    public boolean isLong(int row) {
+        return this.types[row] == Value.LONG;
+    }
+
+    /**
+     * @return whether a row is a double
+     */
+    public boolean isDouble(int row) {
+        return this.types[row] == Value.DOUBLE;
+    }
+
+    /**
+     * @return long version of a row, 0 for an error
+     */
+    public long longValue(int row) {
+        return this.longs[row];
+    }
+
+    /**
+     * @return double version of a row, NaN for an error
+     */
+    public double doubleValue(int row) {
+        return this.doubles[row];
+    }
+
+    /**
+     * @return a row as a Value
+     */
+    public Value getValue(int row) {
+        Register register = new Register();
+        switch(this.types[row]) {
+            case Value.LONG: register.set(this.longs[row]);
+                             break;
+            case Value.DOUBLE: register.setDouble(this.doubles[row]);
+                               break;
+            default: register.setError();
+        }
+        return register.toValue();
+    }
+}
@@ -0,0 +1,165 @@
+package calculator;
+
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+
+/************************************************************
+ *  VectorArithmetic
+ *
+ *  ArrayArithmetic on SIMD lanes, through the incubating
+ *  Vector API in jdk.incubator.vector.
+ *
+ *  Every operation runs whole vectors of the preferred species
+ *  (8 lanes with AVX-512, 4 with AVX2) and finishes the last
+ *  partial vector with the scalar loop, so results are the same
+ *  element for element.  Division compares the divisors with
+ *  zero as a lane mask, counts its set lanes as the errors and
+ *  blends NaN into them, the scalar rule without a branch.
+ *
+ *  Only loaded by ArrayArithmetic.getDefault() when the module
+ *  is present; compiling and running this class needs
+ *  --add-modules jdk.incubator.vector.
+ *
+ ************************************************************/
+final class VectorArithmetic extends ArrayArithmetic {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+
+    // constructor, see ArrayArithmetic.getDefault()
+    VectorArithmetic() {
+    }
+
+    /**
+     * @return whether this implementation uses SIMD lanes
+     */
+    public boolean isVectorized() {
+        return true;
+    }
+
+    /**
+     * @return the name of this implementation
+     */
+    public String toString() {
+        return "vector " + DOUBLES.vectorBitSize() + " bit";
+    }
+
+
+    /**
+     * long addition
+     */
+    public void add(long[] val1, long[] val2, long[] result, int count) {
+        int i = 0;
+        for (int bound = LONGS.loopBound(count); i < bound; i += LONGS.length()) {
+            LongVector.fromArray(LONGS, val1, i).add(LongVector.fromArray(LONGS, val2, i)).intoArray(result, i);
+        }
+        for (; i < count; i++) {
+            result[i] = val1[i] + val2[i];
+        }
+    }
+
+    /**
+     * long subtraction
+     */
+    public void subtract(long[] val1, long[] val2, long[] result, int count) {
+        int i = 0;
+        for (int bound = LONGS.loopBound(count); i < bound; i += LONGS.length()) {
+            LongVector.fromArray(LONGS, val1, i).sub(LongVector.fromArray(LONGS, val2, i)).intoArray(result, i);
+        }
+        for (; i < count; i++) {
+            result[i] = val1[i] - val2[i];
+        }
+    }
+
+    /**
+     * long multiplication
+     */
+    public void multiply(long[] val1, long[] val2, long[] result, int count) {
+        int i = 0;
+        for (int bound = LONGS.loopBound(count); i < bound; i += LONGS.length()) {
+            LongVector.fromArray(LONGS, val1, i).mul(LongVector.fromArray(LONGS, val2, i)).intoArray(result, i);
+        }
+        for (; i < count; i++) {
+            result[i] = val1[i] * val2[i];
+        }
+    }
+
+    /**
+     * division of longs, as doubles, dividing by zero gives NaN
+     * @return number of divisions by zero
+     */
+    public int divide(long[] val1, long[] val2, double[] result, int count) {
+        int errors = 0;
+        int i = 0;
+        for (int bound = LONGS.loopBound(count); i < bound; i += LONGS.length()) {
+            DoubleVector dividend = (DoubleVector)LongVector.fromArray(LONGS, val1, i).convert(VectorOperators.L2D, 0);
+            DoubleVector divisor = (DoubleVector)LongVector.fromArray(LONGS, val2, i).convert(VectorOperators.L2D, 0);
+            VectorMask<Double> zeros = divisor.eq(0.0);
+            errors += zeros.trueCount();
+            dividend.div(divisor).blend(Double.NaN, zeros).intoArray(result, i);
+        }
+        return errors + divideRange(val1, val2, result, i, count);
+    }
+
+    /**
+     * double addition
+     */
+    public void add(double[] val1, double[] val2, double[] result, int count) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(count); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, val1, i).add(DoubleVector.fromArray(DOUBLES, val2, i)).intoArray(result, i);
+        }
+        for (; i < count; i++) {
+            result[i] = val1[i] + val2[i];
+        }
+    }
+
+    /**
+     * double subtraction
+     */
+    public void subtract(double[] val1, double[] val2, double[] result, int count) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(count); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, val1, i).sub(DoubleVector.fromArray(DOUBLES, val2, i)).intoArray(result, i);
+        }
+        for (; i < count; i++) {
+            result[i] = val1[i] - val2[i];
+        }
+    }
+
+    /**
+     * double multiplication
+     */
+    public void multiply(double[] val1, double[] val2, double[] result, int count) {
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(count); i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, val1, i).mul(DoubleVector.fromArray(DOUBLES, val2, i)).intoArray(result, i);
+        }
+        for (; i < count; i++) {
+            result[i] = val1[i] * val2[i];
+        }
+    }
+
+    /**
+     * double division, dividing by zero gives NaN
+     * @return number of divisions by zero
+     */
+    public int divide(double[] val1, double[] val2, double[] result, int count) {
+        int errors = 0;
+        int i = 0;
+        for (int bound = DOUBLES.loopBound(count); i < bound; i += DOUBLES.length()) {
+            DoubleVector divisor = DoubleVector.fromArray(DOUBLES, val2, i);
+            VectorMask<Double> zeros = divisor.eq(0.0);
+            errors += zeros.trueCount();
+            DoubleVector.fromArray(DOUBLES, val1, i).div(divisor).blend(Double.NaN, zeros).intoArray(result, i);
+        }
+        return errors + divideRange(val1, val2, result, i, count);
+    }
+}
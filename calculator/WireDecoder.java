@@ -0,0 +1,162 @@
+package calculator;
+
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+
+
+/************************************************************
+ *  WireDecoder
+ *
+ *  Reads frames of the binary WireProtocol from a ByteBuffer.
+ *
+ *  Request tokens are entered straight into a Calculator, and
+ *  literals go through one reused Register, so decoding a frame
+ *  allocates nothing except for big decimals.  A literal is
+ *  entered with the operation or "=" after it, as typed digits
+ *  are, and one left at the end of an expression is dropped
+ *  like unfinished input, so results are what the Calculator's
+ *  getCurrentValue() gives for the same tokens.  evaluate() runs
+ *  a whole request frame and writes the response frame:
+ *
+ *      WireDecoder decoder = new WireDecoder();
+ *      decoder.evaluate(request, new Calculator(), new WireEncoder(response));
+ *
+ *  Malformed input, such as an unknown tag, is an
+ *  IllegalArgumentException; a truncated frame runs into
+ *  ByteBuffer's BufferUnderflowException, check hasFrame()
+ *  first when reading from a stream.  A decoder is not thread
+ *  safe.
+ *
+ ************************************************************/
+public final class WireDecoder {
+
+    private final Register literal = new Register();
+
+
+    /**
+     * read a frame header, the buffer is left at the frame's body
+     * @return number of expressions or results in the frame
+     */
+    public int beginFrame(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        int count = buffer.getInt();
+        if (length < 0 || count < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("bad frame header: length " + length + ", count " + count
+                                               + ", " + buffer.remaining() + " bytes left");
+        }
+        return count;
+    }
+
+    /**
+     * enter the tokens of one request expression into a calculator, up to and including its TAG_END
+     */
+    public void enterExpression(ByteBuffer buffer, Calculator calculator) {
+        boolean pending = false;  // a literal waits for the operator or "=" after it
+        for (byte tag = buffer.get(); tag != WireProtocol.TAG_END; tag = buffer.get()) {
+            if (tag == WireProtocol.TAG_EQUALS) {
+                enterPending(calculator, pending);
+                pending = false;
+                calculator.enterEquals();
+            }
+            else if (tag == WireProtocol.TAG_CLEAR) {
+                pending = false;
+                calculator.clear();
+            }
+            else if ((tag & ~0x0f) == WireProtocol.TAG_OPERATION) {
+                int op = tag & 0x0f;
+                if (op < Calculator.OP_PLUS || op > Calculator.OP_DIVIDE) {
+                    throw unknownTag(buffer, tag);
+                }
+                enterPending(calculator, pending);
+                pending = false;
+                calculator.enterOperation(op);
+            }
+            else {
+                getValue(buffer, tag, this.literal);  // a second literal replaces the first
+                pending = true;
+            }
+        }
+    }
+
+    // enter the pending literal, if any
+    private void enterPending(Calculator calculator, boolean pending) {
+        if (pending) {
+            calculator.enterOperand(this.literal);
+        }
+    }
+
+    /**
+     * read one literal, such as a value of a response frame
+     */
+    public void getValue(ByteBuffer buffer, Register result) {
+        getValue(buffer, buffer.get(), result);
+    }
+
+    /**
+     * read one literal as a Value
+     */
+    public Value getValue(ByteBuffer buffer) {
+        getValue(buffer, this.literal);
+        return this.literal.toValue();
+    }
+
+    // read the payload of a literal whose tag was read already
+    private static void getValue(ByteBuffer buffer, byte tag, Register result) {
+        switch(tag) {
+            case WireProtocol.TAG_LONG: result.set(WireProtocol.getVarLong(buffer));
+                                        break;
+            case WireProtocol.TAG_DOUBLE: result.setDouble(buffer.getDouble());
+                                          break;
+            case WireProtocol.TAG_DECIMAL: int scale = buffer.get();
+                                           if (scale < 1 || scale > Register.MAX_SCALE) {
+                                               throw new IllegalArgumentException("bad decimal scale " + scale);
+                                           }
+                                           result.setDecimal(WireProtocol.getVarLong(buffer), scale);
+                                           break;
+            case WireProtocol.TAG_BIG_DECIMAL: result.setDecimal(getBigDecimal(buffer));
+                                               break;
+            case WireProtocol.TAG_ERROR: result.setError();
+                                         break;
+            default: throw unknownTag(buffer, tag);
+        }
+    }
+
+    // read the payload of a big decimal
+    private static BigDecimal getBigDecimal(ByteBuffer buffer) {
+        long scale = WireProtocol.getVarLong(buffer);
+        long length = WireProtocol.getVarLong(buffer);
+        if (scale != (int)scale || length < 1 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("bad big decimal: scale " + scale + ", length " + length);
+        }
+        byte[] unscaled = new byte[(int)length];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), (int)scale);
+    }
+
+    // the exception for a tag that is not valid here
+    private static IllegalArgumentException unknownTag(ByteBuffer buffer, byte tag) {
+        return new IllegalArgumentException("unknown tag 0x" + Integer.toHexString(tag & 0xff)
+                                            + " at " + (buffer.position() - 1));
+    }
+
+
+    /**
+     * evaluate every expression of a request frame, each on a cleared calculator,
+     *      and write their values as a response frame
+     * @return number of expressions evaluated
+     */
+    public int evaluate(ByteBuffer request, Calculator calculator, WireEncoder response) {
+        int count = beginFrame(request);
+        response.beginFrame();
+        for (int i = 0; i < count; i++) {
+            calculator.reset();
+            enterExpression(request, calculator);
+            response.putResult(calculator.getCurrentRegister());
+        }
+        response.endFrame();
+        return count;
+    }
+}
@@ -0,0 +1,265 @@
+package calculator;
+
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+
+
+/************************************************************
+ *  WireEncoder
+ *
+ *  Writes frames of the binary WireProtocol into a ByteBuffer.
+ *
+ *      encoder.beginFrame();
+ *      encoder.putDouble(7.1).putOperation(Calculator.OP_MULTIPLY)
+ *             .putLong(7).putEquals().endExpression();
+ *      encoder.putExpression("3 + 2 * 6 =");
+ *      encoder.endFrame();
+ *
+ *  Text tokens are converted as a Calculator would read them:
+ *  adjacent operand tokens such as "7 . 1" form one literal,
+ *  parsed once by the same accumulator the Calculator uses.
+ *  Nothing is allocated per token; the buffer must be large
+ *  enough, or ByteBuffer's BufferOverflowException is thrown.
+ *
+ *  A response frame is written the same way with putResult()
+ *  for each value.  An encoder is not thread safe.
+ *
+ ************************************************************/
+public final class WireEncoder {
+
+    private ByteBuffer buffer;
+    private int frameStart = -1;  // position of the open frame's header, -1 if none
+    private int count = 0;
+    private final InputAccumulator input = new InputAccumulator();  // operand being converted from text
+    private final Register literal = new Register();
+
+
+    /**
+     *  constructor
+     */
+    public WireEncoder(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+
+    /**
+     * @return the buffer written to
+     */
+    public ByteBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * write to another buffer, between frames only
+     */
+    public void setBuffer(ByteBuffer buffer) {
+        if (this.frameStart >= 0) {
+            throw new IllegalStateException("frame still open");
+        }
+        this.buffer = buffer;
+    }
+
+    /**
+     * start a frame at the buffer's position
+     */
+    public WireEncoder beginFrame() {
+        if (this.frameStart >= 0) {
+            throw new IllegalStateException("frame already open");
+        }
+        this.frameStart = this.buffer.position();
+        this.count = 0;
+        this.buffer.putInt(0).putInt(0);  // filled in by endFrame()
+        return this;
+    }
+
+    /**
+     * finish the open frame by writing its header
+     * @return number of expressions or results in the frame
+     */
+    public int endFrame() {
+        if (this.frameStart < 0) {
+            throw new IllegalStateException("no frame open");
+        }
+        this.buffer.putInt(this.frameStart, this.buffer.position() - this.frameStart - WireProtocol.HEADER_BYTES);
+        this.buffer.putInt(this.frameStart + 4, this.count);
+        this.frameStart = -1;
+        return this.count;
+    }
+
+
+    /**
+     * write an operation, one of Calculator.OP_PLUS to OP_DIVIDE
+     */
+    public WireEncoder putOperation(int op) {
+        if (op < Calculator.OP_PLUS || op > Calculator.OP_DIVIDE) {
+            throw new IllegalArgumentException("not an operation: " + op);
+        }
+        this.buffer.put((byte)(WireProtocol.TAG_OPERATION | op));
+        return this;
+    }
+
+    /**
+     * write "="
+     */
+    public WireEncoder putEquals() {
+        this.buffer.put(WireProtocol.TAG_EQUALS);
+        return this;
+    }
+
+    /**
+     * write "Clear"
+     */
+    public WireEncoder putClear() {
+        this.buffer.put(WireProtocol.TAG_CLEAR);
+        return this;
+    }
+
+    /**
+     * write a long literal
+     */
+    public WireEncoder putLong(long value) {
+        this.buffer.put(WireProtocol.TAG_LONG);
+        WireProtocol.putVarLong(this.buffer, value);
+        return this;
+    }
+
+    /**
+     * write a double literal
+     */
+    public WireEncoder putDouble(double value) {
+        this.buffer.put(WireProtocol.TAG_DOUBLE).putDouble(value);
+        return this;
+    }
+
+    /**
+     * write the error value
+     */
+    public WireEncoder putError() {
+        this.buffer.put(WireProtocol.TAG_ERROR);
+        return this;
+    }
+
+    /**
+     * write a register's value as a literal, null as an error
+     */
+    public WireEncoder putValue(Register value) {
+        if (value == null || value.isError()) {
+            return putError();
+        }
+        if (value.isDouble()) {
+            return putDouble(value.doubleValue());
+        }
+        if (value.isCompactDecimal()) {
+            this.buffer.put(WireProtocol.TAG_DECIMAL).put((byte)value.scale());
+            WireProtocol.putVarLong(this.buffer, value.unscaledValue());
+            return this;
+        }
+        if (value.isDecimal()) {
+            BigDecimal decimal = value.decimalValue();
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            this.buffer.put(WireProtocol.TAG_BIG_DECIMAL);
+            WireProtocol.putVarLong(this.buffer, decimal.scale());
+            WireProtocol.putVarLong(this.buffer, unscaled.length);
+            this.buffer.put(unscaled);
+            return this;
+        }
+        return putLong(value.longValue());
+    }
+
+    /**
+     * write a value as a literal, null as an error
+     */
+    public WireEncoder putValue(Value value) {
+        this.literal.set(value);
+        return putValue(this.literal);
+    }
+
+    /**
+     * end the current expression of a request frame
+     */
+    public WireEncoder endExpression() {
+        this.buffer.put(WireProtocol.TAG_END);
+        this.count++;
+        return this;
+    }
+
+    /**
+     * write one value of a response frame
+     */
+    public WireEncoder putResult(Register value) {
+        putValue(value);
+        this.count++;
+        return this;
+    }
+
+
+    /**
+     * write the space separated tokens of text as one expression of a request frame
+     */
+    public WireEncoder putExpression(CharSequence text) {
+        return putTokens(text, 0, text.length(), false).endExpression();
+    }
+
+    /**
+     * write the space separated tokens from start to end of text, reading operands with
+     *      a "." as exact decimals if asked for, as the exact NumericModes do,
+     *      an operand not followed by an operation or "=" is left out
+     */
+    public WireEncoder putTokens(CharSequence text, int start, int end, boolean exact) {
+        this.input.clear();
+        while (start < end) {
+            int tokenEnd = start;
+            while (tokenEnd < end && text.charAt(tokenEnd) != ' ') {
+                tokenEnd++;
+            }
+            if (tokenEnd > start) {
+                putToken(text, start, tokenEnd, exact);
+            }
+            start = tokenEnd + 1;
+        }
+        this.input.clear();  // unfinished input is not part of the value
+        return this;
+    }
+
+    // write one token, operand tokens are collected until the next operator
+    private void putToken(CharSequence text, int start, int end, boolean exact) {
+        int length = end - start;
+        char c = (length == 1) ? text.charAt(start) : 0;
+        if (c == '=') {
+            putInput(exact);
+            putEquals();
+        }
+        else if (length == Calculator.STR_CLEAR.length() && regionEquals(text, start, Calculator.STR_CLEAR)) {
+            this.input.clear();  // Clear drops unfinished input
+            putClear();
+        }
+        else if (c == '+' || c == '-' || c == '*' || c == '/') {
+            putInput(exact);
+            putOperation(Calculator.operationOf(c));
+        }
+        else {
+            this.input.append(text, start, end);
+        }
+    }
+
+    // write the collected operand, if any
+    private void putInput(boolean exact) {
+        if (this.input.length() > 0) {
+            this.input.applyTo(this.literal, exact);
+            putValue(this.literal);
+            this.input.clear();
+        }
+    }
+
+    // whether text from start holds the characters of str
+    private static boolean regionEquals(CharSequence text, int start, String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (text.charAt(start + i) != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
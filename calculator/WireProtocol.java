@@ -0,0 +1,118 @@
+package calculator;
+
+
+import java.nio.ByteBuffer;
+
+
+
+/************************************************************
+ *  WireProtocol
+ *
+ *  Compact binary encoding of calculator requests and results,
+ *  written by WireEncoder and read by WireDecoder.
+ *
+ *  Every token is one tag byte, followed by a payload for
+ *  literals:
+ *
+ *      TAG_END                 end of an expression
+ *      TAG_LONG     varint     zigzag encoded long, 1 to 10 bytes
+ *      TAG_DOUBLE   8 bytes    IEEE 754 bits
+ *      TAG_DECIMAL  scale varint
+ *                              compact decimal, scale 1..18
+ *      TAG_BIG_DECIMAL  scale length bytes
+ *                              any other decimal, zigzag scale,
+ *                              two's complement unscaled bytes
+ *      TAG_ERROR               the error value
+ *      TAG_OPERATION | op      op one of Calculator.OP_*
+ *      TAG_EQUALS, TAG_CLEAR   "=" and "Clear"
+ *
+ *  The literal tags are Value's type tags, and an operation
+ *  carries Calculator's operation code in its low bits, so
+ *  "7 . 1 * 7 =" is the 14 bytes 02 <7.1> 13 01 0e 20 00.
+ *
+ *  Tokens are grouped in frames, so many expressions share one
+ *  buffer round-trip:
+ *
+ *      int length              bytes after the header
+ *      int count               expressions or results
+ *      body
+ *
+ *  A request body is count expressions, each ended by TAG_END
+ *  and evaluated on a cleared Calculator.  A response body is
+ *  count values, one literal or TAG_ERROR per expression, in
+ *  request order.  Ints are big-endian, as ByteBuffer is by
+ *  default.
+ *
+ ************************************************************/
+public final class WireProtocol {
+
+    public static final int HEADER_BYTES = 8;
+
+    public static final byte TAG_END = 0;
+    public static final byte TAG_LONG = (byte)Value.LONG;
+    public static final byte TAG_DOUBLE = (byte)Value.DOUBLE;
+    public static final byte TAG_DECIMAL = (byte)Value.DECIMAL;
+    public static final byte TAG_BIG_DECIMAL = 4;
+    public static final byte TAG_ERROR = (byte)Value.ERROR;
+    public static final byte TAG_OPERATION = 0x10;  // | Calculator.OP_*
+    public static final byte TAG_EQUALS = 0x20;
+    public static final byte TAG_CLEAR = 0x21;
+
+    // largest size of a varint
+    static final int MAX_VARINT_BYTES = 10;
+
+    // constants and static methods only
+    private WireProtocol() {
+    }
+
+
+    /**
+     * @return the length of the whole frame starting at the buffer's position, header
+     *      included, or -1 if not even the header is there yet
+     */
+    public static int frameLength(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES) {
+            return -1;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < 0) {
+            throw new IllegalArgumentException("negative frame length " + length);
+        }
+        return HEADER_BYTES + length;
+    }
+
+    /**
+     * @return whether a whole frame starts at the buffer's position
+     */
+    public static boolean hasFrame(ByteBuffer buffer) {
+        int length = frameLength(buffer);
+        return length >= 0 && buffer.remaining() >= length;
+    }
+
+    /**
+     * write a zigzag varint
+     */
+    static void putVarLong(ByteBuffer buffer, long value) {
+        long bits = (value << 1) ^ (value >> 63);
+        while ((bits & ~0x7fL) != 0) {
+            buffer.put((byte)((bits & 0x7f) | 0x80));
+            bits >>>= 7;
+        }
+        buffer.put((byte)bits);
+    }
+
+    /**
+     * read a zigzag varint
+     */
+    static long getVarLong(ByteBuffer buffer) {
+        long bits = 0;
+        for (int shift = 0; shift < 7 * MAX_VARINT_BYTES; shift += 7) {
+            byte b = buffer.get();
+            bits |= (long)(b & 0x7f) << shift;
+            if (b >= 0) {
+                return (bits >>> 1) ^ -(bits & 1);
+            }
+        }
+        throw new IllegalArgumentException("varint longer than " + MAX_VARINT_BYTES + " bytes");
+    }
+}